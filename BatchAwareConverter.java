@@ -0,0 +1,39 @@
+package com.davita.cwow.patient.spanner.model.converters;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converter whose per-element reference data (e.g. the mpi of a patient id) can be resolved for a whole collection
+ * with one lookup. {@link #convertCollectionInBatch} collects the distinct reference keys first, resolves them at once
+ * and then converts every element without further I/O.
+ *
+ * @param <S> source type
+ * @param <K> reference key type
+ * @param <R> resolved reference type
+ * @param <T> target type
+ */
+public interface BatchAwareConverter<S, K, R, T> {
+
+    /**
+     * The key of the reference data the source needs, or {@code null} when it needs none.
+     */
+    K referenceKey(S source);
+
+    /**
+     * Resolves all keys in one lookup. Keys without reference data may be absent from the result.
+     */
+    Map<K, R> resolveReferences(Set<K> keys);
+
+    /**
+     * Converts a source with its already resolved reference, which is {@code null} when there is none. Must not do
+     * I/O, and must be safe to call from several threads.
+     */
+    T convertResolved(S source, R reference);
+
+    default List<T> convertCollectionInBatch(Collection<? extends S> sources) {
+        return BatchConversion.convertAll(sources, this::referenceKey, this::resolveReferences, this::convertResolved);
+    }
+}
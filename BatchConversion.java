@@ -0,0 +1,62 @@
+package com.davita.cwow.patient.spanner.model.converters;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Collection conversion with reference data resolved once per batch instead of once per element.
+ */
+public final class BatchConversion {
+
+    /**
+     * Collections of at least this many elements are converted on the common fork-join pool.
+     */
+    static final int PARALLEL_THRESHOLD = 256;
+
+    private BatchConversion() {
+    }
+
+    /**
+     * Converts {@code sources} in order. The distinct non-null {@code referenceKey}s are passed to
+     * {@code bulkLookup} in a single call, which is skipped when there are none; each element is then converted with
+     * its resolved reference (or {@code null}).
+     */
+    public static <S, K, R, T> List<T> convertAll(Collection<? extends S> sources,
+            Function<? super S, ? extends K> referenceKey,
+            Function<Set<K>, Map<K, R>> bulkLookup,
+            BiFunction<? super S, ? super R, ? extends T> convert) {
+        if (Objects.isNull(sources) || sources.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<S> elements = new ArrayList<>(sources);
+        List<K> keys = new ArrayList<>(elements.size());
+        Set<K> distinctKeys = new HashSet<>();
+        for (S element : elements) {
+            K key = referenceKey.apply(element);
+            keys.add(key);
+            if (Objects.nonNull(key)) {
+                distinctKeys.add(key);
+            }
+        }
+        Map<K, R> references = distinctKeys.isEmpty() ? Collections.emptyMap() : bulkLookup.apply(distinctKeys);
+
+        IntStream indexes = IntStream.range(0, elements.size());
+        if (elements.size() >= PARALLEL_THRESHOLD) {
+            indexes = indexes.parallel();
+        }
+        return indexes
+                .mapToObj(i -> convert.apply(elements.get(i),
+                        Objects.isNull(keys.get(i)) ? null : references.get(keys.get(i))))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,75 @@
+package com.davita.cwow.patient.spanner.model.converters;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchConversionTest {
+
+    @Test
+    void resolvesDistinctKeysOnceAndKeepsOrder() {
+        AtomicInteger lookups = new AtomicInteger();
+        List<Set<String>> requestedKeys = new ArrayList<>();
+
+        List<String> converted = BatchConversion.convertAll(Arrays.asList("b:1", "a:2", "b:3", "-:4"),
+                source -> source.startsWith("-") ? null : source.substring(0, 1),
+                keys -> {
+                    lookups.incrementAndGet();
+                    requestedKeys.add(keys);
+                    Map<String, String> names = new HashMap<>();
+                    names.put("a", "Alpha");
+                    return names;
+                },
+                (source, name) -> source + "=" + name);
+
+        assertEquals(1, lookups.get());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), requestedKeys.get(0));
+        assertEquals(Arrays.asList("b:1=null", "a:2=Alpha", "b:3=null", "-:4=null"), converted);
+    }
+
+    @Test
+    void skipsLookupWithoutKeys() {
+        List<Integer> converted = BatchConversion.<Integer, String, String, Integer>convertAll(Arrays.asList(1, 2),
+                source -> null,
+                keys -> {
+                    throw new AssertionError("no lookup expected");
+                },
+                (source, reference) -> source * 10);
+
+        assertEquals(Arrays.asList(10, 20), converted);
+        assertTrue(BatchConversion.convertAll(Collections.<Integer>emptyList(), source -> source,
+                keys -> Collections.<Integer, Integer>emptyMap(), (source, reference) -> source).isEmpty());
+    }
+
+    @Test
+    void largeCollectionsKeepOrderWhenConvertedInParallel() {
+        List<Integer> sources = new ArrayList<>();
+        for (int i = 0; i < BatchConversion.PARALLEL_THRESHOLD * 4; i++) {
+            sources.add(i);
+        }
+
+        List<String> converted = BatchConversion.convertAll(sources, source -> source % 7,
+                keys -> {
+                    Map<Integer, String> references = new HashMap<>();
+                    keys.forEach(key -> references.put(key, "r" + key));
+                    return references;
+                },
+                (source, reference) -> source + reference);
+
+        assertEquals(sources.size(), converted.size());
+        for (int i = 0; i < sources.size(); i++) {
+            assertEquals(i + "r" + (i % 7), converted.get(i));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.davita.cwow.patient.benchmark;
+
+import org.mockito.Mockito;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * In-memory stand-ins for the remote dependencies of the patient query services, cheap enough that benchmarks measure
+ * the service code rather than the stand-in.
+ */
+final class BenchmarkStandIns {
+
+    private BenchmarkStandIns() {
+    }
+
+    /**
+     * Spring Data repository answering the named query methods from memory. Any other method fails the benchmark.
+     */
+    static <R> R repository(Class<R> repositoryType, Map<String, Function<Object[], Object>> answers) {
+        Map<String, Function<Object[], Object>> methods = new HashMap<>(answers);
+        Object standIn = Proxy.newProxyInstance(repositoryType.getClassLoader(), new Class<?>[]{repositoryType},
+                (proxy, method, args) -> {
+                    Function<Object[], Object> answer = methods.get(method.getName());
+                    if (answer != null) {
+                        return answer.apply(args);
+                    }
+                    switch (method.getName()) {
+                        case "toString":
+                            return "in-memory " + repositoryType.getSimpleName();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName() + " has no in-memory answer");
+                    }
+                });
+        return repositoryType.cast(standIn);
+    }
+
+    /**
+     * RestTemplate that hands the same canned response body to every {@code execute} call, so the real response
+     * extractor (e.g. the Denodo coverage parser) runs on it.
+     */
+    static RestTemplate restTemplate(byte[] responseBody) {
+        return new RestTemplate() {
+            @Override
+            public <T> T execute(String url, HttpMethod method, RequestCallback requestCallback,
+                                 ResponseExtractor<T> responseExtractor, Object... uriVariables) {
+                try {
+                    return responseExtractor.extractData(new MockClientHttpResponse(responseBody, HttpStatus.OK));
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            }
+        };
+    }
+
+    /**
+     * Stub-only mock for collaborators that are concrete classes; stub-only mocks do not record invocations, which
+     * keeps their per-call cost flat over long benchmark runs.
+     */
+    static <T> T stub(Class<T> type) {
+        return Mockito.mock(type, Mockito.withSettings().stubOnly());
+    }
+}
@@ -0,0 +1,238 @@
+package com.davita.cwow.patient.service.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Size-bounded, in-process cache whose entries expire a fixed time after they were loaded.
+ * <p>
+ * Least recently used entries are evicted once {@code maximumSize} is exceeded. Concurrent misses for the same key
+ * share a single load through a {@link SingleFlight}: the first caller runs the loader, the others wait for its result
+ * for at most {@code loadWaitTimeout} and then give up with a {@link LoadWaitException}. Failed loads are not cached.
+ * Every stored value gets a version that differs from the versions of all values stored before it, in this or any other
+ * cache instance, so callers can tell whether a value they served earlier is still the cached one.
+ * Hit, miss, eviction and size metrics are published under the {@code cache.*} names with a {@code cache} tag.
+ */
+public class BoundedTtlCache<K, V> {
+
+    private static final Duration DEFAULT_LOAD_WAIT_TIMEOUT = Duration.ofSeconds(10);
+
+    private final String name;
+
+    private final long ttlNanos;
+
+    private final LongSupplier ticker;
+
+    private final Map<K, Entry<V>> entries;
+
+    private final SingleFlight<K, Versioned<V>> loads;
+
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    private final AtomicLong versions = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder sizeEvictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+
+    public BoundedTtlCache(String name, int maximumSize, Duration ttl) {
+        this(name, maximumSize, ttl, DEFAULT_LOAD_WAIT_TIMEOUT);
+    }
+
+    public BoundedTtlCache(String name, int maximumSize, Duration ttl, Duration loadWaitTimeout) {
+        this(name, maximumSize, ttl, loadWaitTimeout, System::nanoTime);
+    }
+
+    BoundedTtlCache(String name, int maximumSize, Duration ttl, Duration loadWaitTimeout, LongSupplier ticker) {
+        this.name = name;
+        this.ttlNanos = ttl.toNanos();
+        this.loads = new SingleFlight<>(name, loadWaitTimeout);
+        this.ticker = ticker;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                boolean evict = size() > maximumSize;
+                if (evict) {
+                    sizeEvictions.increment();
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for the key, loading it with {@code loader} when it is absent or expired.
+     * Exceptions thrown by the loader are propagated to every caller waiting on that load. A caller waiting on another
+     * caller's load throws {@link LoadWaitException} when the load outlasts the wait timeout or the caller is
+     * interrupted.
+     */
+    public <E extends Exception> V get(K key, Loader<V, E> loader) throws E {
+        return getVersioned(key, loader).getValue();
+    }
+
+    /**
+     * Like {@link #get}, but also returns the version of the value. A {@code null} value loaded by {@code loader} is
+     * not cached and has no version.
+     */
+    public <E extends Exception> Versioned<V> getVersioned(K key, Loader<V, E> loader) throws E {
+        Versioned<V> cached = peek(key);
+        if (Objects.nonNull(cached)) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        return loads.execute(key, () -> {
+            Versioned<V> value = peek(key);
+            if (Objects.isNull(value)) {
+                V loaded;
+                try {
+                    loaded = loader.load();
+                } catch (Exception | Error exception) {
+                    loadFailures.increment();
+                    throw exception;
+                }
+                value = store(key, loaded);
+            }
+            return value;
+        });
+    }
+
+    public V getIfPresent(K key) {
+        Versioned<V> value = peek(key);
+        if (Objects.isNull(value)) {
+            return null;
+        }
+        hits.increment();
+        return value.getValue();
+    }
+
+    /**
+     * Returns the version of the cached value, or {@code null} when the key is absent or expired. Neither loads the
+     * value nor counts as a hit or miss.
+     */
+    public String getVersion(K key) {
+        Versioned<V> value = peek(key);
+        return Objects.isNull(value) ? null : value.getVersion();
+    }
+
+    public void put(K key, V value) {
+        store(key, value);
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cache.gets", hits, LongAdder::sum)
+                .tag("cache", name).tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", misses, LongAdder::sum)
+                .tag("cache", name).tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", sizeEvictions, LongAdder::sum)
+                .tag("cache", name).tag("cause", "size")
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", expirations, LongAdder::sum)
+                .tag("cache", name).tag("cause", "expired")
+                .register(registry);
+        FunctionCounter.builder("cache.load.failures", loadFailures, LongAdder::sum)
+                .tag("cache", name)
+                .register(registry);
+        Gauge.builder("cache.size", this, BoundedTtlCache::size)
+                .tag("cache", name)
+                .register(registry);
+    }
+
+    private Versioned<V> store(K key, V value) {
+        if (Objects.isNull(value)) {
+            return new Versioned<>(null, null);
+        }
+        synchronized (entries) {
+            Versioned<V> versioned = new Versioned<>(value, epoch + "." + versions.incrementAndGet());
+            entries.put(key, new Entry<>(versioned, ticker.getAsLong() + ttlNanos));
+            return versioned;
+        }
+    }
+
+    private Versioned<V> peek(K key) {
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (Objects.isNull(entry)) {
+                return null;
+            }
+            if (entry.expiresAtNanos - ticker.getAsLong() <= 0) {
+                entries.remove(key);
+                expirations.increment();
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Loader<V, E extends Exception> {
+        V load() throws E;
+    }
+
+    /**
+     * A caller gave up waiting for a load started by another caller.
+     */
+    public static class LoadWaitException extends RuntimeException {
+
+        public LoadWaitException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A cached value with its version.
+     */
+    public static final class Versioned<V> {
+        private final V value;
+        private final String version;
+
+        private Versioned(V value, String version) {
+            this.value = value;
+            this.version = version;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final Versioned<V> value;
+        private final long expiresAtNanos;
+
+        private Entry(Versioned<V> value, long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
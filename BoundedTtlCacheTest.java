@@ -0,0 +1,144 @@
+package com.davita.cwow.patient.service.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BoundedTtlCacheTest {
+
+    private AtomicLong clock;
+
+    private BoundedTtlCache<String, String> cache;
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        clock = new AtomicLong();
+        cache = new BoundedTtlCache<>("test", 2, Duration.ofMinutes(1), Duration.ofMillis(200), clock::get);
+        registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+    }
+
+    @Test
+    void getLoadsOnceUntilExpired() {
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("value", cache.get("mpi", () -> {
+            loads.incrementAndGet();
+            return "value";
+        }));
+        assertEquals("value", cache.get("mpi", () -> "other"));
+        assertEquals(1, loads.get());
+
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+
+        assertEquals("other", cache.get("mpi", () -> "other"));
+        assertEquals(1.0, registry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(2.0, registry.get("cache.gets").tag("result", "miss").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.evictions").tag("cause", "expired").functionCounter().count());
+    }
+
+    @Test
+    void getVersionedKeepsTheVersionUntilTheValueIsStoredAgain() {
+        assertNull(cache.getVersion("mpi"));
+
+        BoundedTtlCache.Versioned<String> loaded = cache.getVersioned("mpi", () -> "value");
+        assertEquals("value", loaded.getValue());
+        assertEquals(loaded.getVersion(), cache.getVersion("mpi"));
+        assertEquals(loaded.getVersion(), cache.getVersioned("mpi", () -> "other").getVersion());
+        assertEquals(1.0, registry.get("cache.gets").tag("result", "hit").functionCounter().count());
+
+        cache.put("mpi", "value");
+        assertNotEquals(loaded.getVersion(), cache.getVersion("mpi"));
+
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+        assertNull(cache.getVersion("mpi"));
+    }
+
+    @Test
+    void putEvictsLeastRecentlyUsedEntry() {
+        cache.put("first", "1");
+        cache.put("second", "2");
+        cache.getIfPresent("first");
+        cache.put("third", "3");
+
+        assertEquals("1", cache.getIfPresent("first"));
+        assertNull(cache.getIfPresent("second"));
+        assertEquals(2, cache.size());
+        assertEquals(1.0, registry.get("cache.evictions").tag("cause", "size").functionCounter().count());
+    }
+
+    @Test
+    void getDoesNotCacheFailedLoads() {
+        assertThrows(IllegalStateException.class, () -> cache.get("mpi", () -> {
+            throw new IllegalStateException("denodo down");
+        }));
+
+        assertEquals("value", cache.get("mpi", () -> "value"));
+    }
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<String> first = executor.submit(() -> cache.get("mpi", () -> {
+                loads.incrementAndGet();
+                loadStarted.countDown();
+                releaseLoad.await();
+                return "value";
+            }));
+            loadStarted.await(5, TimeUnit.SECONDS);
+            Future<String> second = executor.submit(() -> cache.get("mpi", () -> {
+                loads.incrementAndGet();
+                return "other";
+            }));
+            Thread.sleep(50);
+            releaseLoad.countDown();
+
+            assertEquals("value", first.get(5, TimeUnit.SECONDS));
+            assertEquals("value", second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void waitingCallerGivesUpAfterTheLoadWaitTimeout() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> first = executor.submit(() -> cache.get("mpi", () -> {
+                loadStarted.countDown();
+                releaseLoad.await();
+                return "value";
+            }));
+            loadStarted.await(5, TimeUnit.SECONDS);
+
+            assertThrows(BoundedTtlCache.LoadWaitException.class, () -> cache.get("mpi", () -> "other"));
+            releaseLoad.countDown();
+            assertEquals("value", first.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.davita.cwow.patient.service.model.coverage;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Latest patient coverage element returned by the Denodo coverage view.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class DenodoCoverage {
+
+    /**
+     * Coverage of a patient Denodo has no elements for.
+     */
+    public static final DenodoCoverage NONE = new DenodoCoverage(null, null, null);
+
+    private final String insuranceBundleInd;
+
+    private final ZonedDateTime effectiveStartDate;
+
+    private final ZonedDateTime effectiveEndDate;
+}
@@ -0,0 +1,49 @@
+package com.davita.cwow.patient.service;
+
+import com.davita.cwow.patient.service.api.config.PatientProfileProperties;
+import com.davita.cwow.patient.service.model.coverage.DenodoCoverage;
+import com.davita.cwow.patient.service.util.BoundedTtlCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Per-mpi cache of the latest Denodo coverage element. Medicare bundle coverage changes rarely, so profile reads are
+ * served from here and only one Denodo call is made per mpi and TTL, however many requests arrive at once.
+ */
+@Component
+public class DenodoCoverageCache {
+
+    static final String CACHE_NAME = "denodo.coverage";
+
+    private final BoundedTtlCache<String, DenodoCoverage> cache;
+
+    public DenodoCoverageCache(PatientProfileProperties properties, MeterRegistry meterRegistry) {
+        PatientProfileProperties.Cache settings = properties.getCoverageCache();
+        this.cache = new BoundedTtlCache<>(CACHE_NAME, settings.getMaximumSize(), settings.getTtl(),
+                Duration.ofMillis(properties.getTimeouts().getCoverageMs()));
+        this.cache.bindTo(meterRegistry);
+    }
+
+    public <E extends Exception> DenodoCoverage get(String masterPatientIdentifier,
+            BoundedTtlCache.Loader<DenodoCoverage, E> loader) throws E {
+        return cache.get(masterPatientIdentifier, loader);
+    }
+
+    public <E extends Exception> BoundedTtlCache.Versioned<DenodoCoverage> getVersioned(String masterPatientIdentifier,
+            BoundedTtlCache.Loader<DenodoCoverage, E> loader) throws E {
+        return cache.getVersioned(masterPatientIdentifier, loader);
+    }
+
+    /**
+     * Version of the cached entry, {@code null} when the mpi is not cached.
+     */
+    public String getVersion(String masterPatientIdentifier) {
+        return cache.getVersion(masterPatientIdentifier);
+    }
+
+    public void invalidate(String masterPatientIdentifier) {
+        cache.invalidate(masterPatientIdentifier);
+    }
+}
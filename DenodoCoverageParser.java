@@ -0,0 +1,107 @@
+package com.davita.cwow.patient.service.util;
+
+import com.davita.cwow.patient.service.model.coverage.DenodoCoverage;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Objects;
+
+/**
+ * Streams a Denodo coverage response and keeps only the element with the latest
+ * {@code coverage_effective_end_date}, in a single pass over the elements.
+ * <p>
+ * An element without an end date is open-ended coverage and wins over any dated one. Among elements with the same
+ * end date the first one in the response wins.
+ */
+public final class DenodoCoverageParser {
+
+    public static final DateTimeFormatter DENODO_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ");
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String DENODO_ELEMENTS = "elements";
+    private static final String DENODO_END_DATE = "coverage_effective_end_date";
+    private static final String DENODO_START_DATE = "coverage_effective_start_date";
+    private static final String DENODO_BUNDLE_FLAG_INDICATOR = "insurance_bundle_ind";
+
+    private DenodoCoverageParser() {
+    }
+
+    public static DenodoCoverage parseLatest(InputStream body) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return DenodoCoverage.NONE;
+            }
+            Element latest = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (DENODO_ELEMENTS.equals(fieldName) && value == JsonToken.START_ARRAY) {
+                    latest = readLatestElement(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return Objects.isNull(latest) ? DenodoCoverage.NONE : latest.toCoverage();
+        }
+    }
+
+    public static ZonedDateTime parseDate(String date) {
+        return Objects.isNull(date) ? null : ZonedDateTime.parse(date, DENODO_DATE_FORMATTER);
+    }
+
+    private static Element readLatestElement(JsonParser parser) throws IOException {
+        Element latest = null;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Element element = readElement(parser);
+            if (Objects.isNull(latest) || element.isLaterThan(latest)) {
+                latest = element;
+            }
+        }
+        return latest;
+    }
+
+    private static Element readElement(JsonParser parser) throws IOException {
+        Element element = new Element();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            switch (fieldName) {
+                case DENODO_BUNDLE_FLAG_INDICATOR:
+                    element.insuranceBundleInd = parser.getValueAsString();
+                    break;
+                case DENODO_START_DATE:
+                    element.effectiveStartDate = parser.getValueAsString();
+                    break;
+                case DENODO_END_DATE:
+                    element.effectiveEndDate = parseDate(parser.getValueAsString());
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return element;
+    }
+
+    private static final class Element {
+        private String insuranceBundleInd;
+        private String effectiveStartDate;
+        private ZonedDateTime effectiveEndDate;
+
+        private boolean isLaterThan(Element other) {
+            if (Objects.isNull(other.effectiveEndDate)) {
+                return false;
+            }
+            return Objects.isNull(effectiveEndDate) || effectiveEndDate.compareTo(other.effectiveEndDate) > 0;
+        }
+
+        private DenodoCoverage toCoverage() {
+            return new DenodoCoverage(insuranceBundleInd, parseDate(effectiveStartDate), effectiveEndDate);
+        }
+    }
+}
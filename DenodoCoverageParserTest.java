@@ -0,0 +1,66 @@
+package com.davita.cwow.patient.service.util;
+
+import com.davita.cwow.patient.service.model.coverage.DenodoCoverage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DenodoCoverageParserTest {
+
+    @Test
+    void parseLatestPicksLatestEndDate() throws IOException {
+        DenodoCoverage coverage = parse("{\"name\":\"i_coverageall\",\"elements\":["
+                + element("N", "2016-07-11T04:00:00+0000")
+                + "," + element("Y", "2018-07-11T04:00:00+0000")
+                + "," + element("N", "2017-07-11T04:00:00+0000")
+                + "]}");
+
+        assertEquals("Y", coverage.getInsuranceBundleInd());
+        assertEquals(ZonedDateTime.parse("2017-07-01T04:00Z"), coverage.getEffectiveStartDate());
+        assertEquals(ZonedDateTime.parse("2018-07-11T04:00Z"), coverage.getEffectiveEndDate());
+    }
+
+    @Test
+    void parseLatestPrefersOpenEndedCoverage() throws IOException {
+        DenodoCoverage coverage = parse("{\"elements\":["
+                + element("N", "2017-07-11T04:00:00+0000")
+                + "," + element("Y", null)
+                + "," + element("N", null)
+                + "]}");
+
+        assertEquals("Y", coverage.getInsuranceBundleInd());
+        assertNull(coverage.getEffectiveEndDate());
+    }
+
+    @Test
+    void parseLatestSkipsUnknownFields() throws IOException {
+        DenodoCoverage coverage = parse("{\"elements\":[{\"payer\":{\"name\":\"Medicare\",\"ids\":[1,2]},"
+                + "\"insurance_bundle_ind\":\"Y\",\"coverage_effective_end_date\":null}],\"links\":[]}");
+
+        assertEquals("Y", coverage.getInsuranceBundleInd());
+        assertNull(coverage.getEffectiveStartDate());
+    }
+
+    @Test
+    void parseLatestWithoutElements() throws IOException {
+        assertEquals(DenodoCoverage.NONE, parse("{\"elements\":[]}"));
+        assertEquals(DenodoCoverage.NONE, parse("{}"));
+        assertEquals(DenodoCoverage.NONE, parse(""));
+    }
+
+    private DenodoCoverage parse(String json) throws IOException {
+        return DenodoCoverageParser.parseLatest(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String element(String insuranceBundleInd, String effectiveEndDate) {
+        return "{\"coverage_effective_start_date\":\"2017-07-01T04:00:00+0000\","
+                + "\"coverage_effective_end_date\":" + (effectiveEndDate == null ? "null" : "\"" + effectiveEndDate + "\"")
+                + ",\"insurance_bundle_ind\":\"" + insuranceBundleInd + "\"}";
+    }
+}
@@ -0,0 +1,92 @@
+package com.davita.cwow.patient.benchmark;
+
+import com.davita.cwow.patient.service.model.coverage.DenodoCoverage;
+import com.davita.cwow.patient.service.util.DenodoCoverageParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Compares the streaming single-pass Denodo coverage selection with the previous path, which bound the whole
+ * response to a {@code Map} and sorted every element, re-parsing end dates on each comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DenodoCoverageSelectionBenchmark {
+
+    private static final String DENODO_ELEMENTS = "elements";
+    private static final String DENODO_END_DATE = "coverage_effective_end_date";
+    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+
+    @Param({"1", "20", "500"})
+    private int elementCount;
+
+    private byte[] payload;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder("{\"name\":\"i_coverageall\",\"elements\":[");
+        LocalDate start = LocalDate.of(1995, 1, 1);
+        for (int i = 0; i < elementCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            LocalDate endDate = start.plusMonths((i * 7L) % elementCount);
+            json.append("{\"patient_id\":\"1740099\",\"payer_name\":\"Medicare Part B\",")
+                    .append("\"coverage_effective_start_date\":\"").append(start).append("T04:00:00+0000\",")
+                    .append("\"coverage_effective_end_date\":\"").append(endDate).append("T04:00:00+0000\",")
+                    .append("\"insurance_bundle_ind\":\"").append(i % 2 == 0 ? "Y" : "N").append("\"}");
+        }
+        payload = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public DenodoCoverage streamingSinglePass() throws IOException {
+        return DenodoCoverageParser.parseLatest(new ByteArrayInputStream(payload));
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> mapBoundSort() throws IOException {
+        Map<String, Object> denodoResponseMap = objectMapper.readValue(payload, Map.class);
+        Map<String, Object> elementMap = new HashMap<>();
+        List<Map<String, Object>> elementsList = (List<Map<String, Object>>) denodoResponseMap.get(DENODO_ELEMENTS);
+        if (!elementsList.isEmpty()) {
+            elementsList.sort(Comparator.comparing(
+                    element -> nonNull(element.get(DENODO_END_DATE)) ? ZonedDateTime.parse(
+                            (String) element.get(DENODO_END_DATE), DateTimeFormatter.ofPattern(DATE_FORMAT)) : null,
+                    Comparator.nullsFirst(Comparator.reverseOrder())));
+            elementMap = elementsList.get(0);
+        }
+        return elementMap;
+    }
+}
@@ -0,0 +1,207 @@
+package com.davita.cwow.patient.service.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bulkhead and circuit breaker for one remote dependency.
+ * <p>
+ * At most {@code maxConcurrentCalls} calls run at a time; further calls are rejected immediately instead of queueing
+ * behind a slow dependency. After {@code failureThreshold} consecutive failed or slow calls the circuit opens and calls
+ * are rejected without being attempted for {@code openDuration}. A single probe call is then let through: its success
+ * closes the circuit again, its failure re-opens it. Only results of calls admitted under the current circuit state
+ * count: a straggler admitted before the circuit last changed state does not re-open or close it. Rejections throw {@link RejectedException}, so callers can fall
+ * back. Circuit state and rejections are published as {@code dependency.circuit.state} and
+ * {@code dependency.calls.rejected} with a {@code dependency} tag.
+ */
+public class DependencyGuard {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+
+    private final Semaphore permits;
+
+    private final int maxConcurrentCalls;
+
+    private final int failureThreshold;
+
+    private final long openNanos;
+
+    private final long slowCallNanos;
+
+    private final LongSupplier ticker;
+
+    private volatile State state = State.CLOSED;
+
+    private volatile int consecutiveFailures;
+
+    /**
+     * Incremented on every state change, so results can be matched to the state their call was admitted under.
+     */
+    private volatile long generation;
+
+    private long openedAtNanos;
+
+    private boolean probeInFlight;
+
+    private final LongAdder bulkheadRejections = new LongAdder();
+    private final LongAdder circuitRejections = new LongAdder();
+
+    public DependencyGuard(String name, int maxConcurrentCalls, int failureThreshold, Duration openDuration,
+            Duration slowCallDuration) {
+        this(name, maxConcurrentCalls, failureThreshold, openDuration, slowCallDuration, System::nanoTime);
+    }
+
+    DependencyGuard(String name, int maxConcurrentCalls, int failureThreshold, Duration openDuration,
+            Duration slowCallDuration, LongSupplier ticker) {
+        this.name = name;
+        this.permits = new Semaphore(maxConcurrentCalls);
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.ticker = ticker;
+    }
+
+    /**
+     * Runs {@code call} if the circuit and the bulkhead allow it. Exceptions thrown by the call are propagated and
+     * count as failures, as do calls that return after the slow-call duration.
+     */
+    public <V, E extends Exception> V call(BoundedTtlCache.Loader<V, E> call) throws E {
+        Admission admission = admit();
+        if (!permits.tryAcquire()) {
+            if (admission.probe) {
+                synchronized (this) {
+                    probeInFlight = false;
+                }
+            }
+            bulkheadRejections.increment();
+            throw new RejectedException(name + " bulkhead is full");
+        }
+        long startNanos = ticker.getAsLong();
+        boolean success = false;
+        try {
+            V result = call.load();
+            success = true;
+            return result;
+        } finally {
+            permits.release();
+            onResult(admission, success && ticker.getAsLong() - startNanos <= slowCallNanos);
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("dependency.circuit.state", this, guard -> guard.state.ordinal())
+                .description("0 closed, 1 open, 2 half-open")
+                .tag("dependency", name)
+                .register(registry);
+        Gauge.builder("dependency.bulkhead.active", this, guard -> maxConcurrentCalls - guard.permits.availablePermits())
+                .tag("dependency", name)
+                .register(registry);
+        FunctionCounter.builder("dependency.calls.rejected", bulkheadRejections, LongAdder::sum)
+                .tag("dependency", name).tag("reason", "bulkhead")
+                .register(registry);
+        FunctionCounter.builder("dependency.calls.rejected", circuitRejections, LongAdder::sum)
+                .tag("dependency", name).tag("reason", "circuit")
+                .register(registry);
+    }
+
+    /**
+     * Returns the generation the call is admitted under and whether it is the half-open probe; throws when the circuit
+     * rejects the call.
+     */
+    private Admission admit() {
+        long admittedGeneration = generation;
+        if (state == State.CLOSED) {
+            return new Admission(admittedGeneration, false);
+        }
+        synchronized (this) {
+            if (state == State.OPEN && ticker.getAsLong() - openedAtNanos >= openNanos) {
+                transitionTo(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN && !probeInFlight) {
+                probeInFlight = true;
+                return new Admission(generation, true);
+            }
+            if (state == State.CLOSED) {
+                return new Admission(generation, false);
+            }
+        }
+        circuitRejections.increment();
+        throw new RejectedException(name + " circuit is open");
+    }
+
+    /**
+     * Only the probe moves the circuit out of half-open; a call admitted while closed only counts while the circuit has
+     * not changed state since.
+     */
+    private void onResult(Admission admission, boolean success) {
+        if (!admission.probe && success) {
+            if (consecutiveFailures != 0 && generation == admission.generation) {
+                synchronized (this) {
+                    if (generation == admission.generation) {
+                        consecutiveFailures = 0;
+                    }
+                }
+            }
+            return;
+        }
+        synchronized (this) {
+            if (admission.probe) {
+                probeInFlight = false;
+            }
+            if (generation != admission.generation) {
+                return;
+            }
+            if (admission.probe) {
+                transitionTo(success ? State.CLOSED : State.OPEN);
+            } else if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+                transitionTo(State.OPEN);
+            }
+        }
+    }
+
+    private void transitionTo(State next) {
+        if (next == State.OPEN) {
+            openedAtNanos = ticker.getAsLong();
+        }
+        consecutiveFailures = 0;
+        generation++;
+        state = next;
+    }
+
+    private static final class Admission {
+
+        private final long generation;
+
+        private final boolean probe;
+
+        private Admission(long generation, boolean probe) {
+            this.generation = generation;
+            this.probe = probe;
+        }
+    }
+
+    /**
+     * The call was not attempted because the bulkhead was full or the circuit open.
+     */
+    public static class RejectedException extends RuntimeException {
+
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.davita.cwow.patient.service.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DependencyGuardTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private final DependencyGuard guard = new DependencyGuard("denodo", 1, 2, Duration.ofSeconds(30),
+            Duration.ofSeconds(3), now::get);
+
+    @Test
+    void opensAfterConsecutiveFailuresAndFailsFast() {
+        fail();
+        assertEquals("ok", guard.call(() -> "ok"));
+        fail();
+        fail();
+
+        assertEquals(DependencyGuard.State.OPEN, guard.getState());
+        assertThrows(DependencyGuard.RejectedException.class, () -> guard.call(() -> {
+            throw new AssertionError("must not be called while the circuit is open");
+        }));
+    }
+
+    @Test
+    void halfOpenProbeClosesOrReopensTheCircuit() {
+        fail();
+        fail();
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+
+        fail();
+        assertEquals(DependencyGuard.State.OPEN, guard.getState());
+        assertThrows(DependencyGuard.RejectedException.class, () -> guard.call(() -> "ok"));
+
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertEquals("ok", guard.call(() -> "ok"));
+        assertEquals(DependencyGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    void callsAdmittedBeforeTheCircuitChangedDoNotMoveIt() throws Exception {
+        DependencyGuard concurrentGuard = new DependencyGuard("denodo", 3, 1, Duration.ofSeconds(30),
+                Duration.ofSeconds(3), now::get);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread straggler = straggler(concurrentGuard, release, "ok");
+        assertThrows(IOException.class, () -> concurrentGuard.call(() -> {
+            throw new IOException("Denodo unavailable");
+        }));
+
+        release.countDown();
+        straggler.join();
+        assertEquals(DependencyGuard.State.OPEN, concurrentGuard.getState());
+
+        CountDownLatch releaseFailing = new CountDownLatch(1);
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+        concurrentGuard.call(() -> "closes");
+        Thread failingStraggler = straggler(concurrentGuard, releaseFailing, null);
+        assertThrows(IOException.class, () -> concurrentGuard.call(() -> {
+            throw new IOException("Denodo unavailable");
+        }));
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertEquals("probe", concurrentGuard.call(() -> {
+            releaseFailing.countDown();
+            failingStraggler.join();
+            assertEquals(DependencyGuard.State.HALF_OPEN, concurrentGuard.getState());
+            return "probe";
+        }));
+        assertEquals(DependencyGuard.State.CLOSED, concurrentGuard.getState());
+    }
+
+    @Test
+    void slowCallsCountAsFailures() {
+        guard.call(() -> now.addAndGet(Duration.ofSeconds(4).toNanos()));
+        guard.call(() -> now.addAndGet(Duration.ofSeconds(4).toNanos()));
+
+        assertEquals(DependencyGuard.State.OPEN, guard.getState());
+    }
+
+    @Test
+    void bulkheadRejectsCallsBeyondTheLimit() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        guard.bindTo(registry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread slowCall = new Thread(() -> {
+            try {
+                guard.call(() -> {
+                    started.countDown();
+                    release.await();
+                    return null;
+                });
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        slowCall.start();
+        started.await();
+
+        assertThrows(DependencyGuard.RejectedException.class, () -> guard.call(() -> "ok"));
+        assertEquals(1.0, registry.get("dependency.bulkhead.active").gauge().value());
+        release.countDown();
+        slowCall.join();
+
+        assertEquals("ok", guard.call(() -> "ok"));
+        assertEquals(1.0, registry.get("dependency.calls.rejected").tag("reason", "bulkhead").functionCounter().count());
+        assertEquals(DependencyGuard.State.CLOSED, guard.getState());
+    }
+
+    /**
+     * Starts a call that is admitted now and returns {@code result} (or fails, for {@code null}) once released.
+     */
+    private Thread straggler(DependencyGuard target, CountDownLatch release, String result) throws InterruptedException {
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread straggler = new Thread(() -> {
+            try {
+                target.call(() -> {
+                    admitted.countDown();
+                    release.await();
+                    if (result == null) {
+                        throw new IOException("Denodo unavailable");
+                    }
+                    return result;
+                });
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            } catch (IOException expected) {
+                // the straggler's failure is what the test is about
+            }
+        });
+        straggler.start();
+        admitted.await();
+        return straggler;
+    }
+
+    private void fail() {
+        assertThrows(IOException.class, () -> guard.call(() -> {
+            throw new IOException("Denodo unavailable");
+        }));
+    }
+}
@@ -0,0 +1,74 @@
+package com.davita.cwow.patient.service.metrics;
+
+import com.davita.cwow.patient.service.api.config.DependencyMetricsProperties;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times calls from the patient query services to Spanner, Denodo, ES and the other services they depend on, as
+ * {@value #METRIC_NAME} tagged with dependency, component, operation, outcome and the endpoint and facility of the
+ * current request. Timers are looked up by their full tag set, so a call only builds and registers one the first
+ * time that tag combination is seen.
+ */
+@Component
+public class DependencyMetrics {
+
+    public static final String METRIC_NAME = "patient.dependency.calls";
+
+    private final MeterRegistry meterRegistry;
+
+    private final DependencyMetricsProperties properties;
+
+    private final Clock clock;
+
+    private final Map<List<String>, Timer> timers = new ConcurrentHashMap<>();
+
+    public DependencyMetrics(MeterRegistry meterRegistry, DependencyMetricsProperties properties) {
+        this.meterRegistry = meterRegistry;
+        this.properties = properties;
+        this.clock = meterRegistry.config().clock();
+    }
+
+    @FunctionalInterface
+    public interface Call<T, E extends Throwable> {
+        T call() throws E;
+    }
+
+    public <T, E extends Throwable> T record(String dependency, String component, String operation, Call<T, E> call)
+            throws E {
+        long start = clock.monotonicTime();
+        boolean success = false;
+        try {
+            T result = call.call();
+            success = true;
+            return result;
+        } finally {
+            timer(dependency, component, operation, success).record(clock.monotonicTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer timer(String dependency, String component, String operation, boolean success) {
+        RequestMetricsContext context = RequestMetricsContext.current();
+        String outcome = success ? "success" : "error";
+        String facility = properties.isFacilityTag() ? context.getFacility() : RequestMetricsContext.NONE;
+        List<String> tags = Arrays.asList(dependency, context.getEndpoint(), outcome, component, operation, facility);
+        return timers.computeIfAbsent(tags, key -> Timer.builder(METRIC_NAME)
+                .description("Latency of calls to the services the patient query API depends on")
+                .tag("dependency", dependency)
+                .tag("component", component)
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .tag("endpoint", context.getEndpoint())
+                .tag("facility", facility)
+                .publishPercentileHistogram(properties.isPercentileHistogram())
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,52 @@
+package com.davita.cwow.patient.service.api.config;
+
+import com.davita.cwow.patient.service.common.FacilityNameCache;
+import com.davita.cwow.patient.service.metrics.DependencyMetrics;
+import com.davita.cwow.patient.service.metrics.DependencyMetricsInterceptor;
+import com.davita.cwow.patient.service.metrics.DependencyTimingBeanPostProcessor;
+import com.davita.cwow.patient.service.metrics.RequestMetricsContext;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@ConditionalOnProperty(prefix = "patient.metrics.dependency", name = "enabled", matchIfMissing = true)
+public class DependencyMetricsConfiguration implements WebMvcConfigurer {
+
+    private final FacilityNameCache facilityNameCache;
+
+    public DependencyMetricsConfiguration(FacilityNameCache facilityNameCache) {
+        this.facilityNameCache = facilityNameCache;
+    }
+
+    /**
+     * Static, so the post-processor is registered before the beans it wraps without pulling the meter registry in
+     * early; {@link DependencyMetrics} is only resolved on the first timed call.
+     */
+    @Bean
+    public static DependencyTimingBeanPostProcessor dependencyTimingBeanPostProcessor(
+            ObjectProvider<DependencyMetrics> dependencyMetrics) {
+        return new DependencyTimingBeanPostProcessor(dependencyMetrics);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new DependencyMetricsInterceptor(facilityNameCache::isKnownFacility));
+    }
+
+    /**
+     * Same thread-per-task executor MVC uses by default for callables, streaming bodies and {@code WebAsyncTask}s,
+     * decorated so dependency calls made from them keep the endpoint and facility of their request.
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("mvc-async-");
+        executor.setTaskDecorator(RequestMetricsContext.TASK_DECORATOR);
+        configurer.setTaskExecutor(executor);
+    }
+}
@@ -0,0 +1,51 @@
+package com.davita.cwow.patient.service.metrics;
+
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Opens the {@link RequestMetricsContext} of a request: the matched route (not the raw path, to keep the endpoint tag
+ * bounded) and the {@value #FACILITY_HEADER} header, if it names a known facility (to keep the facility tag bounded
+ * by the facilities that exist rather than by what clients send). Async and streaming handlers capture the context
+ * when their task is submitted to the MVC async executor, which carries it with
+ * {@link RequestMetricsContext#TASK_DECORATOR}.
+ */
+public class DependencyMetricsInterceptor implements AsyncHandlerInterceptor {
+
+    static final String FACILITY_HEADER = "facilityId";
+
+    private final Predicate<String> knownFacility;
+
+    public DependencyMetricsInterceptor(Predicate<String> knownFacility) {
+        this.knownFacility = knownFacility;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String facility = request.getHeader(FACILITY_HEADER);
+        RequestMetricsContext.set(new RequestMetricsContext(
+                request.getMethod() + " " + (Objects.nonNull(pattern) ? pattern : RequestMetricsContext.NONE),
+                Objects.nonNull(facility) && knownFacility.test(facility) ? facility : RequestMetricsContext.NONE));
+        return true;
+    }
+
+    /**
+     * The async task has already captured the context; this only releases the container thread's copy.
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        RequestMetricsContext.set(null);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+            Exception ex) {
+        RequestMetricsContext.set(null);
+    }
+}
@@ -0,0 +1,31 @@
+package com.davita.cwow.patient.service.api.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tuning for the per-dependency latency timers.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "patient.metrics.dependency")
+public class DependencyMetricsProperties {
+
+    /**
+     * Time repository, converter, ES, facility and mapper beans. Explicitly timed calls are recorded either way.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Tag timers with the requesting facility; headers naming a facility unknown to the facility name cache are tagged
+     * {@code none}. Multiplies the number of series, histogram buckets included, by the number of facilities, so it is
+     * off unless a facility needs to be investigated.
+     */
+    private boolean facilityTag = false;
+
+    /**
+     * Publish histogram buckets, so tail percentiles can be aggregated across instances.
+     */
+    private boolean percentileHistogram = true;
+}
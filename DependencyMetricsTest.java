@@ -0,0 +1,151 @@
+package com.davita.cwow.patient.service.metrics;
+
+import com.davita.cwow.patient.service.api.config.DependencyMetricsProperties;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DependencyMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private DependencyMetricsProperties properties;
+
+    private DependencyMetrics dependencyMetrics;
+
+    private final DependencyMetricsInterceptor interceptor = new DependencyMetricsInterceptor("03436"::equals);
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        properties = new DependencyMetricsProperties();
+        dependencyMetrics = new DependencyMetrics(meterRegistry, properties);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        RequestMetricsContext.set(null);
+    }
+
+    @Test
+    public void recordTagsCallWithRequestEndpointAndFacility() {
+        properties.setFacilityTag(true);
+        MockHttpServletRequest request = request("03436");
+        interceptor.preHandle(request, new MockHttpServletResponse(), null);
+
+        assertEquals("profile", dependencyMetrics.record("spanner", "SrPatientRepository", "findByMasterPatientIdentifier",
+                () -> "profile"));
+
+        Timer timer = meterRegistry.find(DependencyMetrics.METRIC_NAME)
+                .tag("dependency", "spanner")
+                .tag("component", "SrPatientRepository")
+                .tag("operation", "findByMasterPatientIdentifier")
+                .tag("outcome", "success")
+                .tag("endpoint", "GET /v2/patients/{mpi}/profile")
+                .tag("facility", "03436")
+                .timer();
+        assertNotNull(timer);
+        assertEquals(1, timer.count());
+
+        interceptor.afterCompletion(request, new MockHttpServletResponse(), null, null);
+        assertSame(RequestMetricsContext.EMPTY, RequestMetricsContext.current());
+    }
+
+    @Test
+    public void recordCountsFailuresAndRethrows() {
+        assertThrows(IOException.class, () -> dependencyMetrics.record("denodo", "PatientProfileQueryService",
+                "fetchElementsFromDenodo", () -> {
+                    throw new IOException("timeout");
+                }));
+
+        assertEquals(1, meterRegistry.get(DependencyMetrics.METRIC_NAME)
+                .tag("outcome", "error")
+                .tag("endpoint", "none")
+                .tag("facility", "none")
+                .timer().count());
+    }
+
+    @Test
+    public void facilityTagIsOffByDefaultAndBoundedToKnownFacilities() {
+        interceptor.preHandle(request("03436"), new MockHttpServletResponse(), null);
+        dependencyMetrics.record("facility", "FacilityQueryService", "getFacilityName", () -> null);
+
+        properties.setFacilityTag(true);
+        interceptor.preHandle(request("03436' OR 1=1"), new MockHttpServletResponse(), null);
+        dependencyMetrics.record("facility", "FacilityQueryService", "getFacilityName", () -> null);
+        interceptor.preHandle(request("99999"), new MockHttpServletResponse(), null);
+        dependencyMetrics.record("facility", "FacilityQueryService", "getFacilityName", () -> null);
+
+        assertEquals(3, meterRegistry.get(DependencyMetrics.METRIC_NAME).tag("facility", "none").timer().count());
+    }
+
+    @Test
+    public void taskDecoratorCarriesContextAndRestoresWorkerContext() throws InterruptedException {
+        interceptor.preHandle(request("03436"), new MockHttpServletResponse(), null);
+        AtomicReference<RequestMetricsContext> seen = new AtomicReference<>();
+        Runnable decorated = RequestMetricsContext.TASK_DECORATOR.decorate(() -> seen.set(RequestMetricsContext.current()));
+        RequestMetricsContext submitter = RequestMetricsContext.current();
+
+        Thread worker = new Thread(decorated);
+        worker.start();
+        worker.join();
+        assertSame(submitter, seen.get());
+
+        RequestMetricsContext.set(null);
+        decorated.run();
+        assertSame(submitter, seen.get());
+        assertSame(RequestMetricsContext.EMPTY, RequestMetricsContext.current());
+    }
+
+    @Test
+    public void recordReusesTheTimerOfEachTagSet() {
+        properties.setFacilityTag(true);
+        interceptor.preHandle(request("03436"), new MockHttpServletResponse(), null);
+        dependencyMetrics.record("spanner", "SrPatientRepository", "findByMasterPatientIdentifier", () -> null);
+        dependencyMetrics.record("spanner", "SrPatientRepository", "findByMasterPatientIdentifier", () -> null);
+        RequestMetricsContext.set(null);
+        dependencyMetrics.record("spanner", "SrPatientRepository", "findByMasterPatientIdentifier", () -> null);
+
+        assertEquals(2, meterRegistry.get(DependencyMetrics.METRIC_NAME).tag("facility", "03436").timer().count());
+        assertEquals(1, meterRegistry.get(DependencyMetrics.METRIC_NAME).tag("facility", "none")
+                .tag("endpoint", "none").timer().count());
+        assertEquals(2, meterRegistry.get(DependencyMetrics.METRIC_NAME).timers().size());
+    }
+
+    @Test
+    public void asyncTaskKeepsEndpointAfterConcurrentHandlingStarted() throws InterruptedException {
+        MockHttpServletRequest request = request("03436");
+        interceptor.preHandle(request, new MockHttpServletResponse(), null);
+        Runnable streaming = RequestMetricsContext.TASK_DECORATOR.decorate(() -> dependencyMetrics.record("spanner",
+                "SrPatientRepository", "findByMasterPatientIdentifier", () -> null));
+        interceptor.afterConcurrentHandlingStarted(request, new MockHttpServletResponse(), null);
+        assertSame(RequestMetricsContext.EMPTY, RequestMetricsContext.current());
+
+        Thread worker = new Thread(streaming);
+        worker.start();
+        worker.join();
+
+        assertEquals(1, meterRegistry.get(DependencyMetrics.METRIC_NAME)
+                .tag("endpoint", "GET /v2/patients/{mpi}/profile").timer().count());
+    }
+
+    private MockHttpServletRequest request(String facilityId) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v2/patients/1740099/profile");
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/v2/patients/{mpi}/profile");
+        request.addHeader("facilityId", facilityId);
+        return request;
+    }
+}
@@ -0,0 +1,99 @@
+package com.davita.cwow.patient.service.metrics;
+
+import com.davita.cwow.patient.service.common.FacilityQueryService;
+import com.davita.cwow.patient.service.util.ElasticSearchUtil;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.Repository;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Wraps the beans the query services call out to (Spanner repositories, converters and mappers, the ES pillar client
+ * and the facility service) so that every public call is recorded by {@link DependencyMetrics}. Beans that are
+ * already proxies, such as Spring Data repositories, get the timing advice added to their existing proxy.
+ */
+public class DependencyTimingBeanPostProcessor implements BeanPostProcessor {
+
+    private static final String CONVERTER_PACKAGE = "com.davita.cwow.patient.spanner.model.converters.";
+
+    private static final String MODEL_MAPPER = "org.modelmapper.ModelMapper";
+
+    private final ObjectProvider<DependencyMetrics> dependencyMetrics;
+
+    private volatile DependencyMetrics resolvedMetrics;
+
+    public DependencyTimingBeanPostProcessor(ObjectProvider<DependencyMetrics> dependencyMetrics) {
+        this.dependencyMetrics = dependencyMetrics;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        Class<?> targetClass = AopUtils.getTargetClass(bean);
+        String dependency;
+        String component = targetClass.getSimpleName();
+        if (bean instanceof Repository) {
+            dependency = "spanner";
+            component = repositoryInterface(bean);
+        } else if (bean instanceof ElasticSearchUtil) {
+            dependency = "elasticsearch";
+        } else if (bean instanceof FacilityQueryService) {
+            dependency = "facility";
+        } else if (MODEL_MAPPER.equals(targetClass.getName())) {
+            dependency = "mapper";
+        } else if (targetClass.getName().startsWith(CONVERTER_PACKAGE)) {
+            dependency = component.contains("Mapper") ? "mapper" : "converter";
+        } else {
+            return bean;
+        }
+
+        MethodInterceptor timing = timing(dependency, component);
+        if (bean instanceof Advised && !((Advised) bean).isFrozen()) {
+            ((Advised) bean).addAdvice(0, timing);
+            return bean;
+        }
+        if (Modifier.isFinal(targetClass.getModifiers())) {
+            return bean;
+        }
+        ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(timing);
+        return proxyFactory.getProxy(targetClass.getClassLoader());
+    }
+
+    private MethodInterceptor timing(String dependency, String component) {
+        return invocation -> {
+            if (ReflectionUtils.isObjectMethod(invocation.getMethod())) {
+                return invocation.proceed();
+            }
+            return metrics().record(dependency, component, invocation.getMethod().getName(), invocation::proceed);
+        };
+    }
+
+    private DependencyMetrics metrics() {
+        DependencyMetrics metrics = resolvedMetrics;
+        if (Objects.isNull(metrics)) {
+            metrics = dependencyMetrics.getObject();
+            resolvedMetrics = metrics;
+        }
+        return metrics;
+    }
+
+    private static String repositoryInterface(Object repository) {
+        Class<?>[] interfaces = repository instanceof Advised
+                ? ((Advised) repository).getProxiedInterfaces() : repository.getClass().getInterfaces();
+        return Arrays.stream(interfaces)
+                .filter(Repository.class::isAssignableFrom)
+                .filter(type -> !type.getName().startsWith("org.springframework."))
+                .findFirst()
+                .map(Class::getSimpleName)
+                .orElse(AopUtils.getTargetClass(repository).getSimpleName());
+    }
+}
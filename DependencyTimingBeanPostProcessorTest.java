@@ -0,0 +1,73 @@
+package com.davita.cwow.patient.service.metrics;
+
+import com.davita.cwow.patient.service.api.config.DependencyMetricsProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.repository.Repository;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DependencyTimingBeanPostProcessorTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private DependencyTimingBeanPostProcessor postProcessor;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        ObjectProvider<DependencyMetrics> dependencyMetrics = mock(ObjectProvider.class);
+        when(dependencyMetrics.getObject())
+                .thenReturn(new DependencyMetrics(meterRegistry, new DependencyMetricsProperties()));
+        postProcessor = new DependencyTimingBeanPostProcessor(dependencyMetrics);
+    }
+
+    @Test
+    public void repositoryProxiesAreTimedByRepositoryInterface() {
+        ProxyFactory proxyFactory = new ProxyFactory(new PatientRowsImpl());
+        proxyFactory.addInterface(PatientRows.class);
+        PatientRows repository = (PatientRows) proxyFactory.getProxy();
+
+        Object processed = postProcessor.postProcessAfterInitialization(repository, "patientRows");
+        assertSame(repository, processed);
+        assertEquals(Collections.singletonList("1740099"), repository.findMpis());
+        repository.toString();
+
+        assertEquals(1, meterRegistry.get(DependencyMetrics.METRIC_NAME)
+                .tag("dependency", "spanner")
+                .tag("component", "PatientRows")
+                .tag("operation", "findMpis")
+                .timer().count());
+        assertEquals(1, meterRegistry.get(DependencyMetrics.METRIC_NAME).timers().size());
+    }
+
+    @Test
+    public void unrelatedBeansAreLeftAlone() {
+        Object bean = new Object();
+
+        assertSame(bean, postProcessor.postProcessAfterInitialization(bean, "bean"));
+        assertNull(meterRegistry.find(DependencyMetrics.METRIC_NAME).timer());
+    }
+
+    interface PatientRows extends Repository<Object, String> {
+        List<String> findMpis();
+    }
+
+    static class PatientRowsImpl implements PatientRows {
+        @Override
+        public List<String> findMpis() {
+            return Collections.singletonList("1740099");
+        }
+    }
+}
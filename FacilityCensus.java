@@ -0,0 +1,23 @@
+package com.davita.cwow.patient.service.model.schedule;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Missed treatments and treating-elsewhere events of a facility's patients on one day.
+ */
+@Getter
+@AllArgsConstructor
+public class FacilityCensus {
+
+	private final String facilityNumber;
+
+	private final LocalDate eventDate;
+
+	private final List<MissedTreatment> missedTreatments;
+
+	private final List<TreatingElsewhere> treatingElsewhere;
+}
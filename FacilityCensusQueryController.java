@@ -0,0 +1,46 @@
+package com.davita.cwow.patient.service.api.query;
+
+import com.davita.cwow.patient.hmt.service.FacilityCensusQueryService;
+import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
+import com.davita.cwow.patient.service.model.schedule.FacilityCensus;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import java.time.LocalDate;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/v2/facilities/{facilityNumber}/census")
+@Api(value = "/v2/facilities/{facilityNumber}/census", tags = { "06 - Facility census"})
+public class FacilityCensusQueryController {
+
+		@Autowired
+		private FacilityCensusQueryService facilityCensusQueryService;
+
+		@ApiOperation(value = "Get missed treatments and treating-elsewhere events of the given patients at a facility on one day", notes = "Missed treatments come from the same query as getAllMissedTreatmentEvents and treating-elsewhere events from the facility's interval index, so the census agrees with the per-date queries", response = FacilityCensus.class)
+		@PostMapping(consumes = MediaType.APPLICATION_JSON_UTF8_VALUE, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+		@ApiResponses(value = { @ApiResponse(code = 200, message = "Success", response = FacilityCensus.class),
+				@ApiResponse(code = 401, message = "Unauthorized"),
+				@ApiResponse(code = 500, message = "Internal Server Error", response = PatientQueryApiException.class) })
+		public ResponseEntity<FacilityCensus> getFacilityCensus(
+				@ApiParam(value = "Facility number - For eg: 03436", required = true) @PathVariable String facilityNumber,
+				@ApiParam(value = "Day of the census, matched against each event's date in its own UTC offset - For eg: 2019-09-29", required = true)
+				@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate eventDate,
+				@ApiParam(value = "Master Patient Identifiers - For eg: [\"1740099\", \"1740100\"]", required = true) @RequestBody List<String> mpis,
+				@RequestHeader(value = "facilityId") String facilityId) {
+			return ResponseEntity.ok(facilityCensusQueryService.getFacilityCensus(mpis.toArray(), facilityNumber, eventDate));
+		}
+}
@@ -0,0 +1,42 @@
+package com.davita.cwow.patient.hmt.service;
+
+import com.davita.cwow.patient.service.model.MpiSet;
+import com.davita.cwow.patient.service.model.schedule.FacilityCensus;
+import com.davita.cwow.patient.service.model.schedule.MissedTreatment;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.*;
+
+@Service
+public class FacilityCensusQueryService {
+
+	@Autowired
+	private MissedTreatmentQueryService missedTreatmentQueryService;
+
+	@Autowired
+	private TreatingElsewhereIntervalIndex treatingElsewhereIntervalIndex;
+
+	/**
+	 * Missed treatments starting on {@code eventDate} and treating-elsewhere events covering it, for the given mpis at
+	 * {@code facilityNumber} (case-insensitive). Both come from the same sources as the missed-treatment and
+	 * treating-elsewhere date queries, so the census always agrees with them: one bounded Spanner query for the missed
+	 * treatments, and the facility's interval index for the treating-elsewhere events.
+	 */
+	public FacilityCensus getFacilityCensus(Object[] mpis, String facilityNumber, LocalDate eventDate) {
+		return getFacilityCensus(MpiSet.of(mpis), facilityNumber, eventDate);
+	}
+
+	public FacilityCensus getFacilityCensus(MpiSet mpis, String facilityNumber, LocalDate eventDate) {
+		if (Objects.isNull(facilityNumber) || mpis.isEmpty()) {
+			return new FacilityCensus(facilityNumber, eventDate, Collections.emptyList(), Collections.emptyList());
+		}
+		List<MissedTreatment> missedTreatments =
+				missedTreatmentQueryService.getAllMissedTreatmentEvents(mpis, facilityNumber, eventDate);
+		List<TreatingElsewhere> treatingElsewhereEvents =
+				treatingElsewhereIntervalIndex.findActiveOn(facilityNumber, eventDate, mpis);
+		return new FacilityCensus(facilityNumber, eventDate, missedTreatments, treatingElsewhereEvents);
+	}
+}
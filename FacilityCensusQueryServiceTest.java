@@ -0,0 +1,68 @@
+package com.davita.cwow.patient.hmt.service;
+
+import com.davita.cwow.patient.service.model.MpiSet;
+import com.davita.cwow.patient.service.model.schedule.FacilityCensus;
+import com.davita.cwow.patient.service.model.schedule.MissedTreatment;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.LocalDate;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class FacilityCensusQueryServiceTest {
+
+    @InjectMocks
+    private FacilityCensusQueryService facilityCensusQueryService;
+
+    @Mock
+    private MissedTreatmentQueryService missedTreatmentQueryService;
+
+    @Mock
+    private TreatingElsewhereIntervalIndex treatingElsewhereIntervalIndex;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void getFacilityCensusUsesTheSameSourcesAsTheDateQueries() {
+        LocalDate eventDate = LocalDate.of(2019, 9, 29);
+        MissedTreatment missedTreatment = new MissedTreatment();
+        TreatingElsewhere treatingElsewhere = new TreatingElsewhere();
+        doReturn(Collections.singletonList(missedTreatment)).when(missedTreatmentQueryService)
+                .getAllMissedTreatmentEvents(any(MpiSet.class), eq("03436a"), eq(eventDate));
+        doReturn(Collections.singletonList(treatingElsewhere)).when(treatingElsewhereIntervalIndex)
+                .findActiveOn(eq("03436a"), eq(eventDate), any());
+
+        FacilityCensus census = facilityCensusQueryService.getFacilityCensus(
+                new Object[]{"100500", "100501"}, "03436a", eventDate);
+
+        assertEquals(1, census.getMissedTreatments().size());
+        assertSame(missedTreatment, census.getMissedTreatments().get(0));
+        assertEquals(1, census.getTreatingElsewhere().size());
+        assertSame(treatingElsewhere, census.getTreatingElsewhere().get(0));
+    }
+
+    @Test
+    public void getFacilityCensusWithoutFacility() {
+        FacilityCensus census = facilityCensusQueryService.getFacilityCensus(
+                new Object[]{"100500"}, null, LocalDate.of(2019, 9, 29));
+
+        assertTrue(census.getMissedTreatments().isEmpty());
+        assertTrue(census.getTreatingElsewhere().isEmpty());
+        verifyZeroInteractions(missedTreatmentQueryService, treatingElsewhereIntervalIndex);
+    }
+}
@@ -0,0 +1,202 @@
+package com.davita.cwow.patient.service.common;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process facility names in front of {@link FacilityQueryService}. All names are bulk-loaded while the application
+ * starts, before it reports ready, and reloaded in the background every refresh interval. Callers never wait for a
+ * lookup: a facility missing from the bulk load gets {@code null} and is looked up in the background, and a name older
+ * than two refresh intervals (the bulk reload kept failing) is still returned while it is reloaded in the background.
+ * Only named facilities are cached, so unknown facility numbers and failed lookups do not fill the cache; at most
+ * {@value #MAX_PENDING_LOADS} background lookups are queued at a time.
+ */
+@Slf4j
+@Component
+public class FacilityNameCache {
+
+    static final String CACHE_NAME = "facility.names";
+
+    static final int MAX_PENDING_LOADS = 64;
+
+    private final FacilityQueryService facilityQueryService;
+
+    private final Duration refreshInterval;
+
+    private final ScheduledExecutorService executor;
+
+    private final Clock clock;
+
+    private final ConcurrentMap<String, Entry> names = new ConcurrentHashMap<>();
+
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+
+    @Autowired
+    public FacilityNameCache(FacilityQueryService facilityQueryService, MeterRegistry meterRegistry,
+            @Value("${facility.name-cache.refresh-interval:PT1H}") Duration refreshInterval) {
+        this(facilityQueryService, meterRegistry, refreshInterval,
+                Executors.newScheduledThreadPool(2, daemonThreads()), Clock.systemUTC());
+    }
+
+    FacilityNameCache(FacilityQueryService facilityQueryService, MeterRegistry meterRegistry, Duration refreshInterval,
+            ScheduledExecutorService executor, Clock clock) {
+        this.facilityQueryService = facilityQueryService;
+        this.refreshInterval = refreshInterval;
+        this.executor = executor;
+        this.clock = clock;
+        bindTo(meterRegistry);
+    }
+
+    /**
+     * Loads all names before the application context finishes starting, so the first requests are served from the
+     * cache. A failed load does not stop the application; the names are then looked up as they are used.
+     */
+    @PostConstruct
+    public void start() {
+        refreshAll();
+        executor.scheduleWithFixedDelay(this::refreshAll, refreshInterval.toMillis(), refreshInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The cached name of the facility. {@code null} when it is not cached yet, in which case it is looked up in the
+     * background for later calls.
+     */
+    public String getFacilityName(String facilityNumber) {
+        if (Objects.isNull(facilityNumber)) {
+            return null;
+        }
+        Entry entry = names.get(facilityNumber);
+        if (Objects.isNull(entry)) {
+            misses.increment();
+            loadInBackground(facilityNumber);
+            return null;
+        }
+        hits.increment();
+        if (entry.loadedAt.plus(refreshInterval.multipliedBy(2)).isBefore(clock.instant())) {
+            loadInBackground(facilityNumber);
+        }
+        return entry.name;
+    }
+
+    /**
+     * Whether the facility has a cached name. Never looks the facility up, so it is safe to call with unvalidated input.
+     */
+    public boolean isKnownFacility(String facilityNumber) {
+        return Objects.nonNull(facilityNumber) && names.containsKey(facilityNumber);
+    }
+
+    void refreshAll() {
+        try {
+            Map<String, String> facilityNames = facilityQueryService.getAllFacilityNames();
+            Instant now = clock.instant();
+            facilityNames.forEach((facilityNumber, name) -> {
+                if (Objects.nonNull(name)) {
+                    names.put(facilityNumber, new Entry(name, now));
+                }
+            });
+            refreshes.increment();
+        } catch (RuntimeException exception) {
+            loadFailures.increment();
+            log.warn("Bulk load of facility names failed, serving {} cached names", names.size(), exception);
+        }
+    }
+
+    /**
+     * Looks the facility up on the cache's executor unless it is already being looked up or too many lookups are
+     * pending. A facility without a name is dropped from the cache; a failed lookup keeps what is cached.
+     */
+    private void loadInBackground(String facilityNumber) {
+        if (loading.size() >= MAX_PENDING_LOADS || !loading.add(facilityNumber)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    String name = facilityQueryService.getFacilityName(facilityNumber);
+                    if (Objects.nonNull(name)) {
+                        names.put(facilityNumber, new Entry(name, clock.instant()));
+                    } else {
+                        names.remove(facilityNumber);
+                    }
+                } catch (RuntimeException exception) {
+                    loadFailures.increment();
+                    log.warn("Loading the name of facility {} failed", facilityNumber, exception);
+                } finally {
+                    loading.remove(facilityNumber);
+                }
+            });
+        } catch (RejectedExecutionException rejected) {
+            loading.remove(facilityNumber);
+            log.debug("Not loading the name of facility {}, the cache is stopped", facilityNumber);
+        }
+    }
+
+    private void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cache.gets", hits, LongAdder::sum)
+                .tag("cache", CACHE_NAME).tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", misses, LongAdder::sum)
+                .tag("cache", CACHE_NAME).tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("cache.refreshes", refreshes, LongAdder::sum)
+                .tag("cache", CACHE_NAME)
+                .register(registry);
+        FunctionCounter.builder("cache.load.failures", loadFailures, LongAdder::sum)
+                .tag("cache", CACHE_NAME)
+                .register(registry);
+        Gauge.builder("cache.size", names, Map::size)
+                .tag("cache", CACHE_NAME)
+                .register(registry);
+    }
+
+    private static CustomizableThreadFactory daemonThreads() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("facility-name-cache-");
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
+    private static final class Entry {
+
+        private final String name;
+
+        private final Instant loadedAt;
+
+        private Entry(String name, Instant loadedAt) {
+            this.name = name;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.davita.cwow.patient.service.common;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FacilityNameCacheTest {
+
+    private static final Instant NOW = Instant.parse("2019-09-29T12:00:00Z");
+
+    @Mock
+    private FacilityQueryService facilityQueryService;
+
+    @Mock
+    private ScheduledExecutorService executor;
+
+    private Clock clock;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private FacilityNameCache facilityNameCache;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(NOW);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(executor).execute(any());
+        meterRegistry = new SimpleMeterRegistry();
+        facilityNameCache = new FacilityNameCache(facilityQueryService, meterRegistry, Duration.ofHours(1), executor, clock);
+    }
+
+    @Test
+    public void bulkLoadedNamesAreServedWithoutRemoteLookup() {
+        Map<String, String> facilityNames = new HashMap<>();
+        facilityNames.put("03436", "Sumner Dialysis");
+        doReturn(facilityNames).when(facilityQueryService).getAllFacilityNames();
+
+        facilityNameCache.refreshAll();
+
+        assertEquals("Sumner Dialysis", facilityNameCache.getFacilityName("03436"));
+        verify(facilityQueryService, never()).getFacilityName(any());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.size").gauge().value());
+    }
+
+    @Test
+    public void missReturnsNullAndIsLoadedInTheBackground() {
+        doReturn("Sumner Dialysis").when(facilityQueryService).getFacilityName("03436");
+
+        assertNull(facilityNameCache.getFacilityName("03436"));
+        assertEquals("Sumner Dialysis", facilityNameCache.getFacilityName("03436"));
+        verify(facilityQueryService, times(1)).getFacilityName("03436");
+        verify(executor, times(1)).execute(any());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    public void failedMissLookupIsNotCachedAndIsRetried() {
+        doThrow(new IllegalStateException("facility service down")).when(facilityQueryService).getFacilityName("03436");
+
+        assertNull(facilityNameCache.getFacilityName("03436"));
+        doReturn("Sumner Dialysis").when(facilityQueryService).getFacilityName("03436");
+        assertNull(facilityNameCache.getFacilityName("03436"));
+        assertEquals("Sumner Dialysis", facilityNameCache.getFacilityName("03436"));
+        assertEquals(1.0, meterRegistry.get("cache.load.failures").functionCounter().count());
+    }
+
+    @Test
+    public void unknownFacilitiesAreNotCached() {
+        assertNull(facilityNameCache.getFacilityName("99999"));
+        assertNull(facilityNameCache.getFacilityName("99999"));
+
+        verify(facilityQueryService, times(2)).getFacilityName("99999");
+        assertEquals(0.0, meterRegistry.get("cache.size").gauge().value());
+    }
+
+    @Test
+    public void pendingBackgroundLookupsAreCapped() {
+        doNothing().when(executor).execute(any());
+
+        for (int i = 0; i < FacilityNameCache.MAX_PENDING_LOADS * 2; i++) {
+            assertNull(facilityNameCache.getFacilityName(String.valueOf(i)));
+        }
+
+        verify(executor, times(FacilityNameCache.MAX_PENDING_LOADS)).execute(any());
+    }
+
+    @Test
+    public void onlyNamedFacilitiesAreKnownWithoutLookingThemUp() {
+        doReturn(Collections.singletonMap("03436", "Sumner Dialysis")).when(facilityQueryService).getAllFacilityNames();
+        facilityNameCache.refreshAll();
+
+        assertTrue(facilityNameCache.isKnownFacility("03436"));
+        assertFalse(facilityNameCache.isKnownFacility("99999"));
+        assertFalse(facilityNameCache.isKnownFacility(null));
+        verify(facilityQueryService, never()).getFacilityName(any());
+    }
+
+    @Test
+    public void startLoadsAllNamesBeforeReturning() {
+        doReturn(Collections.singletonMap("03436", "Sumner Dialysis")).when(facilityQueryService).getAllFacilityNames();
+
+        facilityNameCache.start();
+
+        assertEquals("Sumner Dialysis", facilityNameCache.getFacilityName("03436"));
+        verify(executor).scheduleWithFixedDelay(any(), eq(Duration.ofHours(1).toMillis()),
+                eq(Duration.ofHours(1).toMillis()), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failedBulkRefreshKeepsServingAndReloadsOldNames() {
+        doReturn(Collections.singletonMap("03436", "Sumner Dialysis")).when(facilityQueryService).getAllFacilityNames();
+        facilityNameCache.refreshAll();
+        doThrow(new IllegalStateException("facility service down")).when(facilityQueryService).getAllFacilityNames();
+
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofHours(3)));
+        facilityNameCache.refreshAll();
+        doReturn("Sumner Dialysis Center").when(facilityQueryService).getFacilityName("03436");
+
+        assertEquals("Sumner Dialysis", facilityNameCache.getFacilityName("03436"));
+        assertEquals("Sumner Dialysis Center", facilityNameCache.getFacilityName("03436"));
+        assertEquals(1.0, meterRegistry.get("cache.load.failures").functionCounter().count());
+    }
+
+    @Test
+    public void nullFacilityNumber() {
+        assertNull(facilityNameCache.getFacilityName(null));
+        verify(executor, never()).execute(any());
+    }
+}
@@ -0,0 +1,48 @@
+package com.davita.cwow.patient.service;
+
+import com.davita.cwow.patient.service.api.config.PatientProfileProperties;
+import com.davita.cwow.patient.service.model.coverage.DenodoCoverage;
+import com.davita.cwow.patient.service.model.dto.EntityInfo;
+import com.davita.cwow.patient.service.util.BoundedTtlCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Last Denodo coverage and ES pillar data successfully read per mpi, kept much longer than the read caches. Profiles
+ * fall back to it, flagged as stale, when Denodo or ES is failing, too slow or cut off by its circuit breaker.
+ */
+@Component
+public class LastKnownProfileSources {
+
+    static final String COVERAGE_CACHE_NAME = "denodo.coverage.last-known";
+
+    static final String PILLARS_CACHE_NAME = "es.pillars.last-known";
+
+    private final BoundedTtlCache<String, DenodoCoverage> coverage;
+
+    private final BoundedTtlCache<String, EntityInfo> entityInfo;
+
+    public LastKnownProfileSources(PatientProfileProperties properties, MeterRegistry meterRegistry) {
+        PatientProfileProperties.Cache settings = properties.getLastKnownSources();
+        this.coverage = new BoundedTtlCache<>(COVERAGE_CACHE_NAME, settings.getMaximumSize(), settings.getTtl());
+        this.entityInfo = new BoundedTtlCache<>(PILLARS_CACHE_NAME, settings.getMaximumSize(), settings.getTtl());
+        this.coverage.bindTo(meterRegistry);
+        this.entityInfo.bindTo(meterRegistry);
+    }
+
+    public void putCoverage(String masterPatientIdentifier, DenodoCoverage denodoCoverage) {
+        coverage.put(masterPatientIdentifier, denodoCoverage);
+    }
+
+    public DenodoCoverage getCoverage(String masterPatientIdentifier) {
+        return coverage.getIfPresent(masterPatientIdentifier);
+    }
+
+    public void putEntityInfo(String masterPatientIdentifier, EntityInfo pillarEntityInfo) {
+        entityInfo.put(masterPatientIdentifier, pillarEntityInfo);
+    }
+
+    public EntityInfo getEntityInfo(String masterPatientIdentifier) {
+        return entityInfo.getIfPresent(masterPatientIdentifier);
+    }
+}
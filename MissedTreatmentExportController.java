@@ -0,0 +1,74 @@
+package com.davita.cwow.patient.service.api.query;
+
+import com.davita.cwow.patient.hmt.service.MissedTreatmentExportService;
+import com.davita.cwow.patient.service.api.config.MissedTreatmentExportProperties;
+import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
+import com.davita.cwow.patient.service.model.schedule.MissedTreatment;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import java.util.List;
+import java.util.concurrent.Callable;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+@RestController
+@RequestMapping("/v2/missed-treatments/export")
+@Api(value = "/v2/missed-treatments/export", tags = { "07 - Missed treatment export"})
+public class MissedTreatmentExportController {
+
+		public static final String NDJSON_VALUE = "application/x-ndjson";
+
+		@Autowired
+		private MissedTreatmentExportService missedTreatmentExportService;
+
+		@Autowired
+		private ObjectMapper objectMapper;
+
+		@Autowired
+		private MissedTreatmentExportProperties exportProperties;
+
+		@ApiOperation(value = "Export missed treatment events of many patients", notes = "Writes one JSON event per line while the events are read from source", response = MissedTreatment.class, responseContainer = "List")
+		@PostMapping(consumes = MediaType.APPLICATION_JSON_UTF8_VALUE, produces = NDJSON_VALUE)
+		@ApiResponses(value = { @ApiResponse(code = 200, message = "Success", response = MissedTreatment.class, responseContainer = "List"),
+				@ApiResponse(code = 400, message = "Too many mpis", response = PatientQueryApiException.class),
+				@ApiResponse(code = 401, message = "Unauthorized"),
+				@ApiResponse(code = 500, message = "Internal Server Error", response = PatientQueryApiException.class) })
+		public WebAsyncTask<Void> exportMissedTreatments(
+				@ApiParam(value = "Master Patient Identifiers - For eg: [\"1740099\", \"1740100\"]", required = true) @RequestBody List<String> mpis,
+				@ApiParam(value = "Export only active missed treatments") @RequestParam(value = "activeOnly", defaultValue = "true") boolean activeOnly,
+				@RequestHeader(value = "facilityId") String facilityId,
+				HttpServletResponse response) throws PatientQueryApiException {
+			if (mpis.size() > exportProperties.getMaxMpis()) {
+				throw new PatientQueryApiException(HttpStatus.BAD_REQUEST,
+						"At most " + exportProperties.getMaxMpis() + " mpis can be exported at once");
+			}
+			// Streams on an async task with the export's own timeout; on timeout the task is interrupted, which aborts
+			// the export's chunk queries.
+			Callable<Void> export = () -> {
+				response.setContentType(NDJSON_VALUE);
+				try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+					generator.setRootValueSeparator(null);
+					missedTreatmentExportService.exportMissedTreatmentEvents(mpis, activeOnly, missedTreatment -> {
+						generator.writeObject(missedTreatment);
+						generator.writeRaw('\n');
+					});
+				}
+				return null;
+			};
+			return new WebAsyncTask<>(exportProperties.getTimeout().toMillis(), export);
+		}
+}
@@ -0,0 +1,30 @@
+package com.davita.cwow.patient.service.api.config;
+
+import com.davita.cwow.patient.service.metrics.RequestMetricsContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class MissedTreatmentExportExecutorConfiguration {
+
+    public static final String MISSED_TREATMENT_EXPORT_EXECUTOR = "missedTreatmentExportExecutor";
+
+    /**
+     * Pool shared by all running exports for their chunk queries. When it is saturated the chunk is queried on the
+     * exporting thread, which slows that export down instead of failing it.
+     */
+    @Bean(name = MISSED_TREATMENT_EXPORT_EXECUTOR)
+    public ThreadPoolTaskExecutor missedTreatmentExportExecutor(MissedTreatmentExportProperties properties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(properties.getExecutorThreads());
+        executor.setMaxPoolSize(properties.getExecutorThreads());
+        executor.setQueueCapacity(properties.getExecutorQueueCapacity());
+        executor.setThreadNamePrefix("missed-treatment-export-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setTaskDecorator(RequestMetricsContext.TASK_DECORATOR);
+        return executor;
+    }
+}
@@ -0,0 +1,41 @@
+package com.davita.cwow.patient.service.api.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Tuning for the streaming missed-treatment export.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmt.export")
+public class MissedTreatmentExportProperties {
+
+    /**
+     * Mpis per Spanner query.
+     */
+    private int chunkSize = 1000;
+
+    /**
+     * Chunk queries one export may have in flight; further chunks are queried only as results are written.
+     */
+    private int parallelism = 4;
+
+    private int executorThreads = 8;
+
+    private int executorQueueCapacity = 100;
+
+    /**
+     * Longest an export may stream before it is cancelled. Set as the timeout of the export's own async task; other
+     * async endpoints keep the application-wide MVC default.
+     */
+    private Duration timeout = Duration.ofMinutes(10);
+
+    /**
+     * Most mpis one export request may name; larger requests are rejected before any query runs.
+     */
+    private int maxMpis = 50000;
+}
@@ -0,0 +1,126 @@
+package com.davita.cwow.patient.hmt.service;
+
+import com.davita.cwow.patient.service.api.config.MissedTreatmentExportExecutorConfiguration;
+import com.davita.cwow.patient.service.api.config.MissedTreatmentExportProperties;
+import com.davita.cwow.patient.service.model.MpiSet;
+import com.davita.cwow.patient.service.model.schedule.MissedTreatment;
+import com.davita.cwow.patient.service.repository.SrScheduleExceptionRepository;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToMissedTreatmentConverter;
+import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+@Service
+public class MissedTreatmentExportService {
+
+	@Autowired
+	private SrScheduleExceptionRepository srScheduleExceptionRepository;
+
+	@Autowired
+	private SrScheduleExceptionToMissedTreatmentConverter scheduleExceptionToMissedTreatmentConverter;
+
+	@Autowired
+	private MissedTreatmentExportProperties exportProperties;
+
+	@Autowired
+	@Qualifier(MissedTreatmentExportExecutorConfiguration.MISSED_TREATMENT_EXPORT_EXECUTOR)
+	private Executor missedTreatmentExportExecutor;
+
+	/**
+	 * Receives exported events; may write them to the response.
+	 */
+	@FunctionalInterface
+	public interface MissedTreatmentConsumer {
+		void accept(MissedTreatment missedTreatment) throws IOException;
+	}
+
+	/**
+	 * Passes the (active) missed treatments of the given mpis to {@code consumer} as chunk queries complete, so events
+	 * of different chunks are not in mpi order. At most {@code parallelism} chunks are queried or waiting to be
+	 * consumed at any time: the next chunk is only queried once a finished one has been consumed, so a slow consumer
+	 * throttles the Spanner reads and memory holds a bounded number of chunks. A failed chunk or consumer aborts the
+	 * export and cancels the chunks not started yet.
+	 */
+	public void exportMissedTreatmentEvents(Collection<String> mpis, boolean activeOnly,
+			MissedTreatmentConsumer consumer) throws IOException {
+		List<MpiSet> chunks = MpiSet.of(mpis).chunks(exportProperties.getChunkSize());
+		BlockingQueue<ChunkResult> completed = new LinkedBlockingQueue<>();
+		List<CompletableFuture<List<MissedTreatment>>> queries = new ArrayList<>();
+		int submitted = 0;
+		try {
+			while (submitted < Math.min(exportProperties.getParallelism(), chunks.size())) {
+				queries.add(submit(chunks.get(submitted++), activeOnly, completed));
+			}
+			for (int consumed = 0; consumed < chunks.size(); consumed++) {
+				List<MissedTreatment> events = takeNext(completed);
+				for (MissedTreatment event : events) {
+					consumer.accept(event);
+				}
+				if (submitted < chunks.size()) {
+					queries.add(submit(chunks.get(submitted++), activeOnly, completed));
+				}
+			}
+		} finally {
+			queries.forEach(query -> query.cancel(false));
+		}
+	}
+
+	private CompletableFuture<List<MissedTreatment>> submit(MpiSet mpiChunk, boolean activeOnly,
+			BlockingQueue<ChunkResult> completed) {
+		CompletableFuture<List<MissedTreatment>> query = CompletableFuture.supplyAsync(
+				() -> scheduleExceptionToMissedTreatmentConverter.convertCollectionToListWithContext(
+						findMissedTreatments(mpiChunk, activeOnly)), missedTreatmentExportExecutor);
+		query.whenComplete((events, failure) -> completed.add(new ChunkResult(events, failure)));
+		return query;
+	}
+
+	private List<SrScheduleException> findMissedTreatments(MpiSet mpiChunk, boolean activeOnly) {
+		return activeOnly
+				? srScheduleExceptionRepository.findAllActiveMissedTreatmentsByMpi(mpiChunk)
+				: srScheduleExceptionRepository.findByMasterPatientIdentifier(mpiChunk);
+	}
+
+	private List<MissedTreatment> takeNext(BlockingQueue<ChunkResult> completed) throws IOException {
+		ChunkResult result;
+		try {
+			result = completed.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Missed treatment export interrupted");
+		}
+		if (Objects.nonNull(result.failure)) {
+			Throwable cause = result.failure instanceof CompletionException && Objects.nonNull(result.failure.getCause())
+					? result.failure.getCause() : result.failure;
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("Missed treatment export failed", cause);
+		}
+		return result.events;
+	}
+
+	private static final class ChunkResult {
+
+		private final List<MissedTreatment> events;
+
+		private final Throwable failure;
+
+		private ChunkResult(List<MissedTreatment> events, Throwable failure) {
+			this.events = events;
+			this.failure = failure;
+		}
+	}
+}
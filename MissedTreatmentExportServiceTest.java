@@ -0,0 +1,131 @@
+package com.davita.cwow.patient.hmt.service;
+
+import com.davita.cwow.patient.service.api.config.MissedTreatmentExportProperties;
+import com.davita.cwow.patient.service.model.schedule.MissedTreatment;
+import com.davita.cwow.patient.service.repository.SrScheduleExceptionRepository;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToMissedTreatmentConverter;
+import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class MissedTreatmentExportServiceTest {
+
+    @InjectMocks
+    private MissedTreatmentExportService missedTreatmentExportService;
+
+    @Mock
+    private SrScheduleExceptionRepository srScheduleExceptionRepository;
+
+    @Mock
+    private SrScheduleExceptionToMissedTreatmentConverter scheduleExceptionToMissedTreatmentConverter;
+
+    @Spy
+    private MissedTreatmentExportProperties exportProperties = new MissedTreatmentExportProperties();
+
+    @Spy
+    private Executor missedTreatmentExportExecutor = new SimpleAsyncTaskExecutor();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        exportProperties.setChunkSize(2);
+        exportProperties.setParallelism(2);
+        doAnswer(invocation -> {
+            List<String> mpis = invocation.getArgument(0);
+            maxInFlight.accumulateAndGet(inFlight.addAndGet(mpis.size()), Math::max);
+            return mpis.stream().map(this::scheduleException).collect(Collectors.toList());
+        }).when(srScheduleExceptionRepository).findAllActiveMissedTreatmentsByMpi(anyList());
+        doAnswer(invocation -> {
+            List<SrScheduleException> rows = invocation.getArgument(0);
+            return rows.stream().map(row -> missedTreatment(row.getScheduleExceptionId())).collect(Collectors.toList());
+        }).when(scheduleExceptionToMissedTreatmentConverter).convertCollectionToListWithContext(anyList());
+    }
+
+    @Test
+    public void exportsEveryChunkWithBoundedQueries() throws IOException {
+        List<String> mpis = Arrays.asList("1", "2", "3", "4", "5", "2", "6", "7");
+        Set<UUID> exported = new HashSet<>();
+
+        missedTreatmentExportService.exportMissedTreatmentEvents(mpis, true, missedTreatment -> {
+            exported.add(missedTreatment.getId());
+            inFlight.decrementAndGet();
+        });
+
+        assertEquals(7, exported.size());
+        verify(srScheduleExceptionRepository, times(4)).findAllActiveMissedTreatmentsByMpi(anyList());
+        assertTrue(maxInFlight.get() <= 2 * exportProperties.getChunkSize());
+    }
+
+    @Test
+    public void exportWithoutActiveFilterUsesAllEvents() throws IOException {
+        doReturn(Collections.emptyList()).when(srScheduleExceptionRepository).findByMasterPatientIdentifier(anyList());
+
+        missedTreatmentExportService.exportMissedTreatmentEvents(Arrays.asList("1", "2", "3"), false, missedTreatment -> {
+        });
+
+        verify(srScheduleExceptionRepository, times(2)).findByMasterPatientIdentifier(anyList());
+        verify(srScheduleExceptionRepository, never()).findAllActiveMissedTreatmentsByMpi(anyList());
+    }
+
+    @Test
+    public void failedChunkAbortsExport() {
+        doThrow(new IllegalStateException("spanner unavailable"))
+                .when(srScheduleExceptionRepository).findAllActiveMissedTreatmentsByMpi(Arrays.asList("3", "4"));
+        List<MissedTreatment> exported = new ArrayList<>();
+
+        assertThrows(IllegalStateException.class, () -> missedTreatmentExportService.exportMissedTreatmentEvents(
+                Arrays.asList("1", "2", "3", "4"), true, exported::add));
+    }
+
+    @Test
+    public void consumerFailureAbortsExport() {
+        assertThrows(IOException.class, () -> missedTreatmentExportService.exportMissedTreatmentEvents(
+                Arrays.asList("1", "2", "3", "4", "5", "6"), true, missedTreatment -> {
+                    throw new IOException("client went away");
+                }));
+    }
+
+    private SrScheduleException scheduleException(String mpi) {
+        return SrScheduleException.builder()
+                .scheduleExceptionId(UUID.nameUUIDFromBytes(mpi.getBytes()))
+                .build();
+    }
+
+    private MissedTreatment missedTreatment(UUID id) {
+        MissedTreatment missedTreatment = new MissedTreatment();
+        missedTreatment.setId(id);
+        return missedTreatment;
+    }
+}
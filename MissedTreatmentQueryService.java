@@ -2,20 +2,23 @@ package com.davita.cwow.patient.hmt.service;
 
 import com.davita.cwow.patient.service.api.config.ServiceConstants;
 import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
-import com.davita.cwow.patient.service.common.FacilityQueryService;
+import com.davita.cwow.patient.service.common.FacilityNameCache;
+import com.davita.cwow.patient.service.model.MpiSet;
 import com.davita.cwow.patient.service.model.schedule.MissedTreatment;
 import com.davita.cwow.patient.service.model.schedule.dto.HMTEventHistoryDto;
 import com.davita.cwow.patient.service.model.schedule.dto.MissedTreatmentDto;
-import com.davita.cwow.patient.service.repository.SrScheduleExceptionHistRepository;
 import com.davita.cwow.patient.service.repository.SrScheduleExceptionRepository;
 import com.davita.cwow.patient.spanner.model.converters.dto.HMTEventHistoryDtoConverter;
+import com.davita.cwow.patient.spanner.model.converters.dto.ScheduleExceptionDtoMapper;
 import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToMissedTreatmentConverter;
-import org.modelmapper.ModelMapper;
+import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
+import java.sql.Timestamp;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -28,17 +31,14 @@ public class MissedTreatmentQueryService {
 	@Autowired
 	private SrScheduleExceptionRepository srScheduleExceptionRepository;
 
-	@Autowired
-	private SrScheduleExceptionHistRepository srScheduleExceptionHistRepository;
-
 	@Autowired
 	private HMTEventHistoryDtoConverter hmtEventHistoryDtoConverter;
 
 	@Autowired
-	private FacilityQueryService facilityQueryService;
+	private FacilityNameCache facilityNameCache;
 
 	@Autowired
-	private ModelMapper mapper;
+	private ScheduleExceptionDtoMapper scheduleExceptionDtoMapper;
 
 	public Optional<MissedTreatment> getMissedTreatmentEvent(UUID patientId, UUID id) {
 		return srScheduleExceptionRepository.findByPatientIdAndScheduleExceptionId(patientId, id)
@@ -46,15 +46,21 @@ public class MissedTreatmentQueryService {
 	}
 
 	public List<MissedTreatment> getAllMissedTreatmentEvents(Object[] mpis) {
+		return getAllMissedTreatmentEvents(MpiSet.of(mpis));
+	}
+
+	public List<MissedTreatment> getAllMissedTreatmentEvents(MpiSet mpis) {
 		return scheduleExceptionToMissedTreatmentConverter.convertCollectionToListWithContext(
-			srScheduleExceptionRepository.findByMasterPatientIdentifier(
-				Arrays.stream(mpis).map(Object::toString).collect(Collectors.toList())));
+			srScheduleExceptionRepository.findByMasterPatientIdentifier(mpis));
 	}
 
 	public List<MissedTreatment> getAllActiveMissedTreatmentEvents(Object[] mpis) {
+		return getAllActiveMissedTreatmentEvents(MpiSet.of(mpis));
+	}
+
+	public List<MissedTreatment> getAllActiveMissedTreatmentEvents(MpiSet mpis) {
 		return scheduleExceptionToMissedTreatmentConverter.convertCollectionToListWithContext(
-			srScheduleExceptionRepository.findAllActiveMissedTreatmentsByMpi(
-				Arrays.stream(mpis).map(Object::toString).collect(Collectors.toList())));
+			srScheduleExceptionRepository.findAllActiveMissedTreatmentsByMpi(mpis));
 	}
 
 	public List<MissedTreatment> getAllActiveMissedTreatmentEvents(String mpi) {
@@ -64,16 +70,15 @@ public class MissedTreatmentQueryService {
 
 	public MissedTreatmentDto getMissedTreatmentEventDetails(UUID patientId, UUID id) throws PatientQueryApiException {
 
-		Optional<MissedTreatment> missedTreatment = getMissedTreatmentEvent(patientId, id);
-		if (!missedTreatment.isPresent()) {
-			throw new PatientQueryApiException(HttpStatus.OK, ServiceConstants.MISSED_TREATMENT_NOT_FOUND);
-		}
+		SrScheduleException srScheduleException = srScheduleExceptionRepository
+				.findWithHistsByPatientIdAndScheduleExceptionId(patientId, id)
+				.orElseThrow(() -> new PatientQueryApiException(HttpStatus.OK, ServiceConstants.MISSED_TREATMENT_NOT_FOUND));
 
-		MissedTreatmentDto missedTreatmentDto = new MissedTreatmentDto();
-		mapper.map(missedTreatment.get(), missedTreatmentDto);
+		MissedTreatmentDto missedTreatmentDto = scheduleExceptionDtoMapper.toMissedTreatmentDto(
+				scheduleExceptionToMissedTreatmentConverter.convertWithContext(srScheduleException));
 
-		List<HMTEventHistoryDto> hmtEventHistory = srScheduleExceptionHistRepository
-				.findTracksByPatientIdAndScheduleExceptionId(patientId, id)
+		List<HMTEventHistoryDto> hmtEventHistory = Optional.ofNullable(srScheduleException.getScheduleExceptionHists())
+				.orElse(Collections.emptyList())
 				.stream()
 				.map(hmtEventHistoryDtoConverter::toDto)
 				.sorted(Comparator.comparing(HMTEventHistoryDto::getDocumentDateTime).reversed())
@@ -83,15 +88,30 @@ public class MissedTreatmentQueryService {
 		missedTreatmentDto.setScheduleExceptionTrackList(null);
 		
 		missedTreatmentDto.setFacilityName(
-				facilityQueryService.getFacilityName(missedTreatmentDto.getFacilityNumberDocumentedAt()));
+				facilityNameCache.getFacilityName(missedTreatmentDto.getFacilityNumberDocumentedAt()));
 		return missedTreatmentDto;
 	}
 	
+	/**
+	 * Active missed treatments of the given mpis documented at {@code facilityNumber} (case-insensitive) that start on
+	 * {@code eventDate} in the zone the converter gives their start date. Spanner narrows the rows to the facility and
+	 * to the instants that fall on that date in some zone; the exact date is then matched on the converted start date.
+	 */
 	public List<MissedTreatment> getAllMissedTreatmentEvents(Object [] mpis, String facilityNumber, LocalDate eventDate){
-		return getAllActiveMissedTreatmentEvents(mpis).stream()
-				.filter(mt -> Optional.ofNullable(mt.getFacilityNumberDocumentedAt()).isPresent())
-				.filter(mt -> Optional.ofNullable(mt.getStartDate()).isPresent())
-				.filter(mt -> mt.getFacilityNumberDocumentedAt().equalsIgnoreCase(facilityNumber))
+		return getAllMissedTreatmentEvents(MpiSet.of(mpis), facilityNumber, eventDate);
+	}
+
+	public List<MissedTreatment> getAllMissedTreatmentEvents(MpiSet mpis, String facilityNumber, LocalDate eventDate) {
+		if (Objects.isNull(facilityNumber) || mpis.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Timestamp earliestDayStart = Timestamp.from(eventDate.atStartOfDay(ZoneOffset.MAX).toInstant());
+		Timestamp latestNextDayStart = Timestamp.from(eventDate.plusDays(1).atStartOfDay(ZoneOffset.MIN).toInstant());
+		return scheduleExceptionToMissedTreatmentConverter.convertCollectionToListWithContext(
+			srScheduleExceptionRepository.findAllActiveMissedTreatmentsByMpiAndFacilityAndStartDate(mpis,
+				facilityNumber.toUpperCase(Locale.ROOT), earliestDayStart, latestNextDayStart))
+				.stream()
+				.filter(mt -> Objects.nonNull(mt.getStartDate()))
 				.filter(mt -> mt.getStartDate().toLocalDate().isEqual(eventDate))
 				.collect(Collectors.toList());
 	}
@@ -1,29 +1,36 @@
 package com.davita.cwow.patient.hmt.service;
 
 import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
-import com.davita.cwow.patient.service.common.FacilityQueryService;
+import com.davita.cwow.patient.service.common.FacilityNameCache;
 import com.davita.cwow.patient.service.model.schedule.MissedTreatment;
 import com.davita.cwow.patient.service.model.schedule.ScheduleExceptionTrack;
-import com.davita.cwow.patient.service.repository.SrScheduleExceptionHistRepository;
+import com.davita.cwow.patient.service.model.schedule.dto.HMTEventHistoryDto;
+import com.davita.cwow.patient.service.model.schedule.dto.MissedTreatmentDto;
 import com.davita.cwow.patient.service.repository.SrScheduleExceptionRepository;
 import com.davita.cwow.patient.spanner.model.converters.dto.HMTEventHistoryDtoConverter;
+import com.davita.cwow.patient.spanner.model.converters.dto.ScheduleExceptionDtoMapper;
 import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToMissedTreatmentConverter;
 import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
+import com.davita.cwow.patient.spanner.model.schedule.SrScheduleExceptionHist;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
-import org.modelmapper.ModelMapper;
+import org.mapstruct.factory.Mappers;
 
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.util.*;
 
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 public class MissedTreatmentQueryServiceTest {
 
@@ -36,9 +43,6 @@ public class MissedTreatmentQueryServiceTest {
     @Mock
     private SrScheduleExceptionRepository scheduleExceptionRepository;
 
-    @Mock
-    private SrScheduleExceptionHistRepository srScheduleExceptionHistRepository;
-
     @Mock
     private HMTEventHistoryDtoConverter hmtEventHistoryDtoConverter;
 
@@ -46,12 +50,13 @@ public class MissedTreatmentQueryServiceTest {
     private HMTEventQueryService htmEventsQueryService;
 
     @Mock
-    private FacilityQueryService facilityQueryService;
+    private FacilityNameCache facilityNameCache;
 
     @Spy
-    private ModelMapper mapper;
+    private ScheduleExceptionDtoMapper scheduleExceptionDtoMapper = Mappers.getMapper(ScheduleExceptionDtoMapper.class);
 
     private MissedTreatmentQueryService missedTreatmentQueryServiceSpy;
+
     private MissedTreatment missedTreatment;
     private UUID id;
     private UUID patientId;
@@ -99,15 +104,29 @@ public class MissedTreatmentQueryServiceTest {
 
     @Test
     public void getMissedTreatmentEventDetailsTest() throws PatientQueryApiException {
-        doReturn(Optional.of(missedTreatment)).when(missedTreatmentQueryServiceSpy).getMissedTreatmentEvent(patientId, id);
-        doReturn(Collections.emptyList()).when(srScheduleExceptionHistRepository).findTracksByPatientIdAndScheduleExceptionId(patientId, id);
-        doReturn("Sumner Dialysis").when(facilityQueryService).getFacilityName(any());
-        assertEquals(id, missedTreatmentQueryServiceSpy.getMissedTreatmentEventDetails(patientId, id).getId());
+        SrScheduleException srScheduleException = mock(SrScheduleException.class);
+        SrScheduleExceptionHist older = mock(SrScheduleExceptionHist.class);
+        SrScheduleExceptionHist newer = mock(SrScheduleExceptionHist.class);
+        doReturn(Arrays.asList(older, newer)).when(srScheduleException).getScheduleExceptionHists();
+        doReturn(Optional.of(srScheduleException))
+                .when(scheduleExceptionRepository).findWithHistsByPatientIdAndScheduleExceptionId(patientId, id);
+        doReturn(missedTreatment).when(scheduleExceptionToMissedTreatmentConverter).convertWithContext(srScheduleException);
+        doReturn(historyDto(ZonedDateTime.now().minusDays(1))).when(hmtEventHistoryDtoConverter).toDto(older);
+        HMTEventHistoryDto newerDto = historyDto(ZonedDateTime.now());
+        doReturn(newerDto).when(hmtEventHistoryDtoConverter).toDto(newer);
+        doReturn("Sumner Dialysis").when(facilityNameCache).getFacilityName(any());
+
+        MissedTreatmentDto details = missedTreatmentQueryService.getMissedTreatmentEventDetails(patientId, id);
+
+        assertEquals(id, details.getId());
+        assertEquals(2, details.getHistory().size());
+        assertSame(newerDto, details.getHistory().get(0));
     }
 
     @Test
     public void getMissedTreatmentDetailsTestNotFound() {
-        doReturn(Optional.ofNullable(null)).when(missedTreatmentQueryServiceSpy).getMissedTreatmentEvent(patientId, id);
+        doReturn(Optional.empty())
+                .when(scheduleExceptionRepository).findWithHistsByPatientIdAndScheduleExceptionId(patientId, id);
         assertThatExceptionOfType(PatientQueryApiException.class)
                 .isThrownBy(() -> missedTreatmentQueryServiceSpy.getMissedTreatmentEventDetails(patientId, id))
                 .withMessage("Missed Treatment not found.");
@@ -131,10 +150,51 @@ public class MissedTreatmentQueryServiceTest {
 
     @Test
     public void getAllMissedTreatmentEventsWithGivenFacilityTest() {
-        List<MissedTreatment> missedTreatments = new ArrayList<>();
-        missedTreatments.add(missedTreatment);
-        doReturn(missedTreatments).when(scheduleExceptionToMissedTreatmentConverter).convertCollectionToListWithContext(any());
+        List<SrScheduleException> srScheduleExceptions = Collections.singletonList(mock(SrScheduleException.class));
+        doReturn(srScheduleExceptions).when(scheduleExceptionRepository)
+                .findAllActiveMissedTreatmentsByMpiAndFacilityAndStartDate(
+                        Collections.singletonList("123"), "03436A",
+                        Timestamp.from(Instant.parse("2020-03-14T06:00:00Z")),
+                        Timestamp.from(Instant.parse("2020-03-16T18:00:00Z")));
+        missedTreatment.setStartDate(ZonedDateTime.parse("2020-03-15T10:00:00-05:00"));
+        doReturn(Collections.singletonList(missedTreatment))
+                .when(scheduleExceptionToMissedTreatmentConverter).convertCollectionToListWithContext(srScheduleExceptions);
+
         assertEquals(1, missedTreatmentQueryServiceSpy.getAllMissedTreatmentEvents(
-            new Object[]{"123"}, "03436", LocalDate.now()).size());
+            new Object[]{"123"}, "03436a", LocalDate.of(2020, 3, 15)).size());
+    }
+
+    @Test
+    public void getAllMissedTreatmentEvents_matchesTheDateInTheConvertedZone() {
+        List<SrScheduleException> srScheduleExceptions = Collections.singletonList(mock(SrScheduleException.class));
+        doReturn(srScheduleExceptions).when(scheduleExceptionRepository)
+                .findAllActiveMissedTreatmentsByMpiAndFacilityAndStartDate(
+                        Collections.singletonList("123"), "03436A",
+                        Timestamp.from(Instant.parse("2020-03-14T06:00:00Z")),
+                        Timestamp.from(Instant.parse("2020-03-16T18:00:00Z")));
+        MissedTreatment previousDayInZone = new MissedTreatment();
+        previousDayInZone.setStartDate(ZonedDateTime.parse("2020-03-14T21:00:00-05:00"));
+        missedTreatment.setStartDate(ZonedDateTime.parse("2020-03-15T21:00:00-05:00"));
+        doReturn(Arrays.asList(previousDayInZone, missedTreatment))
+                .when(scheduleExceptionToMissedTreatmentConverter).convertCollectionToListWithContext(srScheduleExceptions);
+
+        List<MissedTreatment> missedTreatments = missedTreatmentQueryServiceSpy.getAllMissedTreatmentEvents(
+            new Object[]{"123"}, "03436a", LocalDate.of(2020, 3, 15));
+
+        assertEquals(1, missedTreatments.size());
+        assertSame(missedTreatment, missedTreatments.get(0));
+    }
+
+    @Test
+    public void getAllMissedTreatmentEventsWithoutFacilityTest() {
+        assertTrue(missedTreatmentQueryService.getAllMissedTreatmentEvents(
+            new Object[]{"123"}, null, LocalDate.now()).isEmpty());
+        verifyZeroInteractions(scheduleExceptionRepository);
+    }
+
+    private HMTEventHistoryDto historyDto(ZonedDateTime documentDateTime) {
+        HMTEventHistoryDto historyDto = new HMTEventHistoryDto();
+        historyDto.setDocumentDateTime(documentDateTime);
+        return historyDto;
     }
 }
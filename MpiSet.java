@@ -0,0 +1,154 @@
+package com.davita.cwow.patient.service.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable, sorted and deduplicated set of master patient identifiers, usable wherever a {@code List<String>} of
+ * mpis is expected (e.g. repository IN-list parameters). When every mpi is a canonical decimal number the set is
+ * stored as a {@code long[]} in numeric order, otherwise as a {@code String[]} in natural order. Chunks share the
+ * backing array, so one cohort can be built once and passed to several services.
+ */
+public final class MpiSet extends AbstractList<String> implements RandomAccess {
+
+    private static final int MAX_NUMERIC_DIGITS = 18;
+
+    private static final MpiSet EMPTY = new MpiSet(new long[0], null, 0, 0);
+
+    private final long[] numeric;
+
+    private final String[] text;
+
+    private final int from;
+
+    private final int to;
+
+    private MpiSet(long[] numeric, String[] text, int from, int to) {
+        this.numeric = numeric;
+        this.text = text;
+        this.from = from;
+        this.to = to;
+    }
+
+    public static MpiSet of(Object[] mpis) {
+        return of(Arrays.asList(mpis));
+    }
+
+    public static MpiSet of(Collection<?> mpis) {
+        if (mpis instanceof MpiSet) {
+            return (MpiSet) mpis;
+        }
+        if (mpis.isEmpty()) {
+            return EMPTY;
+        }
+        String[] values = new String[mpis.size()];
+        long[] numbers = new long[values.length];
+        boolean allNumeric = true;
+        int i = 0;
+        for (Object mpi : mpis) {
+            values[i] = mpi.toString();
+            if (allNumeric) {
+                allNumeric = isCanonicalNumber(values[i]);
+                if (allNumeric) {
+                    numbers[i] = Long.parseLong(values[i]);
+                }
+            }
+            i++;
+        }
+        if (allNumeric) {
+            Arrays.sort(numbers);
+            int unique = 0;
+            for (int j = 0; j < numbers.length; j++) {
+                if (j == 0 || numbers[j] != numbers[unique - 1]) {
+                    numbers[unique++] = numbers[j];
+                }
+            }
+            return new MpiSet(Arrays.copyOf(numbers, unique), null, 0, unique);
+        }
+        Arrays.sort(values);
+        int unique = 0;
+        for (int j = 0; j < values.length; j++) {
+            if (j == 0 || !values[j].equals(values[unique - 1])) {
+                values[unique++] = values[j];
+            }
+        }
+        return new MpiSet(null, Arrays.copyOf(values, unique), 0, unique);
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return numeric != null ? Long.toString(numeric[from + index]) : text[from + index];
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof String)) {
+            return false;
+        }
+        String mpi = (String) o;
+        if (numeric != null) {
+            return isCanonicalNumber(mpi) && Arrays.binarySearch(numeric, from, to, Long.parseLong(mpi)) >= 0;
+        }
+        return Arrays.binarySearch(text, from, to, mpi) >= 0;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof String)) {
+            return -1;
+        }
+        String mpi = (String) o;
+        int index;
+        if (numeric != null) {
+            index = isCanonicalNumber(mpi) ? Arrays.binarySearch(numeric, from, to, Long.parseLong(mpi)) : -1;
+        } else {
+            index = Arrays.binarySearch(text, from, to, mpi);
+        }
+        return index >= 0 ? index - from : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    /**
+     * Consecutive slices of at most {@code chunkSize} mpis, e.g. to stay within IN-list parameter limits.
+     */
+    public List<MpiSet> chunks(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        List<MpiSet> chunks = new ArrayList<>((size() + chunkSize - 1) / chunkSize);
+        for (int start = from; start < to; start += chunkSize) {
+            chunks.add(new MpiSet(numeric, text, start, Math.min(start + chunkSize, to)));
+        }
+        return chunks;
+    }
+
+    private static boolean isCanonicalNumber(String value) {
+        int length = value.length();
+        if (length == 0 || length > MAX_NUMERIC_DIGITS || (value.charAt(0) == '0' && length > 1)) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.davita.cwow.patient.service.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpiSetTest {
+
+    @Test
+    void numericMpisAreDeduplicatedInNumericOrder() {
+        MpiSet mpis = MpiSet.of(new Object[]{"1740100", 99, "1740099", "99", 1740100L});
+
+        assertEquals(Arrays.asList("99", "1740099", "1740100"), mpis);
+        assertTrue(mpis.contains("1740099"));
+        assertFalse(mpis.contains("01740099"));
+        assertFalse(mpis.contains(1740099));
+        assertEquals(1, mpis.indexOf("1740099"));
+    }
+
+    @Test
+    void nonNumericMpisKeepTheirText() {
+        MpiSet mpis = MpiSet.of(Arrays.asList("0042", "A-1", "42", "0042"));
+
+        assertEquals(Arrays.asList("0042", "42", "A-1"), mpis);
+        assertTrue(mpis.contains("0042"));
+        assertFalse(mpis.contains("043"));
+    }
+
+    @Test
+    void chunksShareOrderAndCoverEverything() {
+        MpiSet mpis = MpiSet.of(Arrays.asList("5", "3", "1", "4", "2"));
+
+        List<MpiSet> chunks = mpis.chunks(2);
+
+        assertEquals(Arrays.asList(Arrays.asList("1", "2"), Arrays.asList("3", "4"), Collections.singletonList("5")), chunks);
+        assertTrue(chunks.get(1).contains("4"));
+        assertFalse(chunks.get(1).contains("5"));
+        assertEquals(0, chunks.get(1).indexOf("3"));
+        assertEquals(mpis, chunks.stream().flatMap(List::stream).collect(Collectors.toList()));
+        assertThrows(IllegalArgumentException.class, () -> mpis.chunks(0));
+    }
+
+    @Test
+    void isImmutableAndReusable() {
+        MpiSet mpis = MpiSet.of(Collections.singletonList("1"));
+
+        assertSame(mpis, MpiSet.of(mpis));
+        assertTrue(MpiSet.of(new Object[0]).isEmpty());
+        assertThrows(UnsupportedOperationException.class, () -> mpis.add("2"));
+        assertThrows(IndexOutOfBoundsException.class, () -> mpis.get(1));
+    }
+}
@@ -2,12 +2,17 @@ package com.davita.cwow.patient.spanner.util;
 
 import org.apache.commons.lang3.StringUtils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.time.temporal.TemporalAdjuster;
 import java.util.*;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public class NullValidator {
 
@@ -20,77 +25,199 @@ public class NullValidator {
             UUID.class
     );
 
-    public static boolean deepNonNullCheck(Object object) {
-        if (Objects.isNull(object)) {
-            return false;
-        }
-        if (isPrimitive(object)) {
-            return true;
-        }
-        if (object instanceof Collection) {
-            return ((Collection<?>) object).stream().anyMatch(NullValidator::deepNonNullCheck);
-        }
-        if (object instanceof Map) {
-            return ((Map<?, ?>) object).values().stream().anyMatch(NullValidator::deepNonNullCheck);
-        }
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    static final int PARALLEL_THRESHOLD = 1024;
 
-        List<Field> fieldsWithGetters = getFieldsWithGetters(
-                getObjectFields(object.getClass(), new ArrayList<>()),
-                getObjectMethods(object.getClass(), new ArrayList<>())
-        );
+    private static final int SLICE_SIZE = 256;
 
-        fieldsWithGetters.forEach(field -> field.setAccessible(true));
+    /**
+     * Whether instances of a class are treated as leaves, resolved once per class.
+     */
+    private static final ClassValue<Boolean> PRIMITIVE_TYPES = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return primitives.stream().anyMatch(primitiveClass -> primitiveClass.isAssignableFrom(type));
+        }
+    };
+
+    /**
+     * Readers for the fields of a class (including inherited ones) that have a public {@code get} method of the same
+     * name, resolved once per class. Each handle takes the instance and returns the boxed field value.
+     */
+    private static final ClassValue<MethodHandle[]> FIELD_ACCESSORS = new ClassValue<MethodHandle[]>() {
+        @Override
+        protected MethodHandle[] computeValue(Class<?> type) {
+            return resolveAccessors(type);
+        }
+    };
 
-        return getValuesFromGetters(object, fieldsWithGetters).stream()
-                .filter(Objects::nonNull)
-                .anyMatch(NullValidator::deepNonNullCheck);
+    /**
+     * Whether {@code object} contains at least one non-null leaf value. Traversal is iterative and visits every object
+     * once, so cyclic graphs terminate; collections and maps of {@value #PARALLEL_THRESHOLD} or more entries are split
+     * across the fork-join pool, and all branches stop as soon as any of them finds a leaf.
+     */
+    public static boolean deepNonNullCheck(Object object) {
+        Traversal traversal = new Traversal(new AtomicBoolean(),
+                Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>())));
+        traversal.push(object);
+        return traversal.drain();
     }
 
     private static boolean isPrimitive(Object object) {
-        return primitives.stream().anyMatch(primitiveClass -> primitiveClass.isAssignableFrom(object.getClass()));
+        return PRIMITIVE_TYPES.get(object.getClass());
     }
 
-    private static List<Field> getObjectFields(Class<?> clazz, List<Field> fields) {
-        fields.addAll(Arrays.asList(clazz.getDeclaredFields()));
-
-        if (Objects.nonNull(clazz.getSuperclass())) {
-            getObjectFields(clazz.getSuperclass(), fields);
+    private static Object readField(MethodHandle accessor, Object object) {
+        try {
+            return (Object) accessor.invokeExact(object);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
         }
-
-        return fields;
     }
 
-    private static List<Method> getObjectMethods(Class<?> clazz, List<Method> methods) {
-        methods.addAll(Arrays.asList(clazz.getMethods()));
-
-        if (Objects.nonNull(clazz.getSuperclass())) {
-            getObjectMethods(clazz.getSuperclass(), methods);
+    private static MethodHandle[] resolveAccessors(Class<?> type) {
+        Set<String> getterNames = new HashSet<>();
+        for (Class<?> clazz = type; Objects.nonNull(clazz); clazz = clazz.getSuperclass()) {
+            for (Method method : clazz.getMethods()) {
+                if (method.getName().startsWith("get")) {
+                    getterNames.add(method.getName());
+                }
+            }
         }
 
-        return methods;
+        List<MethodHandle> accessors = new ArrayList<>();
+        for (Class<?> clazz = type; Objects.nonNull(clazz); clazz = clazz.getSuperclass()) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (getterNames.contains(getFieldGetterName(field))) {
+                    accessors.add(toAccessor(field));
+                }
+            }
+        }
+        return accessors.toArray(new MethodHandle[0]);
     }
 
-    private static List<Field> getFieldsWithGetters(
-            List<Field> fields,
-            List<Method> methods) {
-        List<String> methodsAsString = methods.stream()
-                .map(Method::getName)
-                .filter(methodName -> methodName.startsWith("get"))
-                .collect(Collectors.toList());
-
-        return fields.stream()
-                .filter(field -> methodsAsString.contains(getFieldGetterName(field)))
-                .collect(Collectors.toList());
+    private static MethodHandle toAccessor(Field field) {
+        field.setAccessible(true);
+        try {
+            MethodHandle getter = MethodHandles.lookup().unreflectGetter(field);
+            if (Modifier.isStatic(field.getModifiers())) {
+                return MethodHandles.dropArguments(getter.asType(MethodType.methodType(Object.class)), 0, Object.class);
+            }
+            return getter.asType(ACCESSOR_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private static String getFieldGetterName(Field field) {
         return "get" + StringUtils.capitalize(field.getName());
     }
 
-    private static List<Object> getValuesFromGetters(Object object, List<Field> fields) {
-        return fields.stream()
-                .map((ThrowingFunction<Field, Object>) field -> field.get(object))
-                .collect(Collectors.toList());
+    /**
+     * Depth-first walk over an explicit stack, visiting children in declaration order. {@code found} is shared by all
+     * traversals of one check; {@code splitContainers} makes sure each large container is split only once.
+     */
+    private static final class Traversal {
+
+        private final AtomicBoolean found;
+        private final Set<Object> splitContainers;
+        private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Deque<Object> pending = new ArrayDeque<>();
+
+        private Traversal(AtomicBoolean found, Set<Object> splitContainers) {
+            this.found = found;
+            this.splitContainers = splitContainers;
+        }
+
+        private void push(Object object) {
+            if (Objects.nonNull(object)) {
+                pending.push(object);
+            }
+        }
+
+        private boolean drain() {
+            while (!pending.isEmpty()) {
+                if (found.get()) {
+                    return true;
+                }
+                Object object = pending.pop();
+                if (isPrimitive(object)) {
+                    found.set(true);
+                    return true;
+                }
+                if (!visited.add(object)) {
+                    continue;
+                }
+                if (object instanceof Collection) {
+                    pushElements(object, ((Collection<?>) object).toArray());
+                } else if (object instanceof Map) {
+                    pushElements(object, ((Map<?, ?>) object).values().toArray());
+                } else {
+                    MethodHandle[] accessors = FIELD_ACCESSORS.get(object.getClass());
+                    for (int i = accessors.length - 1; i >= 0; i--) {
+                        push(readField(accessors[i], object));
+                    }
+                }
+            }
+            return found.get();
+        }
+
+        private void pushElements(Object container, Object[] elements) {
+            if (elements.length >= PARALLEL_THRESHOLD && splitContainers.add(container)) {
+                if (new SliceTask(elements, 0, elements.length, found, splitContainers).invoke()) {
+                    found.set(true);
+                }
+                return;
+            }
+            for (int i = elements.length - 1; i >= 0; i--) {
+                push(elements[i]);
+            }
+        }
+    }
+
+    /**
+     * Checks a slice of a large container's elements, halving it until it is small enough for a sequential
+     * traversal with its own visited set.
+     */
+    private static final class SliceTask extends RecursiveTask<Boolean> {
+
+        private final Object[] elements;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean found;
+        private final Set<Object> splitContainers;
+
+        private SliceTask(Object[] elements, int from, int to, AtomicBoolean found, Set<Object> splitContainers) {
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+            this.found = found;
+            this.splitContainers = splitContainers;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (found.get()) {
+                return true;
+            }
+            if (to - from <= SLICE_SIZE) {
+                Traversal traversal = new Traversal(found, splitContainers);
+                for (int i = to - 1; i >= from; i--) {
+                    traversal.push(elements[i]);
+                }
+                return traversal.drain();
+            }
+            int middle = (from + to) >>> 1;
+            SliceTask right = new SliceTask(elements, middle, to, found, splitContainers);
+            right.fork();
+            if (new SliceTask(elements, from, middle, found, splitContainers).compute()) {
+                return true;
+            }
+            return right.join();
+        }
     }
 
     @FunctionalInterface
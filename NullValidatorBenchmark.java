@@ -0,0 +1,180 @@
+package com.davita.cwow.patient.benchmark;
+
+import com.davita.cwow.patient.spanner.util.NullValidator;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.sql.Timestamp;
+import java.time.temporal.TemporalAdjuster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares {@link NullValidator#deepNonNullCheck} with its previous implementation, which resolved fields and getters
+ * reflectively for every visited object. The aggregate mimics a schedule exception with a history list in which only
+ * the last entry carries a value, so the whole graph is traversed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NullValidatorBenchmark {
+
+    @Param({"10", "1000"})
+    private int historySize;
+
+    private ScheduleException aggregate;
+
+    @Setup
+    public void setUp() {
+        aggregate = new ScheduleException();
+        aggregate.histories = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            aggregate.histories.add(new ScheduleExceptionHist());
+        }
+        aggregate.histories.get(historySize - 1).updateDateTimeGmt = new Timestamp(0L);
+    }
+
+    @Benchmark
+    public boolean cachedAccessors() {
+        return NullValidator.deepNonNullCheck(aggregate);
+    }
+
+    @Benchmark
+    public boolean reflectivePerCall() {
+        return LegacyNullValidator.deepNonNullCheck(aggregate);
+    }
+
+    public static class ScheduleException {
+        private UUID scheduleExceptionId;
+        private String facilityNumberDocumentedAt;
+        private String reasonTxt;
+        private Timestamp exceptionStartDate;
+        private Timestamp exceptionEndDate;
+        private List<ScheduleExceptionHist> histories;
+
+        public UUID getScheduleExceptionId() {
+            return scheduleExceptionId;
+        }
+
+        public String getFacilityNumberDocumentedAt() {
+            return facilityNumberDocumentedAt;
+        }
+
+        public String getReasonTxt() {
+            return reasonTxt;
+        }
+
+        public Timestamp getExceptionStartDate() {
+            return exceptionStartDate;
+        }
+
+        public Timestamp getExceptionEndDate() {
+            return exceptionEndDate;
+        }
+
+        public List<ScheduleExceptionHist> getHistories() {
+            return histories;
+        }
+    }
+
+    public static class ScheduleExceptionHist {
+        private UUID scheduleExceptionHistId;
+        private String reasonDisplay;
+        private String hospitalName;
+        private Integer recordVersion;
+        private Timestamp updateDateTimeGmt;
+
+        public UUID getScheduleExceptionHistId() {
+            return scheduleExceptionHistId;
+        }
+
+        public String getReasonDisplay() {
+            return reasonDisplay;
+        }
+
+        public String getHospitalName() {
+            return hospitalName;
+        }
+
+        public Integer getRecordVersion() {
+            return recordVersion;
+        }
+
+        public Timestamp getUpdateDateTimeGmt() {
+            return updateDateTimeGmt;
+        }
+    }
+
+    /**
+     * The implementation before per-class metadata caching, kept as the baseline.
+     */
+    static final class LegacyNullValidator {
+
+        private static final List<Class<?>> primitives = Arrays.asList(
+                Number.class, Date.class, Boolean.class, String.class, TemporalAdjuster.class, UUID.class);
+
+        static boolean deepNonNullCheck(Object object) {
+            if (Objects.isNull(object)) {
+                return false;
+            }
+            if (primitives.stream().anyMatch(primitiveClass -> primitiveClass.isAssignableFrom(object.getClass()))) {
+                return true;
+            }
+            if (object instanceof Collection) {
+                return ((Collection<?>) object).stream().anyMatch(LegacyNullValidator::deepNonNullCheck);
+            }
+            if (object instanceof Map) {
+                return ((Map<?, ?>) object).values().stream().anyMatch(LegacyNullValidator::deepNonNullCheck);
+            }
+
+            List<Field> fields = new ArrayList<>();
+            List<Method> methods = new ArrayList<>();
+            for (Class<?> clazz = object.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+                fields.addAll(Arrays.asList(clazz.getDeclaredFields()));
+                methods.addAll(Arrays.asList(clazz.getMethods()));
+            }
+            List<String> getterNames = methods.stream()
+                    .map(Method::getName)
+                    .filter(methodName -> methodName.startsWith("get"))
+                    .collect(Collectors.toList());
+            List<Field> fieldsWithGetters = fields.stream()
+                    .filter(field -> getterNames.contains("get" + StringUtils.capitalize(field.getName())))
+                    .collect(Collectors.toList());
+            fieldsWithGetters.forEach(field -> field.setAccessible(true));
+
+            return fieldsWithGetters.stream()
+                    .map(field -> {
+                        try {
+                            return field.get(object);
+                        } catch (IllegalAccessException e) {
+                            throw new RuntimeException(e);
+                        }
+                    })
+                    .filter(Objects::nonNull)
+                    .anyMatch(LegacyNullValidator::deepNonNullCheck);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.davita.cwow.patient.spanner.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NullValidatorTest {
+
+    @Test
+    void leavesAndNull() {
+        assertFalse(NullValidator.deepNonNullCheck(null));
+        assertTrue(NullValidator.deepNonNullCheck(""));
+        assertTrue(NullValidator.deepNonNullCheck(0L));
+        assertTrue(NullValidator.deepNonNullCheck(Boolean.FALSE));
+        assertTrue(NullValidator.deepNonNullCheck(LocalDate.of(2020, 1, 1)));
+        assertTrue(NullValidator.deepNonNullCheck(UUID.randomUUID()));
+    }
+
+    @Test
+    void objectWithOnlyNullFieldsIsEmpty() {
+        assertFalse(NullValidator.deepNonNullCheck(new Aggregate()));
+    }
+
+    @Test
+    void nestedLeafIsFound() {
+        Aggregate aggregate = new Aggregate();
+        Line line = new Line();
+        line.code = "A1";
+        aggregate.lines = Arrays.asList(new Line(), line);
+
+        assertTrue(NullValidator.deepNonNullCheck(aggregate));
+    }
+
+    @Test
+    void collectionsAndMapsOfEmptyObjectsAreEmpty() {
+        Aggregate aggregate = new Aggregate();
+        aggregate.lines = Arrays.asList(new Line(), new Line());
+        Map<String, Line> attributes = new HashMap<>();
+        attributes.put("first", new Line());
+        aggregate.attributes = attributes;
+
+        assertFalse(NullValidator.deepNonNullCheck(aggregate));
+        assertFalse(NullValidator.deepNonNullCheck(Collections.emptyList()));
+        assertFalse(NullValidator.deepNonNullCheck(Collections.singletonMap("key", null)));
+    }
+
+    @Test
+    void fieldsWithoutGetterAreIgnored() {
+        Aggregate aggregate = new Aggregate();
+        aggregate.internalNote = "not exposed";
+
+        assertFalse(NullValidator.deepNonNullCheck(aggregate));
+    }
+
+    @Test
+    void inheritedFieldsAreChecked() {
+        ExtendedAggregate aggregate = new ExtendedAggregate();
+        aggregate.name = "parent field";
+
+        assertTrue(NullValidator.deepNonNullCheck(aggregate));
+        assertFalse(NullValidator.deepNonNullCheck(new ExtendedAggregate()));
+    }
+
+    @Test
+    void staticFieldsWithGetterAreChecked() {
+        assertTrue(NullValidator.deepNonNullCheck(new WithConstant()));
+    }
+
+    @Test
+    void cyclicGraphTerminates() {
+        Node first = new Node();
+        Node second = new Node();
+        first.next = second;
+        second.next = first;
+
+        assertFalse(NullValidator.deepNonNullCheck(first));
+
+        second.value = "leaf";
+        assertTrue(NullValidator.deepNonNullCheck(first));
+    }
+
+    @Test
+    void largeCollectionsAreCheckedCompletely() {
+        List<Line> lines = new ArrayList<>();
+        for (int i = 0; i < NullValidator.PARALLEL_THRESHOLD * 8; i++) {
+            lines.add(new Line());
+        }
+        Aggregate aggregate = new Aggregate();
+        aggregate.lines = lines;
+
+        assertFalse(NullValidator.deepNonNullCheck(aggregate));
+
+        lines.get(lines.size() - 1).code = "last";
+        assertTrue(NullValidator.deepNonNullCheck(aggregate));
+    }
+
+    @Test
+    void largeCollectionContainingItselfTerminates() {
+        List<Object> elements = new ArrayList<>();
+        for (int i = 0; i < NullValidator.PARALLEL_THRESHOLD; i++) {
+            elements.add(new Line());
+        }
+        elements.add(elements);
+
+        assertFalse(NullValidator.deepNonNullCheck(elements));
+    }
+
+    static class Aggregate {
+        String name;
+        List<Line> lines;
+        Map<String, Line> attributes;
+        String internalNote;
+
+        public String getName() {
+            return name;
+        }
+
+        public List<Line> getLines() {
+            return lines;
+        }
+
+        public Map<String, Line> getAttributes() {
+            return attributes;
+        }
+    }
+
+    static class ExtendedAggregate extends Aggregate {
+        Integer version;
+
+        public Integer getVersion() {
+            return version;
+        }
+    }
+
+    static class Line {
+        String code;
+
+        public String getCode() {
+            return code;
+        }
+    }
+
+    static class Node {
+        String value;
+        Node next;
+
+        public String getValue() {
+            return value;
+        }
+
+        public Node getNext() {
+            return next;
+        }
+    }
+
+    static class WithConstant {
+        static final String TYPE = "constant";
+
+        public String getTYPE() {
+            return TYPE;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.davita.cwow.patient.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the patient benchmarks with the GC profiler attached, so each result carries throughput together with
+ * {@code gc.alloc.rate.norm} (bytes allocated per operation), and writes them to {@code jmh-result.json} for
+ * comparison between builds. Regular JMH command line options (e.g. a benchmark regex) are honoured.
+ */
+public final class PatientBenchmarkRunner {
+
+    private PatientBenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-result.json");
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(PatientBenchmarkRunner.class.getPackage().getName() + ".*");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,49 @@
+package com.davita.cwow.patient.service;
+
+import com.davita.cwow.patient.service.api.config.PatientProfileProperties;
+import com.davita.cwow.patient.service.model.dto.EntityInfo;
+import com.davita.cwow.patient.service.util.BoundedTtlCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Short-lived per-mpi cache of the ES pillar entity info. Its entry versions let the profile ETag be answered without
+ * an ES round trip.
+ */
+@Component
+public class PatientPillarCache {
+
+    static final String CACHE_NAME = "es.pillars";
+
+    private final BoundedTtlCache<String, EntityInfo> cache;
+
+    public PatientPillarCache(PatientProfileProperties properties, MeterRegistry meterRegistry) {
+        PatientProfileProperties.Cache settings = properties.getPillarCache();
+        this.cache = new BoundedTtlCache<>(CACHE_NAME, settings.getMaximumSize(), settings.getTtl(),
+                Duration.ofMillis(properties.getTimeouts().getPillarsMs()));
+        this.cache.bindTo(meterRegistry);
+    }
+
+    public <E extends Exception> EntityInfo get(String masterPatientIdentifier,
+            BoundedTtlCache.Loader<EntityInfo, E> loader) throws E {
+        return cache.get(masterPatientIdentifier, loader);
+    }
+
+    public <E extends Exception> BoundedTtlCache.Versioned<EntityInfo> getVersioned(String masterPatientIdentifier,
+            BoundedTtlCache.Loader<EntityInfo, E> loader) throws E {
+        return cache.getVersioned(masterPatientIdentifier, loader);
+    }
+
+    /**
+     * Version of the cached entry, {@code null} when the mpi is not cached.
+     */
+    public String getVersion(String masterPatientIdentifier) {
+        return cache.getVersion(masterPatientIdentifier);
+    }
+
+    public void invalidate(String masterPatientIdentifier) {
+        cache.invalidate(masterPatientIdentifier);
+    }
+}
@@ -0,0 +1,45 @@
+package com.davita.cwow.patient.service;
+
+import com.davita.cwow.patient.service.model.dto.PatientProfileDto;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Patient profile together with the sources that did not answer in time and the sources that were served from their
+ * last known data because the live source was unavailable, and the ETag of the source versions it was built from.
+ */
+@Getter
+@AllArgsConstructor
+public class PatientProfileAssembly {
+
+    private final PatientProfileDto profile;
+
+    private final Set<PatientProfileSource> missingSources;
+
+    private final Set<PatientProfileSource> staleSources;
+
+    /**
+     * Weak ETag of the profile, {@code null} when it is degraded or its source versions are unknown.
+     */
+    private final String eTag;
+
+    public PatientProfileAssembly(PatientProfileDto profile, Set<PatientProfileSource> missingSources) {
+        this(profile, missingSources, EnumSet.noneOf(PatientProfileSource.class));
+    }
+
+    public PatientProfileAssembly(PatientProfileDto profile, Set<PatientProfileSource> missingSources,
+            Set<PatientProfileSource> staleSources) {
+        this(profile, missingSources, staleSources, null);
+    }
+
+    public boolean isPartial() {
+        return !missingSources.isEmpty();
+    }
+
+    public boolean isDegraded() {
+        return isPartial() || !staleSources.isEmpty();
+    }
+}
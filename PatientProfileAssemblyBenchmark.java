@@ -0,0 +1,220 @@
+package com.davita.cwow.patient.benchmark;
+
+import com.davita.cwow.patient.service.DenodoCoverageCache;
+import com.davita.cwow.patient.service.LastKnownProfileSources;
+import com.davita.cwow.patient.service.PatientPillarCache;
+import com.davita.cwow.patient.service.PatientProfileProjectionStore;
+import com.davita.cwow.patient.service.PatientProfileQueryService;
+import com.davita.cwow.patient.service.api.config.ApplicationConfiguration;
+import com.davita.cwow.patient.service.api.config.DependencyMetricsProperties;
+import com.davita.cwow.patient.service.api.config.PatientProfileDependencyConfiguration;
+import com.davita.cwow.patient.service.api.config.PatientProfileExecutorConfiguration;
+import com.davita.cwow.patient.service.api.config.PatientProfileProperties;
+import com.davita.cwow.patient.service.metrics.DependencyMetrics;
+import com.davita.cwow.patient.service.model.Patient;
+import com.davita.cwow.patient.service.model.dto.PatientProfileDto;
+import com.davita.cwow.patient.service.model.dto.PatientResponse;
+import com.davita.cwow.patient.service.model.dto.PhoneEntity;
+import com.davita.cwow.patient.service.repository.SrPatientRepository;
+import com.davita.cwow.patient.service.repository.SrPatientStatusRepository;
+import com.davita.cwow.patient.service.util.ElasticSearchUtil;
+import com.davita.cwow.patient.service.util.PatientQueryTestUtil;
+import com.davita.cwow.patient.spanner.enricher.UserEnteredBaseAggregateEnricher;
+import com.davita.cwow.patient.spanner.enricher.UserEnteredBaseDomainEnricher;
+import com.davita.cwow.patient.spanner.model.SrPatient;
+import com.davita.cwow.patient.spanner.model.SrPatientLanguage;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrPatientConverter;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrPatientStatusConverter;
+import com.davita.cwow.patient.spanner.model.status.SrPatientStatus;
+import com.davita.cwow.patient.spanner.service.PatientMpiService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.util.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Profile assembly in {@link PatientProfileQueryService} against in-memory repositories, ES and Denodo. The service,
+ * its executors, guards, caches and single flight are wired by a Spring context from the production configuration
+ * classes, so the benchmark runs the same bean graph as the application. With
+ * {@code cachedSources=false} the coverage and pillar caches expire immediately, so every assembly also parses the
+ * Denodo response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PatientProfileAssemblyBenchmark {
+
+    private static final String MPI = "1740099";
+    private static final int DENODO_ELEMENTS = 20;
+
+    @Param({"true", "false"})
+    private boolean cachedSources;
+
+    private PatientProfileQueryService service;
+    private AnnotationConfigApplicationContext context;
+    private SrPatientConverter patientConverter;
+    private SrPatient srPatient;
+    private List<PhoneEntity> phoneEntities;
+    private MethodHandle fillContacts;
+    private MethodHandle fillPatientLanguages;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        PatientProfileProperties properties = new PatientProfileProperties();
+        if (!cachedSources) {
+            properties.getCoverageCache().setTtl(Duration.ZERO);
+            properties.getPillarCache().setTtl(Duration.ZERO);
+        }
+        srPatient = prepareSrPatient();
+        Timestamp lastChange = Timestamp.valueOf(LocalDateTime.of(2018, Month.APRIL, 10, 10, 10, 10));
+        SrPatientStatus status = SrPatientStatus.builder()
+                .masterPatientIdentifier(MPI)
+                .createDateTimeGmt(lastChange)
+                .patientStatusCodeId("code id-1")
+                .facilityNumber("03436")
+                .build();
+        Map<String, Function<Object[], Object>> patientQueries = new HashMap<>();
+        patientQueries.put("findByMasterPatientIdentifier", args -> Optional.of(srPatient));
+        patientQueries.put("findLastChangeDateTimeGmtByMasterPatientIdentifier", args -> Optional.of(lastChange));
+        Map<String, Function<Object[], Object>> statusQueries = new HashMap<>();
+        statusQueries.put("findLatestActiveByMasterPatientIdentifier", args -> Optional.of(status));
+        statusQueries.put("findLastChangeDateTimeGmtByMasterPatientIdentifier", args -> Optional.of(lastChange));
+
+        PatientResponse pillars = PatientQueryTestUtil.getObjectMapper().readValue(
+                PatientQueryTestUtil.readFile("DvaPatientMasterPillars.json"), PatientResponse.class);
+        phoneEntities = pillars.getPatientInformation().getEntityInfo().getUsestelephone();
+        ElasticSearchUtil esutil = BenchmarkStandIns.stub(ElasticSearchUtil.class);
+        when(esutil.getDvaPatientFromPillars(MPI)).thenReturn(pillars);
+        ApplicationConfiguration appConfig = BenchmarkStandIns.stub(ApplicationConfiguration.class);
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo/i_coverageall?patient_id={mpi}");
+
+        patientConverter = new SrPatientConverter(BenchmarkStandIns.stub(UserEnteredBaseDomainEnricher.class));
+        context = new AnnotationConfigApplicationContext();
+        ConfigurableListableBeanFactory beans = context.getBeanFactory();
+        beans.registerSingleton("patientProfileProperties", properties);
+        beans.registerSingleton("dependencyMetricsProperties", new DependencyMetricsProperties());
+        beans.registerSingleton("meterRegistry", new SimpleMeterRegistry());
+        beans.registerSingleton("patientRepository",
+                BenchmarkStandIns.repository(SrPatientRepository.class, patientQueries));
+        beans.registerSingleton("patientStatusRepository",
+                BenchmarkStandIns.repository(SrPatientStatusRepository.class, statusQueries));
+        beans.registerSingleton("patientStatusConverter", new SrPatientStatusConverter(
+                BenchmarkStandIns.stub(UserEnteredBaseAggregateEnricher.class),
+                BenchmarkStandIns.stub(PatientMpiService.class)));
+        beans.registerSingleton("patientConverter", patientConverter);
+        beans.registerSingleton("restTemplate", BenchmarkStandIns.restTemplate(denodoPayload()));
+        beans.registerSingleton("appConfig", appConfig);
+        beans.registerSingleton("esutil", esutil);
+        context.register(PatientProfileExecutorConfiguration.class, PatientProfileDependencyConfiguration.class,
+                DenodoCoverageCache.class, PatientPillarCache.class, PatientProfileProjectionStore.class,
+                DependencyMetrics.class, LastKnownProfileSources.class, PatientProfileQueryService.class);
+        context.refresh();
+        service = context.getBean(PatientProfileQueryService.class);
+
+        fillContacts = privateMethod("fillContacts", PatientProfileDto.class, Patient.class, List.class);
+        fillPatientLanguages = privateMethod("fillPatientLanguages", PatientProfileDto.class, Patient.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public PatientProfileDto getPatientProfileDetails() throws Exception {
+        return service.getPatientProfileDetails(MPI);
+    }
+
+    @Benchmark
+    public PatientProfileDto fillContacts() throws Throwable {
+        PatientProfileDto profileDto = new PatientProfileDto();
+        fillContacts.invoke(service, profileDto, new Patient(), phoneEntities);
+        return profileDto;
+    }
+
+    @Benchmark
+    public PatientProfileDto fillPatientLanguages() throws Throwable {
+        PatientProfileDto profileDto = new PatientProfileDto();
+        fillPatientLanguages.invoke(service, profileDto, patientConverter.convertWithContext(srPatient));
+        return profileDto;
+    }
+
+    private static MethodHandle privateMethod(String name, Class<?>... parameterTypes) throws Exception {
+        Method method = PatientProfileQueryService.class.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method);
+    }
+
+    private static SrPatient prepareSrPatient() {
+        return SrPatient.builder()
+                .masterPatientIdentifier(MPI)
+                .firstName("firstName")
+                .middleName("middleName")
+                .lastName("familyName")
+                .gender("administrative gender")
+                .ethnicity("ethnicity")
+                .dateOfBirth(Timestamp.valueOf(LocalDateTime.of(1950, Month.MAY, 16, 20, 20, 20)))
+                .patientLanguages(Lists.newArrayList(
+                        SrPatientLanguage.builder()
+                                .patientLanguageId(UUID.randomUUID())
+                                .translatorNeededFlag(true)
+                                .languageTypeRecordNo(528)
+                                .build(),
+                        SrPatientLanguage.builder()
+                                .patientLanguageId(UUID.randomUUID())
+                                .translatorNeededFlag(true)
+                                .languageTypeRecordNo(529)
+                                .build()))
+                .patientStatuses(Collections.emptyList())
+                .patientContacts(Collections.emptyList())
+                .build();
+    }
+
+    private static byte[] denodoPayload() {
+        StringBuilder json = new StringBuilder("{\"name\":\"i_coverageall\",\"elements\":[");
+        for (int i = 0; i < DENODO_ELEMENTS; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"coverage_effective_start_date\":\"").append(2000 + i).append("-07-01T04:00:00+0000\",")
+                    .append("\"coverage_effective_end_date\":\"").append(2001 + i).append("-07-01T04:00:00+0000\",")
+                    .append("\"insurance_bundle_ind\":\"").append(i % 2 == 0 ? "Y" : "N").append("\"}");
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,72 @@
+package com.davita.cwow.patient.service.api.query;
+
+import com.davita.cwow.patient.service.PatientProfileAssembly;
+import com.davita.cwow.patient.service.PatientProfileQueryService;
+import com.davita.cwow.patient.service.PatientProfileSource;
+import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
+import com.davita.cwow.patient.service.model.dto.PatientProfileDto;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/v2/patients/profiles")
+@Api(value = "/v2/patients/profiles", tags = { "05 - Patient profile"})
+public class PatientProfileBatchQueryController {
+
+		@Autowired
+		private PatientProfileQueryService patientProfileQueryService;
+
+		@ApiOperation(value = "Get Patient Profile data for several mpis in one request", notes = "Returns Patient Profile information keyed by mpi, in request order", response = Map.class)
+		@PostMapping(consumes = MediaType.APPLICATION_JSON_UTF8_VALUE, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+		@ApiResponses(value = { @ApiResponse(code = 200, message = "Success", response = Map.class),
+				@ApiResponse(code = 400, message = "Too many mpis requested", response = PatientQueryApiException.class),
+				@ApiResponse(code = 401, message = "Unauthorized"),
+				@ApiResponse(code = 500, message = "Internal Server Error", response = PatientQueryApiException.class) })
+		public ResponseEntity<Map<String, PatientProfileDto>> getPatientProfiles(
+				@ApiParam(value = "Master Patient Identifiers - For eg: [\"1740099\", \"1740100\"]", required = true) @RequestBody List<String> mpis,
+				@RequestHeader(value = "facilityId") String facilityId) throws PatientQueryApiException {
+			Map<String, PatientProfileAssembly> assemblies = patientProfileQueryService.assemblePatientProfiles(mpis);
+
+			Map<String, PatientProfileDto> profiles = new LinkedHashMap<>();
+			Set<PatientProfileSource> missingSources = EnumSet.noneOf(PatientProfileSource.class);
+			Set<PatientProfileSource> staleSources = EnumSet.noneOf(PatientProfileSource.class);
+			assemblies.forEach((mpi, assembly) -> {
+				profiles.put(mpi, assembly.getProfile());
+				missingSources.addAll(assembly.getMissingSources());
+				staleSources.addAll(assembly.getStaleSources());
+			});
+
+			ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+			if (!missingSources.isEmpty()) {
+				response.header(PatientProfileQueryController.PARTIAL_SOURCES_HEADER, missingSources.stream()
+						.map(Enum::name)
+						.collect(Collectors.joining(",")));
+			}
+			if (!staleSources.isEmpty()) {
+				response.header(PatientProfileQueryController.STALE_SOURCES_HEADER, staleSources.stream()
+						.map(Enum::name)
+						.collect(Collectors.joining(",")));
+			}
+			if (!missingSources.isEmpty() || !staleSources.isEmpty()) {
+				response.header(PatientProfileQueryController.DEGRADED_HEADER, Boolean.TRUE.toString());
+			}
+			return response.body(profiles);
+		}
+}
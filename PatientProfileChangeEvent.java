@@ -0,0 +1,19 @@
+package com.davita.cwow.patient.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Signals that one source of a patient's profile changed. Published on the application event bus, which stands in
+ * for the patient, status and coverage change feeds.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class PatientProfileChangeEvent {
+
+    private final String masterPatientIdentifier;
+
+    private final PatientProfileSource source;
+}
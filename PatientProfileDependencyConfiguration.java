@@ -0,0 +1,88 @@
+package com.davita.cwow.patient.service.api.config;
+
+import com.davita.cwow.patient.service.PatientProfileSources;
+import com.davita.cwow.patient.service.metrics.RequestMetricsContext;
+import com.davita.cwow.patient.service.util.DependencyGuard;
+import com.davita.cwow.patient.service.util.RequestHedger;
+import com.davita.cwow.patient.service.util.SingleFlight;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class PatientProfileDependencyConfiguration {
+
+    public static final String DENODO_GUARD = "denodoGuard";
+
+    public static final String PILLARS_GUARD = "pillarsGuard";
+
+    public static final String PILLARS_HEDGE_EXECUTOR = "pillarsHedgeExecutor";
+
+    public static final String PILLARS_HEDGER = "pillarsHedger";
+
+    public static final String PATIENT_PROFILE_SINGLE_FLIGHT = "patientProfileSingleFlight";
+
+    /**
+     * Bounds the profile threads that can be stuck on Denodo, so a slow Denodo cannot take the whole executor and
+     * the servlet threads running its overflow with it.
+     */
+    @Bean(name = DENODO_GUARD)
+    public DependencyGuard denodoGuard(PatientProfileProperties properties, MeterRegistry meterRegistry) {
+        return guard("denodo", properties.getDenodoGuard(), meterRegistry);
+    }
+
+    @Bean(name = PILLARS_GUARD)
+    public DependencyGuard pillarsGuard(PatientProfileProperties properties, MeterRegistry meterRegistry) {
+        return guard("es.pillars", properties.getPillarsGuard(), meterRegistry);
+    }
+
+    /**
+     * Runs the hedged ES pillar lookups. There is no queue: when every thread is busy the executor rejects the task,
+     * so a hedge is skipped rather than run on the calling thread, which is still waiting for the primary request.
+     */
+    @Bean(name = PILLARS_HEDGE_EXECUTOR)
+    public ThreadPoolTaskExecutor pillarsHedgeExecutor(PatientProfileProperties properties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(properties.getPillarsHedge().getExecutorThreads());
+        executor.setMaxPoolSize(properties.getPillarsHedge().getExecutorThreads());
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("pillars-hedge-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setTaskDecorator(RequestMetricsContext.TASK_DECORATOR);
+        return executor;
+    }
+
+    @Bean(name = PILLARS_HEDGER)
+    public RequestHedger pillarsHedger(PatientProfileProperties properties,
+            @Qualifier(PILLARS_HEDGE_EXECUTOR) ThreadPoolTaskExecutor executor, MeterRegistry meterRegistry) {
+        PatientProfileProperties.Hedge settings = properties.getPillarsHedge();
+        RequestHedger hedger = new RequestHedger("es.pillars", settings.isEnabled(), executor,
+                settings.getPercentile(), settings.getMinDelay(), settings.getMaxDelay(), settings.getMinSamples(),
+                settings.getMaxExtraLoad());
+        hedger.bindTo(meterRegistry);
+        return hedger;
+    }
+
+    /**
+     * Lets concurrent reads of the same patient's profile share one read of its sources, so a burst of workstations
+     * opening the same patient costs one set of spanner, Denodo and ES lookups. Each caller builds its own profile.
+     */
+    @Bean(name = PATIENT_PROFILE_SINGLE_FLIGHT)
+    public SingleFlight<String, PatientProfileSources> patientProfileSingleFlight(MeterRegistry meterRegistry) {
+        SingleFlight<String, PatientProfileSources> singleFlight = new SingleFlight<>("patient.profile");
+        singleFlight.bindTo(meterRegistry);
+        return singleFlight;
+    }
+
+    private static DependencyGuard guard(String name, PatientProfileProperties.Guard settings,
+            MeterRegistry meterRegistry) {
+        DependencyGuard guard = new DependencyGuard(name, settings.getMaxConcurrentCalls(),
+                settings.getFailureThreshold(), settings.getOpenDuration(), settings.getSlowCallDuration());
+        guard.bindTo(meterRegistry);
+        return guard;
+    }
+}
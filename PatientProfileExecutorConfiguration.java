@@ -0,0 +1,47 @@
+package com.davita.cwow.patient.service.api.config;
+
+import com.davita.cwow.patient.service.metrics.RequestMetricsContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class PatientProfileExecutorConfiguration {
+
+    public static final String PATIENT_PROFILE_EXECUTOR = "patientProfileExecutor";
+
+    public static final String PATIENT_PROFILE_BATCH_EXECUTOR = "patientProfileBatchExecutor";
+
+    /**
+     * Bounded pool used to fan out the profile source lookups. When the pool and its queue are full
+     * the lookup is rejected rather than run on the request thread, and the profile reports the source
+     * like one that missed its deadline: missing, or served from its last known value.
+     */
+    @Bean(name = PATIENT_PROFILE_EXECUTOR)
+    public ThreadPoolTaskExecutor patientProfileExecutor(PatientProfileProperties properties) {
+        return executor(properties.getExecutor(), "patient-profile-");
+    }
+
+    /**
+     * Separate pool for the lookups of batch profile reads, so the fan-out of a large batch queues behind other
+     * batches instead of the single profile reads.
+     */
+    @Bean(name = PATIENT_PROFILE_BATCH_EXECUTOR)
+    public ThreadPoolTaskExecutor patientProfileBatchExecutor(PatientProfileProperties properties) {
+        return executor(properties.getBatch().getExecutor(), "patient-profile-batch-");
+    }
+
+    private static ThreadPoolTaskExecutor executor(PatientProfileProperties.Executor settings,
+            String threadNamePrefix) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(settings.getCoreSize());
+        executor.setMaxPoolSize(settings.getMaxSize());
+        executor.setQueueCapacity(settings.getQueueCapacity());
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setTaskDecorator(RequestMetricsContext.TASK_DECORATOR);
+        return executor;
+    }
+}
@@ -0,0 +1,162 @@
+package com.davita.cwow.patient.service;
+
+import com.davita.cwow.patient.service.api.config.PatientProfileProperties;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Denormalized patient profiles keyed by mpi, kept current from {@link PatientProfileChangeEvent}s. A projection
+ * holds the sources a profile is built from rather than the profile itself, so every read gets its own profile. A
+ * projection that has not been refreshed within the configured max age is stale and is not served. Every stored or
+ * replaced projection gets a new version, unique across instances.
+ */
+@Component
+public class PatientProfileProjectionStore {
+
+    private final PatientProfileProperties.Projection settings;
+
+    private final Clock clock;
+
+    private final ConcurrentMap<String, Projection> projections = new ConcurrentHashMap<>();
+
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+    private final AtomicLong versions = new AtomicLong();
+
+    /**
+     * Live reads in progress by mpi, guarded by its own lock. A change recorded while a read is in progress
+     * invalidates the read, so its possibly older sources are not stored.
+     */
+    private final Map<String, List<LiveRead>> liveReads = new HashMap<>();
+
+    @Autowired
+    public PatientProfileProjectionStore(PatientProfileProperties properties) {
+        this(properties, Clock.systemUTC());
+    }
+
+    PatientProfileProjectionStore(PatientProfileProperties properties, Clock clock) {
+        this.settings = properties.getProjection();
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return settings.isEnabled();
+    }
+
+    public Optional<Projection> getFresh(String masterPatientIdentifier) {
+        Projection projection = projections.get(masterPatientIdentifier);
+        if (Objects.isNull(projection)) {
+            return Optional.empty();
+        }
+        if (projection.getRefreshedAt().plus(settings.getMaxAge()).isBefore(clock.instant())) {
+            projections.remove(masterPatientIdentifier, projection);
+            return Optional.empty();
+        }
+        return Optional.of(projection);
+    }
+
+    public void remove(String masterPatientIdentifier) {
+        projections.remove(masterPatientIdentifier);
+    }
+
+    Projection get(String masterPatientIdentifier) {
+        return projections.get(masterPatientIdentifier);
+    }
+
+    /**
+     * Registers a live read of the patient's sources. Must be called before the first source is read and paired
+     * with {@link #endLiveRead(LiveRead)}.
+     */
+    LiveRead beginLiveRead(String masterPatientIdentifier) {
+        LiveRead read = new LiveRead(masterPatientIdentifier);
+        if (isEnabled()) {
+            synchronized (liveReads) {
+                liveReads.computeIfAbsent(masterPatientIdentifier, key -> new ArrayList<>()).add(read);
+            }
+        }
+        return read;
+    }
+
+    void endLiveRead(LiveRead read) {
+        synchronized (liveReads) {
+            List<LiveRead> reads = liveReads.get(read.getMasterPatientIdentifier());
+            if (Objects.nonNull(reads) && reads.remove(read) && reads.isEmpty()) {
+                liveReads.remove(read.getMasterPatientIdentifier());
+            }
+        }
+    }
+
+    /**
+     * Records that a source of the patient changed. Live reads in progress may have read the source before the
+     * change, so none of them is stored afterwards; this holds whether or not a projection exists yet.
+     */
+    void recordChange(String masterPatientIdentifier) {
+        synchronized (liveReads) {
+            List<LiveRead> reads = liveReads.get(masterPatientIdentifier);
+            if (Objects.nonNull(reads)) {
+                reads.forEach(read -> read.invalidated = true);
+            }
+        }
+    }
+
+    /**
+     * Stores the sources of a live read unless a projection already exists or a change was recorded since the read
+     * began; existing projections are only changed by change events. Nothing is stored once the store is full.
+     */
+    void putIfAbsent(LiveRead read, PatientProfileSources sources) {
+        if (!isEnabled() || projections.size() >= settings.getMaximumSize()) {
+            return;
+        }
+        synchronized (liveReads) {
+            if (!read.invalidated) {
+                projections.putIfAbsent(read.getMasterPatientIdentifier(), newProjection(sources));
+            }
+        }
+    }
+
+    /**
+     * Replaces {@code expected} with the refreshed sources. Returns {@code false} when the projection changed
+     * concurrently.
+     */
+    boolean replace(String masterPatientIdentifier, Projection expected, PatientProfileSources sources) {
+        return projections.replace(masterPatientIdentifier, expected, newProjection(sources));
+    }
+
+    private Projection newProjection(PatientProfileSources sources) {
+        return new Projection(sources, clock.instant(), epoch + "." + versions.incrementAndGet());
+    }
+
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class Projection {
+        private final PatientProfileSources sources;
+        private final Instant refreshedAt;
+        private final String version;
+    }
+
+    @Getter
+    static final class LiveRead {
+        private final String masterPatientIdentifier;
+        private boolean invalidated;
+
+        private LiveRead(String masterPatientIdentifier) {
+            this.masterPatientIdentifier = masterPatientIdentifier;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.davita.cwow.patient.service;
+
+import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+
+/**
+ * Applies patient, status, coverage and pillar change events to the projected profiles. Only the changed source is
+ * re-read; patients without a projection are skipped and get one on their next profile read that started after the
+ * change.
+ */
+@Slf4j
+@Component
+public class PatientProfileProjectionUpdater {
+
+    @Autowired
+    private PatientProfileQueryService patientProfileQueryService;
+
+    @Autowired
+    private PatientProfileProjectionStore projectionStore;
+
+    @EventListener
+    public void onPatientProfileChange(PatientProfileChangeEvent event) {
+        String mpi = event.getMasterPatientIdentifier();
+        if (!projectionStore.isEnabled()) {
+            return;
+        }
+        patientProfileQueryService.evictCachedSource(mpi, event.getSource());
+        projectionStore.recordChange(mpi);
+        PatientProfileProjectionStore.Projection current = projectionStore.get(mpi);
+        if (Objects.isNull(current)) {
+            return;
+        }
+        try {
+            PatientProfileSources sources =
+                    patientProfileQueryService.refreshSource(mpi, current.getSources(), event.getSource());
+            if (!projectionStore.replace(mpi, current, sources)) {
+                projectionStore.remove(mpi);
+            }
+        } catch (PatientQueryApiException | RuntimeException exception) {
+            log.warn("Could not apply {} to the profile projection, falling back to live assembly", event, exception);
+            projectionStore.remove(mpi);
+        }
+    }
+}
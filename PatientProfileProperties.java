@@ -0,0 +1,122 @@
+package com.davita.cwow.patient.service.api.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Tuning for the patient profile read path.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "patient.profile")
+public class PatientProfileProperties {
+
+    private Timeouts timeouts = new Timeouts();
+
+    private Executor executor = new Executor();
+
+    private Cache coverageCache = new Cache(50_000, Duration.ofHours(12));
+
+    private Cache pillarCache = new Cache(50_000, Duration.ofSeconds(60));
+
+    private Cache lastKnownSources = new Cache(100_000, Duration.ofHours(24));
+
+    private Guard denodoGuard = new Guard();
+
+    private Guard pillarsGuard = new Guard();
+
+    private Hedge pillarsHedge = new Hedge();
+
+    private Batch batch = new Batch();
+
+    private StatusHistory statusHistory = new StatusHistory();
+
+    private Projection projection = new Projection();
+
+    /**
+     * Per-source timeouts in milliseconds, measured from the moment the profile lookups are started.
+     */
+    @Data
+    public static class Timeouts {
+        private long patientMs = 2000;
+        private long statusMs = 2000;
+        private long coverageMs = 3000;
+        private long pillarsMs = 3000;
+    }
+
+    @Data
+    public static class Executor {
+        private int coreSize = 16;
+        private int maxSize = 32;
+        private int queueCapacity = 200;
+    }
+
+    /**
+     * Batch profile reads run on their own pool, so a large batch cannot starve single profile reads.
+     */
+    @Data
+    public static class Batch {
+        private int maxSize = 200;
+        /**
+         * Denodo lookups one batch runs at a time; kept below the Denodo guard's bulkhead, so a batch cannot take all
+         * of its permits from single profile reads.
+         */
+        private int denodoConcurrency = 8;
+        private Executor executor = new Executor();
+    }
+
+    @Data
+    public static class StatusHistory {
+        private int maxPageSize = 500;
+        private int streamChunkSize = 200;
+    }
+
+    /**
+     * Materialized profile projection; profiles are assembled live on every read when disabled.
+     */
+    @Data
+    public static class Projection {
+        private boolean enabled = false;
+        private int maximumSize = 100_000;
+        private Duration maxAge = Duration.ofMinutes(30);
+    }
+
+    /**
+     * Bulkhead and circuit breaker of a remote profile source; see {@code DependencyGuard}.
+     */
+    @Data
+    public static class Guard {
+        private int maxConcurrentCalls = 20;
+        private int failureThreshold = 5;
+        private Duration openDuration = Duration.ofSeconds(30);
+        private Duration slowCallDuration = Duration.ofSeconds(3);
+    }
+
+    /**
+     * Opt-in hedging of a remote read; see {@code RequestHedger}. {@code maxExtraLoad} is the fraction of calls that
+     * may send a second request.
+     */
+    @Data
+    public static class Hedge {
+        private boolean enabled = false;
+        private double percentile = 0.95;
+        private Duration minDelay = Duration.ofMillis(20);
+        private Duration maxDelay = Duration.ofSeconds(1);
+        private int minSamples = 100;
+        private double maxExtraLoad = 0.05;
+        private int executorThreads = 16;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Cache {
+        private int maximumSize;
+        private Duration ttl;
+    }
+}
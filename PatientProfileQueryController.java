@@ -1,10 +1,14 @@
 package com.davita.cwow.patient.service.api.query;
 
+import com.davita.cwow.patient.service.PatientProfileAssembly;
 import com.davita.cwow.patient.service.PatientProfileQueryService;
 import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
 import com.davita.cwow.patient.service.model.dto.PatientProfileDto;
 import com.davita.cwow.patient.service.model.status.PatientStatus;
+import com.davita.cwow.patient.service.model.status.PatientStatusPage;
 import com.davita.cwow.pillars.model.DvaPatientMaster;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -12,6 +16,8 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -22,25 +28,77 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/v2/patients/{mpi}/profile")
 @Api(value = "/v2/patients/{mpi}/profile", tags = { "05 - Patient profile"})
 public class PatientProfileQueryController {
 
+		/**
+		 * Lists the profile sources that did not answer in time when the returned profile is partial.
+		 */
+		public static final String PARTIAL_SOURCES_HEADER = "X-Profile-Missing-Sources";
+
+		/**
+		 * Lists the profile sources served from their last known data because the live source was unavailable.
+		 */
+		public static final String STALE_SOURCES_HEADER = "X-Profile-Stale-Sources";
+
+		/**
+		 * Present and {@code true} when the profile is partial or built from stale data.
+		 */
+		public static final String DEGRADED_HEADER = "X-Profile-Degraded";
+
+		/**
+		 * Cursor of the next status history page; absent on the last page.
+		 */
+		public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
 		@Autowired
 		private PatientProfileQueryService patientProfileQueryService;
 
+		@Autowired
+		private ObjectMapper objectMapper;
+
 		@ApiOperation(value = "Get Patient Profile data from Reggie present in ES Patient Pillar and phone number in CWOW for the specified mpi", notes = "Returns Patient Profile information from Reggie and CWOW(phone numbers)", response = Map.class)
 		@GetMapping(produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
 		@ApiResponses(value = { @ApiResponse(code = 200, message = "Success", response = PatientProfileDto.class),
+				@ApiResponse(code = 304, message = "Not Modified since the profile version in If-None-Match"),
 				@ApiResponse(code = 401, message = "Unauthorized"),
 				@ApiResponse(code = 500, message = "Internal Server Error", response = PatientQueryApiException.class) })
 		public ResponseEntity<PatientProfileDto> getPatientProfile(
 				@ApiParam(value = "Master Patient Identifier - For eg: 1740099", required = true) @PathVariable String mpi,
-				@RequestHeader(value = "facilityId") String facilityId) throws PatientQueryApiException {
-			return ResponseEntity.ok(patientProfileQueryService.getPatientProfileDetails(mpi));
+				@RequestHeader(value = "facilityId") String facilityId,
+				WebRequest webRequest) throws PatientQueryApiException {
+			String currentETag = patientProfileQueryService.getPatientProfileETag(mpi);
+			if (Objects.nonNull(currentETag) && webRequest.checkNotModified(currentETag)) {
+				return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(currentETag).build();
+			}
+
+			PatientProfileAssembly assembly = patientProfileQueryService.assemblePatientProfile(mpi);
+
+			ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+			if (assembly.isPartial()) {
+				response.header(PARTIAL_SOURCES_HEADER, assembly.getMissingSources().stream()
+						.map(Enum::name)
+						.collect(Collectors.joining(",")));
+			}
+			if (!assembly.getStaleSources().isEmpty()) {
+				response.header(STALE_SOURCES_HEADER, assembly.getStaleSources().stream()
+						.map(Enum::name)
+						.collect(Collectors.joining(",")));
+			}
+			if (assembly.isDegraded()) {
+				response.header(DEGRADED_HEADER, Boolean.TRUE.toString());
+			}
+			if (Objects.nonNull(assembly.getETag())) {
+				response.eTag(assembly.getETag());
+			}
+			return response.body(assembly.getProfile());
 		}
 		
 		@ApiOperation(value = "Get Patient Status History from source", notes = "Returns Patient Status History", response = PatientStatus.class, responseContainer="List")
@@ -50,8 +108,36 @@ public class PatientProfileQueryController {
 				@ApiResponse(code = 500, message = "Internal Server Error", response = PatientQueryApiException.class) })
 		public ResponseEntity<List<PatientStatus>> getPatientProfileStatusHistory(
 				@ApiParam(value = "Master Patient Identifier - For eg: 1740099", required = true) @PathVariable String mpi,
-				@RequestHeader(value = "facilityId") String facilityId) throws PatientQueryApiException {
-			return ResponseEntity.ok(patientProfileQueryService.getPatientProfileStatusHistory(mpi, facilityId));		
+				@RequestHeader(value = "facilityId") String facilityId,
+				@ApiParam(value = "Maximum number of statuses to return, newest first. The whole history is returned when omitted") @RequestParam(value = "pageSize", required = false) Integer pageSize,
+				@ApiParam(value = "Value of the " + NEXT_CURSOR_HEADER + " header of the previous page") @RequestParam(value = "cursor", required = false) String cursor) throws PatientQueryApiException {
+			if (Objects.isNull(pageSize)) {
+				return ResponseEntity.ok(patientProfileQueryService.getPatientProfileStatusHistory(mpi, facilityId));
+			}
+			PatientStatusPage page = patientProfileQueryService.getPatientProfileStatusHistoryPage(mpi, facilityId, cursor, pageSize);
+			ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+			if (Objects.nonNull(page.getNextCursor())) {
+				response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+			}
+			return response.body(page.getStatuses());
+		}
+
+		@ApiOperation(value = "Stream Patient Status History from source", notes = "Writes the Patient Status History as a JSON array while it is read from source", response = PatientStatus.class, responseContainer="List")
+		@GetMapping(path = "/status", params = "stream=true", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+		@ApiResponses(value = { @ApiResponse(code = 200, message = "Success", response = PatientStatus.class, responseContainer="List"),
+				@ApiResponse(code = 401, message = "Unauthorized"),
+				@ApiResponse(code = 500, message = "Internal Server Error", response = PatientQueryApiException.class) })
+		public ResponseEntity<StreamingResponseBody> streamPatientProfileStatusHistory(
+				@ApiParam(value = "Master Patient Identifier - For eg: 1740099", required = true) @PathVariable String mpi,
+				@RequestHeader(value = "facilityId") String facilityId) {
+			StreamingResponseBody body = outputStream -> {
+				try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+					generator.writeStartArray();
+					patientProfileQueryService.streamPatientProfileStatusHistory(mpi, facilityId, generator::writeObject);
+					generator.writeEndArray();
+				}
+			};
+			return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
 		}
 		
 		@ApiOperation(value = "Create DvaPatientMaster Data", notes = "Create DvaPatientMaster Data")
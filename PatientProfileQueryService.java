@@ -2,19 +2,31 @@ package com.davita.cwow.patient.service;
 
 import com.davita.cwow.model.domain.ref.codesets.CodeConceptRefData;
 import com.davita.cwow.patient.service.api.config.ApplicationConfiguration;
+import com.davita.cwow.patient.service.api.config.PatientProfileDependencyConfiguration;
+import com.davita.cwow.patient.service.api.config.PatientProfileExecutorConfiguration;
+import com.davita.cwow.patient.service.api.config.PatientProfileProperties;
 import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
 import com.davita.cwow.patient.service.enums.ContactTypeEnum;
+import com.davita.cwow.patient.service.metrics.DependencyMetrics;
 import com.davita.cwow.patient.service.model.Patient;
+import com.davita.cwow.patient.service.model.coverage.DenodoCoverage;
 import com.davita.cwow.patient.service.model.PatientContact;
 import com.davita.cwow.patient.service.model.dto.AddressEntity;
 import com.davita.cwow.patient.service.model.dto.EntityInfo;
 import com.davita.cwow.patient.service.model.dto.PatientProfileDto;
+import com.davita.cwow.patient.service.model.dto.PatientResponse;
 import com.davita.cwow.patient.service.model.dto.PhoneEntity;
 import com.davita.cwow.patient.service.model.dto.PillarAddress;
 import com.davita.cwow.patient.service.model.status.PatientStatus;
+import com.davita.cwow.patient.service.model.status.PatientStatusPage;
 import com.davita.cwow.patient.service.repository.SrPatientRepository;
 import com.davita.cwow.patient.service.repository.SrPatientStatusRepository;
+import com.davita.cwow.patient.service.util.BoundedTtlCache;
+import com.davita.cwow.patient.service.util.DenodoCoverageParser;
+import com.davita.cwow.patient.service.util.DependencyGuard;
 import com.davita.cwow.patient.service.util.ElasticSearchUtil;
+import com.davita.cwow.patient.service.util.RequestHedger;
+import com.davita.cwow.patient.service.util.SingleFlight;
 import com.davita.cwow.patient.spanner.model.SrPatient;
 import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrPatientConverter;
 import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrPatientStatusConverter;
@@ -23,31 +35,60 @@ import com.davita.cwow.patient.spanner.util.DateTimeUtils;
 import com.davita.cwow.pillars.model.Address;
 import com.davita.cwow.pillars.model.Name;
 import com.davita.cwow.pillars.model.Phone;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.client.RestTemplate;
 
 import javax.transaction.Transactional;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.Period;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static java.util.Objects.isNull;
@@ -81,17 +122,59 @@ public class PatientProfileQueryService {
     @Autowired
     private ElasticSearchUtil esutil;
 
+    @Autowired
+    private PatientProfileProperties profileProperties;
+
+    @Autowired
+    private DenodoCoverageCache coverageCache;
+
+    @Autowired
+    private PatientPillarCache pillarCache;
+
+    @Autowired
+    private PatientProfileProjectionStore projectionStore;
+
+    @Autowired
+    private DependencyMetrics dependencyMetrics;
+
+    @Autowired
+    private LastKnownProfileSources lastKnownSources;
+
+    @Autowired
+    @Qualifier(PatientProfileDependencyConfiguration.DENODO_GUARD)
+    private DependencyGuard denodoGuard;
+
+    @Autowired
+    @Qualifier(PatientProfileDependencyConfiguration.PILLARS_GUARD)
+    private DependencyGuard pillarsGuard;
+
+    @Autowired
+    @Qualifier(PatientProfileDependencyConfiguration.PILLARS_HEDGER)
+    private RequestHedger pillarsHedger;
+
+    @Autowired
+    @Qualifier(PatientProfileDependencyConfiguration.PATIENT_PROFILE_SINGLE_FLIGHT)
+    private SingleFlight<String, PatientProfileSources> profileSingleFlight;
+
+    @Autowired
+    @Qualifier(PatientProfileExecutorConfiguration.PATIENT_PROFILE_EXECUTOR)
+    private Executor patientProfileExecutor;
+
+    @Autowired
+    @Qualifier(PatientProfileExecutorConfiguration.PATIENT_PROFILE_BATCH_EXECUTOR)
+    private Executor patientProfileBatchExecutor;
+
     private static final int PRIMARY_LANG_RECORD_NUMBER = 528;
     private static final int SECONDARY_LANG_RECORD_NUMBER = 529;
-    private static final String DENODO_ELEMENTS = "elements";
-    private static final String DENODO_END_DATE = "coverage_effective_end_date";
-    private static final String DENODO_START_DATE = "coverage_effective_start_date";
-    private static final String DENODO_BUNDLE_FLAG_INDICATOR = "insurance_bundle_ind";
-    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
     private static final String YES = "Yes";
     private static final String NO = "No";
     private static final String FLAG_EXISTS = "Y";
 
+    /**
+     * Version of a spanner source without rows.
+     */
+    private static final String NO_ROWS_VERSION = "none";
+
     static {
         contactMap = new HashMap<>();
         contactMap.put("MOBILE", 0);
@@ -101,12 +184,330 @@ public class PatientProfileQueryService {
 
     @Transactional
     public PatientProfileDto getPatientProfileDetails(String mpi) throws PatientQueryApiException {
+        return assemblePatientProfile(mpi).getProfile();
+    }
+
+    /**
+     * Looks up the spanner patient, its latest status, the Denodo coverage and the ES pillar document
+     * concurrently and joins them into a profile. A source that does not answer within its timeout is left
+     * out of the profile and reported as missing in the returned assembly. Coverage and pillar data that are
+     * unavailable (slow, failing or rejected by their circuit breaker) are replaced by their last known values
+     * when there are any, reported as stale. Concurrent calls for the same mpi share one read of the sources, and each
+     * builds its own profile from them.
+     * <p>
+     * Sharing the read leaves a read-your-writes gap: a caller that joins a read started before its own write to the
+     * patient committed gets the sources as they were before the write. The gap is at most one read long; the next
+     * call starts a fresh read, and a change event arriving meanwhile keeps the older read out of the projection.
+     */
+    public PatientProfileAssembly assemblePatientProfile(String mpi) throws PatientQueryApiException {
+        if (projectionStore.isEnabled()) {
+            Optional<PatientProfileProjectionStore.Projection> projected = projectionStore.getFresh(mpi);
+            if (projected.isPresent()) {
+                return buildProfile(mpi, projected.get().getSources(), projectionETag(mpi, projected.get()));
+            }
+        }
+        PatientProfileSources sources = profileSingleFlight.execute(mpi, () -> readLiveProfileSources(mpi));
+        return buildProfile(mpi, sources, sources.getETag());
+    }
+
+    /**
+     * Weak ETag of the profile {@link #assemblePatientProfile} would return now, answered from source versions
+     * without assembling it: the projection version when a fresh projection is served, otherwise the last change
+     * timestamps of the spanner patient and its statuses together with the versions of the cached coverage and pillar
+     * entries. It equals the ETag of the last assembly while none of those changed. Returns {@code null}, so the
+     * profile is assembled in full, when coverage or pillars are not cached or a timestamp lookup does not answer in
+     * time.
+     */
+    public String getPatientProfileETag(String mpi) {
+        if (projectionStore.isEnabled()) {
+            Optional<PatientProfileProjectionStore.Projection> projected = projectionStore.getFresh(mpi);
+            if (projected.isPresent()) {
+                return projectionETag(mpi, projected.get());
+            }
+        }
+        String coverageVersion = coverageCache.getVersion(mpi);
+        String pillarsVersion = pillarCache.getVersion(mpi);
+        if (isNull(coverageVersion) || isNull(pillarsVersion)) {
+            return null;
+        }
+        PatientProfileProperties.Timeouts timeouts = profileProperties.getTimeouts();
+        long startNanos = System.nanoTime();
+        Future<Optional<Timestamp>> patientChange = submit(patientProfileExecutor,
+                () -> patientRepository.findLastChangeDateTimeGmtByMasterPatientIdentifier(mpi));
+        Future<Optional<Timestamp>> statusChange = submit(patientProfileExecutor,
+                () -> patientStatusRepository.findLastChangeDateTimeGmtByMasterPatientIdentifier(mpi));
+        Set<PatientProfileSource> missingSources = EnumSet.noneOf(PatientProfileSource.class);
+        try {
+            Optional<Timestamp> patientChangedAt = await(patientChange, PatientProfileSource.PATIENT,
+                    startNanos, timeouts.getPatientMs(), missingSources);
+            Optional<Timestamp> statusChangedAt = await(statusChange, PatientProfileSource.STATUS,
+                    startNanos, timeouts.getStatusMs(), missingSources);
+            if (!missingSources.isEmpty()) {
+                return null;
+            }
+            return profileETag(mpi, rowsVersion(patientChangedAt), rowsVersion(statusChangedAt), coverageVersion,
+                    pillarsVersion);
+        } catch (PatientQueryApiException | RuntimeException exception) {
+            log.warn("Could not read the patient profile source versions, assembling the profile in full", exception);
+            return null;
+        } finally {
+            cancelAll(Arrays.asList(patientChange, statusChange));
+        }
+    }
+
+    private PatientProfileSources readLiveProfileSources(String mpi) throws PatientQueryApiException {
+        PatientProfileProperties.Timeouts timeouts = profileProperties.getTimeouts();
+        long startNanos = System.nanoTime();
+        PatientProfileProjectionStore.LiveRead liveRead = projectionStore.beginLiveRead(mpi);
+        SourceVersions versions = new SourceVersions();
+
+        Future<Optional<SrPatient>> patientFuture = submit(patientProfileExecutor, () -> {
+            versions.patient = rowsVersion(patientRepository.findLastChangeDateTimeGmtByMasterPatientIdentifier(mpi));
+            return patientRepository.findByMasterPatientIdentifier(mpi);
+        });
+        Future<Optional<SrPatientStatus>> statusFuture = submit(patientProfileExecutor, () -> {
+            versions.status = rowsVersion(patientStatusRepository.findLastChangeDateTimeGmtByMasterPatientIdentifier(mpi));
+            return findLatestPatientStatus(mpi);
+        });
+        Future<DenodoCoverage> coverageFuture = submit(patientProfileExecutor, () -> {
+            BoundedTtlCache.Versioned<DenodoCoverage> coverage = getVersionedElementsFromDenodo(mpi);
+            versions.coverage = coverage.getVersion();
+            return coverage.getValue();
+        });
+        Future<EntityInfo> pillarsFuture = submit(patientProfileExecutor, () -> {
+            BoundedTtlCache.Versioned<EntityInfo> entityInfo = getVersionedEntityInfoFromPillars(mpi);
+            versions.pillars = entityInfo.getVersion();
+            return entityInfo.getValue();
+        });
+
+        Set<PatientProfileSource> missingSources = EnumSet.noneOf(PatientProfileSource.class);
+        Set<PatientProfileSource> staleSources = EnumSet.noneOf(PatientProfileSource.class);
+        try {
+            Optional<SrPatient> srPatientOpt = await(patientFuture, PatientProfileSource.PATIENT,
+                    startNanos, timeouts.getPatientMs(), missingSources);
+            Optional<SrPatientStatus> statusOpt = await(statusFuture, PatientProfileSource.STATUS,
+                    startNanos, timeouts.getStatusMs(), missingSources);
+            DenodoCoverage coverage = awaitOrLastKnown(coverageFuture, PatientProfileSource.COVERAGE,
+                    startNanos, timeouts.getCoverageMs(), missingSources, staleSources,
+                    () -> lastKnownSources.getCoverage(mpi));
+            EntityInfo entityInfo = awaitOrLastKnown(pillarsFuture, PatientProfileSource.PILLARS,
+                    startNanos, timeouts.getPillarsMs(), missingSources, staleSources,
+                    () -> lastKnownSources.getEntityInfo(mpi));
+            String eTag = missingSources.isEmpty() && staleSources.isEmpty()
+                    ? profileETag(mpi, versions.patient, versions.status, versions.coverage, versions.pillars)
+                    : null;
+            PatientProfileSources sources = new PatientProfileSources(srPatientOpt, statusOpt, coverage, entityInfo,
+                    missingSources, staleSources, eTag);
+            if (!sources.isDegraded()) {
+                projectionStore.putIfAbsent(liveRead, sources);
+            }
+            return sources;
+        } finally {
+            cancelAll(Arrays.asList(patientFuture, statusFuture, coverageFuture, pillarsFuture));
+            projectionStore.endLiveRead(liveRead);
+        }
+    }
+
+    /**
+     * Re-reads the changed source of a projected profile, bypassing the caches, and returns the sources with it
+     * replaced.
+     */
+    PatientProfileSources refreshSource(String mpi, PatientProfileSources sources, PatientProfileSource changed)
+            throws PatientQueryApiException {
+        switch (changed) {
+            case PATIENT:
+                return sources.withPatient(patientRepository.findByMasterPatientIdentifier(mpi));
+            case STATUS:
+                return sources.withStatus(findLatestPatientStatus(mpi));
+            case COVERAGE:
+                evictCachedSource(mpi, changed);
+                return sources.withCoverage(getElementsFromDenodo(mpi));
+            case PILLARS:
+                evictCachedSource(mpi, changed);
+                return sources.withEntityInfo(getEntityInfoFromPillars(mpi));
+            default:
+                throw new IllegalArgumentException("Unknown patient profile source " + changed);
+        }
+    }
+
+    /**
+     * Drops the cached value of a changed source, so the next read of it, live or on refresh, goes to the source.
+     */
+    void evictCachedSource(String mpi, PatientProfileSource changed) {
+        if (changed == PatientProfileSource.COVERAGE) {
+            coverageCache.invalidate(mpi);
+        } else if (changed == PatientProfileSource.PILLARS) {
+            pillarCache.invalidate(mpi);
+        }
+    }
+
+    /**
+     * Builds a new profile from shared sources; the assembly gets its own copies of the missing and stale sources.
+     */
+    PatientProfileAssembly buildProfile(String mpi, PatientProfileSources sources, String eTag) {
+        Set<PatientProfileSource> missingSources = EnumSet.noneOf(PatientProfileSource.class);
+        missingSources.addAll(sources.getMissingSources());
+        Set<PatientProfileSource> staleSources = EnumSet.noneOf(PatientProfileSource.class);
+        staleSources.addAll(sources.getStaleSources());
+        return buildProfile(mpi, sources.getPatient(), sources.getStatus(), sources.getCoverage(),
+                sources.getEntityInfo(), missingSources, staleSources, sources.isDegraded() ? null : eTag);
+    }
+
+    /**
+     * Weak ETag over the versions of a profile's sources, {@code null} when any of them is unknown.
+     */
+    private static String profileETag(String mpi, String... versions) {
+        StringBuilder fingerprint = new StringBuilder(mpi);
+        for (String version : versions) {
+            if (isNull(version)) {
+                return null;
+            }
+            fingerprint.append('|').append(version);
+        }
+        return "W/\"" + DigestUtils.md5DigestAsHex(fingerprint.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    private static String projectionETag(String mpi, PatientProfileProjectionStore.Projection projection) {
+        return profileETag(mpi, "projection", projection.getVersion());
+    }
+
+    private static String rowsVersion(Optional<Timestamp> lastChangeDateTimeGmt) {
+        return lastChangeDateTimeGmt.map(timestamp -> timestamp.toInstant().toString()).orElse(NO_ROWS_VERSION);
+    }
+
+    /**
+     * Assembles profiles for several patients with one multi-key read per source: a single spanner query for the
+     * patients, one for their statuses and one ES multi-get against the pillar index, while the cached Denodo
+     * lookups are drained from a queue by at most {@code batch.denodoConcurrency} workers. Unlike the single patient
+     * read, a Denodo failure only leaves that patient's coverage out of the batch. Unavailable coverage and pillar data
+     * fall back to the last known values as in {@link #assemblePatientProfile(String)}.
+     */
+    public Map<String, PatientProfileAssembly> assemblePatientProfiles(Collection<String> mpis)
+            throws PatientQueryApiException {
+        Set<String> distinctMpis = new LinkedHashSet<>(mpis);
+        int maxSize = profileProperties.getBatch().getMaxSize();
+        if (distinctMpis.size() > maxSize) {
+            throw new PatientQueryApiException(HttpStatus.BAD_REQUEST,
+                    "At most " + maxSize + " patient profiles can be requested at once");
+        }
+        if (distinctMpis.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        PatientProfileProperties.Timeouts timeouts = profileProperties.getTimeouts();
+        long startNanos = System.nanoTime();
+
+        Future<Map<String, SrPatient>> patientsFuture = submit(patientProfileBatchExecutor,
+                () -> patientRepository.findByMasterPatientIdentifierIn(distinctMpis).stream()
+                        .collect(Collectors.toMap(SrPatient::getMasterPatientIdentifier, Function.identity(),
+                                (first, second) -> first)));
+        Future<Map<String, SrPatientStatus>> statusesFuture = submit(patientProfileBatchExecutor,
+                () -> findLatestPatientStatuses(distinctMpis));
+        Future<Map<String, PatientResponse>> pillarsFuture = submit(patientProfileBatchExecutor,
+                () -> pillarsGuard.call(() -> esutil.getDvaPatientsFromPillars(distinctMpis)));
+        Map<String, CompletableFuture<DenodoCoverage>> coverageFutures = new LinkedHashMap<>();
+        distinctMpis.forEach(mpi -> coverageFutures.put(mpi, new CompletableFuture<>()));
+        Queue<String> pendingCoverage = new ConcurrentLinkedQueue<>(distinctMpis);
+        List<Future<?>> lookups = new ArrayList<>(coverageFutures.values());
+        lookups.addAll(Arrays.asList(patientsFuture, statusesFuture, pillarsFuture));
+        int coverageWorkers = Math.min(profileProperties.getBatch().getDenodoConcurrency(), distinctMpis.size());
+        int startedWorkers = 0;
+        for (int worker = 0; worker < coverageWorkers; worker++) {
+            Future<?> coverageWorker = submit(patientProfileBatchExecutor, () -> {
+                drainCoverageLookups(pendingCoverage, coverageFutures);
+                return null;
+            });
+            lookups.add(coverageWorker);
+            if (!isRejected(coverageWorker)) {
+                startedWorkers++;
+            }
+        }
+        if (startedWorkers == 0) {
+            RejectedExecutionException rejected = new RejectedExecutionException("No coverage worker could be started");
+            coverageFutures.values().forEach(coverage -> coverage.completeExceptionally(rejected));
+        }
+        try {
+            Map<String, PatientProfileAssembly> profiles = new LinkedHashMap<>();
+            Set<PatientProfileSource> batchMissingSources = EnumSet.noneOf(PatientProfileSource.class);
+            Map<String, SrPatient> srPatients = await(patientsFuture, PatientProfileSource.PATIENT,
+                    startNanos, timeouts.getPatientMs(), batchMissingSources);
+            Map<String, SrPatientStatus> statuses = await(statusesFuture, PatientProfileSource.STATUS,
+                    startNanos, timeouts.getStatusMs(), batchMissingSources);
+            Map<String, PatientResponse> pillars;
+            try {
+                pillars = await(pillarsFuture, PatientProfileSource.PILLARS,
+                        startNanos, timeouts.getPillarsMs(), batchMissingSources);
+            } catch (DependencyGuard.RejectedException exception) {
+                log.warn("Pillars lookup for the batch was rejected: {}", exception.getMessage());
+                batchMissingSources.add(PatientProfileSource.PILLARS);
+                pillars = null;
+            }
+
+            for (String mpi : distinctMpis) {
+                Set<PatientProfileSource> missingSources = EnumSet.noneOf(PatientProfileSource.class);
+                missingSources.addAll(batchMissingSources);
+                Set<PatientProfileSource> staleSources = EnumSet.noneOf(PatientProfileSource.class);
+                DenodoCoverage coverage;
+                try {
+                    coverage = awaitOrLastKnown(coverageFutures.get(mpi), PatientProfileSource.COVERAGE,
+                            startNanos, timeouts.getCoverageMs(), missingSources, staleSources,
+                            () -> lastKnownSources.getCoverage(mpi));
+                } catch (PatientQueryApiException exception) {
+                    log.warn("Coverage for mpi - {} is left out of the batch: {}", mpi, exception.getMessage());
+                    missingSources.add(PatientProfileSource.COVERAGE);
+                    coverage = null;
+                }
+                Optional<SrPatient> srPatientOpt = isNull(srPatients) ? null : Optional.ofNullable(srPatients.get(mpi));
+                Optional<SrPatientStatus> statusOpt = isNull(statuses) ? null : Optional.ofNullable(statuses.get(mpi));
+                EntityInfo entityInfo;
+                if (nonNull(pillars)) {
+                    entityInfo = Optional.ofNullable(pillars.get(mpi))
+                            .map(patientResponse -> patientResponse.getPatientInformation().getEntityInfo())
+                            .orElse(null);
+                    lastKnownSources.putEntityInfo(mpi, entityInfo);
+                } else {
+                    entityInfo = lastKnownSources.getEntityInfo(mpi);
+                    if (nonNull(entityInfo)) {
+                        missingSources.remove(PatientProfileSource.PILLARS);
+                        staleSources.add(PatientProfileSource.PILLARS);
+                    }
+                }
+                profiles.put(mpi, buildProfile(mpi, srPatientOpt, statusOpt, coverage, entityInfo, missingSources,
+                        staleSources, null));
+            }
+            return profiles;
+        } finally {
+            cancelAll(lookups);
+        }
+    }
+
+    /**
+     * Looks up the coverage of queued mpis one at a time until the queue is empty or the batch is cancelled. Mpis whose
+     * coverage was given up on (its deadline passed) are skipped.
+     */
+    private void drainCoverageLookups(Queue<String> pendingCoverage,
+                                      Map<String, CompletableFuture<DenodoCoverage>> coverageFutures) {
+        String mpi;
+        while (!Thread.currentThread().isInterrupted() && nonNull(mpi = pendingCoverage.poll())) {
+            CompletableFuture<DenodoCoverage> coverage = coverageFutures.get(mpi);
+            if (coverage.isDone()) {
+                continue;
+            }
+            try {
+                coverage.complete(getElementsFromDenodo(mpi));
+            } catch (Exception exception) {
+                coverage.completeExceptionally(exception);
+            }
+        }
+    }
+
+    private PatientProfileAssembly buildProfile(String mpi, Optional<SrPatient> srPatientOpt,
+                                                Optional<SrPatientStatus> statusOpt, DenodoCoverage coverage,
+                                                EntityInfo entityInfo, Set<PatientProfileSource> missingSources,
+                                                Set<PatientProfileSource> staleSources, String eTag) {
         PatientProfileDto profileDto = new PatientProfileDto();
         Patient patient = new Patient();
 
-        Optional<SrPatient> srPatientOpt = patientRepository.findByMasterPatientIdentifier(mpi);
-
-        if (srPatientOpt.isPresent()) {
+        if (nonNull(srPatientOpt) && srPatientOpt.isPresent()) {
             log.info("Spanner patient for mpi - {} exists.", mpi);
             SrPatient srPatient = srPatientOpt.get();
             patient = patientConverter.convertWithContext(srPatient);
@@ -120,16 +521,140 @@ public class PatientProfileQueryService {
             patient.setMasterPatientIdentifier(mpi);
         }
 
-        fillPatientDtoStatus(profileDto, mpi);
-        fillPatientCoverageInformation(profileDto, mpi);
-        EntityInfo entityInfo = esutil.getDvaPatientFromPillars(mpi).getPatientInformation().getEntityInfo();
+        if (nonNull(statusOpt)) {
+            statusOpt.ifPresent(status -> profileDto.setPatientStatus(patientStatusConverter.convertWithContext(status)));
+        }
+        if (nonNull(coverage)) {
+            fillPatientCoverageInformation(profileDto, coverage);
+        }
         if (Objects.nonNull(entityInfo)) {
             fillAddress(profileDto, entityInfo.getIsaddressof());
             fillContacts(profileDto, patient, entityInfo.getUsestelephone());
         }
 
         profileDto.setPatient(patient);
-        return profileDto;
+        return new PatientProfileAssembly(profileDto, missingSources, staleSources, eTag);
+    }
+
+    private EntityInfo getEntityInfoFromPillars(String mpi) {
+        return getVersionedEntityInfoFromPillars(mpi).getValue();
+    }
+
+    private BoundedTtlCache.Versioned<EntityInfo> getVersionedEntityInfoFromPillars(String mpi) {
+        return pillarCache.getVersioned(mpi, () -> {
+            EntityInfo entityInfo = pillarsHedger.call(() -> pillarsGuard.call(() -> esutil.getDvaPatientFromPillars(mpi)))
+                    .getPatientInformation().getEntityInfo();
+            lastKnownSources.putEntityInfo(mpi, entityInfo);
+            return entityInfo;
+        });
+    }
+
+    /**
+     * Starts a source lookup on {@code executor} as a {@link FutureTask}, so that cancelling it interrupts the thread
+     * running it and a lookup that missed its deadline gives its pool thread back. A lookup the saturated pool rejects
+     * is returned as a future failed with the {@link RejectedExecutionException}, which {@link #await} reports like a
+     * missed deadline.
+     */
+    private <T> Future<T> submit(Executor executor, Callable<T> lookup) {
+        FutureTask<T> task = new FutureTask<>(lookup);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException exception) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(exception);
+            return rejected;
+        }
+        return task;
+    }
+
+    /**
+     * Whether {@link #submit} could not start the lookup because its pool was full.
+     */
+    private static boolean isRejected(Future<?> lookup) {
+        return lookup instanceof CompletableFuture && ((CompletableFuture<?>) lookup).isCompletedExceptionally();
+    }
+
+    /**
+     * Cancels the lookups that are still running once the profile is assembled or its assembly failed.
+     */
+    private void cancelAll(Collection<? extends Future<?>> lookups) {
+        lookups.forEach(lookup -> lookup.cancel(true));
+    }
+
+    /**
+     * Waits for a source lookup until its deadline. Returns {@code null} and records the source as missing
+     * when the deadline passes or the lookup was never started because its pool was full; failures of the
+     * lookup itself are rethrown as they were raised.
+     */
+    private <T> T await(Future<T> future, PatientProfileSource source, long startNanos, long timeoutMs,
+                        Set<PatientProfileSource> missingSources) throws PatientQueryApiException {
+        long remainingNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs) - System.nanoTime();
+        try {
+            return future.get(Math.max(remainingNanos, 0L), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException exception) {
+            future.cancel(true);
+            log.warn("{} lookup did not answer within {} ms, returning partial profile", source, timeoutMs);
+            missingSources.add(source);
+            return null;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new PatientQueryApiException("Interrupted while assembling patient profile");
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof RejectedExecutionException) {
+                log.warn("{} lookup was rejected by the saturated profile pool, returning partial profile", source);
+                missingSources.add(source);
+                return null;
+            }
+            if (cause instanceof PatientQueryApiException) {
+                throw (PatientQueryApiException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            log.error("Exception occured while fetching {} for patient profile: ", source, cause);
+            throw new PatientQueryApiException("Exception occured while fetching " + source + " for patient profile");
+        }
+    }
+
+    /**
+     * Waits for a remote source like {@link #await}, but falls back to the source's last known value when the lookup
+     * timed out, failed or was rejected by its guard. The source is then reported as stale instead of missing.
+     * Without a last known value a rejected lookup is reported as missing and other failures are rethrown.
+     */
+    private <T> T awaitOrLastKnown(Future<T> future, PatientProfileSource source, long startNanos,
+                                   long timeoutMs, Set<PatientProfileSource> missingSources,
+                                   Set<PatientProfileSource> staleSources, Supplier<T> lastKnown)
+            throws PatientQueryApiException {
+        Exception failure = null;
+        try {
+            T value = await(future, source, startNanos, timeoutMs, missingSources);
+            if (!missingSources.contains(source)) {
+                return value;
+            }
+        } catch (DependencyGuard.RejectedException exception) {
+            log.warn("{} lookup was rejected: {}", source, exception.getMessage());
+            missingSources.add(source);
+        } catch (PatientQueryApiException | RuntimeException exception) {
+            failure = exception;
+        }
+        T lastKnownValue = lastKnown.get();
+        if (nonNull(lastKnownValue)) {
+            log.warn("{} is served from last known data", source);
+            missingSources.remove(source);
+            staleSources.add(source);
+            return lastKnownValue;
+        }
+        if (failure instanceof PatientQueryApiException) {
+            throw (PatientQueryApiException) failure;
+        }
+        if (nonNull(failure)) {
+            throw (RuntimeException) failure;
+        }
+        return null;
     }
 
     private void setAddress(AddressEntity addressEntity, List<Address> addressList) {
@@ -187,13 +712,14 @@ public class PatientProfileQueryService {
         dto.setSortedContactList(sortedPatientContactList);
     }
 
-    private void fillPatientDtoStatus(PatientProfileDto profileDto, String mpi) {
-        patientStatusRepository.findByMasterPatientIdentifier(mpi).stream()
-                .filter(ps -> isNull(ps.getDeleteDateTimeGmt()))
-                .max(Comparator.comparing(SrPatientStatus::getCreateDateTimeGmt))
-                .ifPresent(status -> {
-                    profileDto.setPatientStatus(patientStatusConverter.convertWithContext(status));
-                });
+    private Optional<SrPatientStatus> findLatestPatientStatus(String mpi) {
+        return patientStatusRepository.findLatestActiveByMasterPatientIdentifier(mpi);
+    }
+
+    private Map<String, SrPatientStatus> findLatestPatientStatuses(Collection<String> mpis) {
+        return patientStatusRepository.findLatestActiveByMasterPatientIdentifierIn(mpis).stream()
+                .collect(Collectors.toMap(SrPatientStatus::getMasterPatientIdentifier, Function.identity(),
+                        BinaryOperator.maxBy(Comparator.comparing(SrPatientStatus::getCreateDateTimeGmt))));
     }
 
     private void fillPatientLanguages(PatientProfileDto profileDto, Patient patient) {
@@ -215,11 +741,124 @@ public class PatientProfileQueryService {
 
     public List<PatientStatus> getPatientProfileStatusHistory(String mpi, String facilityId) {
         log.info("Fetching patient status' for {} from DB", mpi);
-        return patientStatusConverter.convertCollectionToListWithContext(patientStatusRepository.findByMasterPatientIdentifier(mpi).stream()
-                .filter(ps -> facilityId.equals(ps.getFacilityNumber()))
-                .sorted(Comparator.comparing(SrPatientStatus::getCreateDateTimeGmt,
-                        Comparator.nullsLast(Comparator.reverseOrder())))
-                .collect(Collectors.toList()));
+        return patientStatusConverter.convertCollectionToListWithContext(patientStatusRepository
+                .findByMasterPatientIdentifierAndFacilityNumberOrderByCreateDateTimeGmtDesc(mpi, facilityId));
+    }
+
+    /**
+     * Returns one page of the facility's status history, newest first. The page starts after the status at
+     * {@code cursor}, or at the newest status when no cursor is given. The keyset is (createDateTimeGmt,
+     * patientStatusId), so statuses sharing a create time are neither skipped nor repeated, and statuses without a
+     * create time come last.
+     */
+    public PatientStatusPage getPatientProfileStatusHistoryPage(String mpi, String facilityId, String cursor,
+                                                                int pageSize) throws PatientQueryApiException {
+        int maxPageSize = profileProperties.getStatusHistory().getMaxPageSize();
+        if (pageSize < 1 || pageSize > maxPageSize) {
+            throw new PatientQueryApiException(HttpStatus.BAD_REQUEST,
+                    "Page size must be between 1 and " + maxPageSize);
+        }
+        List<SrPatientStatus> rows = findStatusHistoryPage(mpi, facilityId, StatusCursor.parse(cursor), pageSize + 1);
+        boolean hasNext = rows.size() > pageSize;
+        List<SrPatientStatus> page = hasNext ? rows.subList(0, pageSize) : rows;
+        String nextCursor = hasNext ? StatusCursor.after(page.get(page.size() - 1)).format() : null;
+        return new PatientStatusPage(patientStatusConverter.convertCollectionToListWithContext(page), nextCursor);
+    }
+
+    /**
+     * Hands the facility's status history, newest first, to {@code consumer} one row at a time while it is read from
+     * spanner in keyset pages, so only one page is held in memory however long the history is.
+     */
+    public void streamPatientProfileStatusHistory(String mpi, String facilityId, StatusConsumer consumer)
+            throws IOException {
+        int chunkSize = profileProperties.getStatusHistory().getStreamChunkSize();
+        StatusCursor cursor = null;
+        List<SrPatientStatus> rows;
+        do {
+            rows = findStatusHistoryPage(mpi, facilityId, cursor, chunkSize);
+            for (SrPatientStatus row : rows) {
+                consumer.accept(patientStatusConverter.convertWithContext(row));
+            }
+            cursor = rows.isEmpty() ? null : StatusCursor.after(rows.get(rows.size() - 1));
+        } while (rows.size() == chunkSize);
+    }
+
+    /**
+     * Reads up to {@code limit} statuses after {@code cursor} in (createDateTimeGmt DESC, patientStatusId DESC)
+     * order. Spanner sorts NULL create times last in descending order, so past a dated cursor the query runs on into
+     * the undated statuses, and a cursor inside the undated statuses continues on patientStatusId alone.
+     */
+    private List<SrPatientStatus> findStatusHistoryPage(String mpi, String facilityId, StatusCursor cursor, int limit) {
+        PageRequest pageRequest = PageRequest.of(0, limit);
+        if (isNull(cursor)) {
+            return patientStatusRepository
+                    .findByMasterPatientIdentifierAndFacilityNumberOrderByCreateDateTimeGmtDescPatientStatusIdDesc(
+                            mpi, facilityId, pageRequest);
+        }
+        if (nonNull(cursor.getCreateDateTimeGmt())) {
+            return patientStatusRepository.findStatusHistoryAfter(mpi, facilityId, cursor.getCreateDateTimeGmt(),
+                    cursor.getPatientStatusId(), pageRequest);
+        }
+        return patientStatusRepository.findStatusHistoryWithoutCreateDateAfter(mpi, facilityId,
+                cursor.getPatientStatusId(), pageRequest);
+    }
+
+    /**
+     * Position in a status history: the create time and id of the last status returned. Formatted as
+     * {@code <create time>_<patientStatusId>}, with an empty create time for statuses that have none.
+     */
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    private static final class StatusCursor {
+
+        private static final String SEPARATOR = "_";
+
+        private final Timestamp createDateTimeGmt;
+
+        private final String patientStatusId;
+
+        static StatusCursor after(SrPatientStatus status) {
+            return new StatusCursor(status.getCreateDateTimeGmt(), String.valueOf(status.getPatientStatusId()));
+        }
+
+        static StatusCursor parse(String cursor) throws PatientQueryApiException {
+            if (isNull(cursor) || cursor.isEmpty()) {
+                return null;
+            }
+            int separator = cursor.indexOf(SEPARATOR);
+            if (separator < 0 || separator == cursor.length() - 1) {
+                throw new PatientQueryApiException(HttpStatus.BAD_REQUEST, "Invalid status history cursor: " + cursor);
+            }
+            try {
+                Timestamp createDateTimeGmt = separator == 0
+                        ? null
+                        : Timestamp.from(Instant.parse(cursor.substring(0, separator)));
+                return new StatusCursor(createDateTimeGmt, cursor.substring(separator + 1));
+            } catch (DateTimeParseException exception) {
+                throw new PatientQueryApiException(HttpStatus.BAD_REQUEST, "Invalid status history cursor: " + cursor);
+            }
+        }
+
+        String format() {
+            return (isNull(createDateTimeGmt) ? "" : createDateTimeGmt.toInstant().toString()) + SEPARATOR
+                    + patientStatusId;
+        }
+    }
+
+    /**
+     * Versions of the sources a live read saw, each set by its lookup before it reads the source. They are read only
+     * after every lookup completed.
+     */
+    private static final class SourceVersions {
+        private volatile String patient;
+        private volatile String status;
+        private volatile String coverage;
+        private volatile String pillars;
+    }
+
+    @FunctionalInterface
+    public interface StatusConsumer {
+        void accept(PatientStatus status) throws IOException;
     }
 
     private void fillPatientDtoFromSrPatient(PatientProfileDto profileDto, SrPatient srPatient) {
@@ -275,58 +914,53 @@ public class PatientProfileQueryService {
     }
 
     /**
-     * Populate Patient Coverage Information for specified mpi
+     * Populate Patient Coverage Information from the latest Denodo coverage element
      */
-    private void fillPatientCoverageInformation(PatientProfileDto patientProfileDto, String masterPatientIdentifier)
-            throws PatientQueryApiException {
-
-        Map<String, Object> elementMap = getElementsFromDenodo(masterPatientIdentifier);
-        if (nonNull(elementMap.get(DENODO_BUNDLE_FLAG_INDICATOR))) {
+    private void fillPatientCoverageInformation(PatientProfileDto patientProfileDto, DenodoCoverage coverage) {
+        if (nonNull(coverage.getInsuranceBundleInd())) {
             patientProfileDto.setIsMedicareBundlePresent(
-                    (FLAG_EXISTS).equals(elementMap.get(DENODO_BUNDLE_FLAG_INDICATOR)) ? YES : NO);
+                    (FLAG_EXISTS).equals(coverage.getInsuranceBundleInd()) ? YES : NO);
 
             if (YES.equals(patientProfileDto.getIsMedicareBundlePresent())) {
-                patientProfileDto.setEffectiveStartDate(parseDate((String) elementMap.get(DENODO_START_DATE)));
+                patientProfileDto.setEffectiveStartDate(coverage.getEffectiveStartDate());
 
-                patientProfileDto.setEffectiveEndDate(parseDate((String) elementMap.get(DENODO_END_DATE)));
+                patientProfileDto.setEffectiveEndDate(coverage.getEffectiveEndDate());
             }
         }
     }
 
-    private ZonedDateTime parseDate(String date) {
-        if (nonNull(date)) {
-            return ZonedDateTime.parse(date, DateTimeFormatter.ofPattern(DATE_FORMAT));
-        }
-        return null;
+    /**
+     * Get the latest coverage element for specified mpi, from the coverage cache when present
+     */
+    private DenodoCoverage getElementsFromDenodo(String masterPatientIdentifier) throws PatientQueryApiException {
+        return getVersionedElementsFromDenodo(masterPatientIdentifier).getValue();
+    }
+
+    private BoundedTtlCache.Versioned<DenodoCoverage> getVersionedElementsFromDenodo(String masterPatientIdentifier)
+            throws PatientQueryApiException {
+        return coverageCache.getVersioned(masterPatientIdentifier, () -> {
+            DenodoCoverage coverage = denodoGuard.call(() -> dependencyMetrics.record("denodo",
+                    "PatientProfileQueryService", "fetchElementsFromDenodo",
+                    () -> fetchElementsFromDenodo(masterPatientIdentifier)));
+            lastKnownSources.putCoverage(masterPatientIdentifier, coverage);
+            return coverage;
+        });
     }
 
     /**
-     * Get Response from Denodo for specified mpi
+     * Get Response from Denodo for specified mpi, streaming it down to the element with the latest end date
      */
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> getElementsFromDenodo(String masterPatientIdentifier) throws PatientQueryApiException {
-        Map<String, Object> denodoResponseMap;
+    private DenodoCoverage fetchElementsFromDenodo(String masterPatientIdentifier) throws PatientQueryApiException {
+        DenodoCoverage coverage;
         try {
-            denodoResponseMap = restTemplate.getForObject(appConfig.getPatientCoverageUrl(), Map.class,
-                    masterPatientIdentifier);
+            coverage = restTemplate.execute(appConfig.getPatientCoverageUrl(), HttpMethod.GET, null,
+                    response -> DenodoCoverageParser.parseLatest(response.getBody()), masterPatientIdentifier);
 
         } catch (Exception exception) {
             log.error("Exception occured while fetching patient coverage information from denodo service: ", exception);
             throw new PatientQueryApiException(
                     "Exception occured while fetching patient coverage information from denodo service");
         }
-        Map<String, Object> elementMap = new HashMap<>();
-        if (Objects.nonNull(denodoResponseMap)) {
-            List<Map<String, Object>> elementsList = (List<Map<String, Object>>) denodoResponseMap.get(DENODO_ELEMENTS);
-
-            if (!elementsList.isEmpty()) {
-                elementsList.sort(Comparator.comparing(
-                        element -> nonNull(element.get(DENODO_END_DATE)) ? ZonedDateTime.parse(
-                                (String) element.get(DENODO_END_DATE), DateTimeFormatter.ofPattern(DATE_FORMAT)) : null,
-                        Comparator.nullsFirst(Comparator.reverseOrder())));
-                elementMap = elementsList.get(0);
-            }
-        }
-        return elementMap;
+        return Objects.nonNull(coverage) ? coverage : DenodoCoverage.NONE;
     }
-}
\ No newline at end of file
+}
@@ -6,16 +6,25 @@ import com.davita.cwow.model.base.spanner.DateUtils;
 import com.davita.cwow.model.domain.app_ref.AppRefDataPersist;
 import com.davita.cwow.model.domain.ref.codesets.CodeConceptRefData;
 import com.davita.cwow.patient.service.api.config.ApplicationConfiguration;
+import com.davita.cwow.patient.service.api.config.DependencyMetricsProperties;
+import com.davita.cwow.patient.service.api.config.PatientProfileExecutorConfiguration;
+import com.davita.cwow.patient.service.api.config.PatientProfileProperties;
 import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
+import com.davita.cwow.patient.service.metrics.DependencyMetrics;
 import com.davita.cwow.patient.service.model.Patient;
 import com.davita.cwow.patient.service.model.PatientLanguage;
 import com.davita.cwow.patient.service.model.dto.PatientProfileDto;
 import com.davita.cwow.patient.service.model.dto.PatientResponse;
 import com.davita.cwow.patient.service.model.status.PatientStatus;
+import com.davita.cwow.patient.service.model.status.PatientStatusPage;
 import com.davita.cwow.patient.service.repository.SrPatientRepository;
 import com.davita.cwow.patient.service.repository.SrPatientStatusRepository;
+import com.davita.cwow.patient.service.model.coverage.DenodoCoverage;
+import com.davita.cwow.patient.service.util.DependencyGuard;
 import com.davita.cwow.patient.service.util.ElasticSearchUtil;
 import com.davita.cwow.patient.service.util.PatientQueryTestUtil;
+import com.davita.cwow.patient.service.util.RequestHedger;
+import com.davita.cwow.patient.service.util.SingleFlight;
 import com.davita.cwow.patient.spanner.enricher.UserEnteredBaseAggregateEnricher;
 import com.davita.cwow.patient.spanner.enricher.UserEnteredBaseDomainEnricher;
 import com.davita.cwow.patient.spanner.model.SrPatient;
@@ -29,6 +38,7 @@ import com.davita.cwow.patient.spanner.service.PatientMpiService;
 import com.davita.cwow.pillars.model.DvaPatientMaster;
 import com.davita.cwow.pillars.model.Name;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.commons.lang3.RandomUtils;
 import org.assertj.core.util.Lists;
 import org.junit.jupiter.api.BeforeEach;
@@ -38,30 +48,53 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import java.math.BigInteger;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.Month;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class PatientProfileQueryServiceTest {
@@ -107,6 +140,42 @@ public class PatientProfileQueryServiceTest {
     @Spy
     private SrPatientContactConverter patientContactConverter;
 
+    @Spy
+    private PatientProfileProperties profileProperties = new PatientProfileProperties();
+
+    @Spy
+    private Executor patientProfileExecutor = new SimpleAsyncTaskExecutor();
+
+    @Spy
+    private Executor patientProfileBatchExecutor = new SimpleAsyncTaskExecutor();
+
+    @Spy
+    private DenodoCoverageCache coverageCache = new DenodoCoverageCache(profileProperties, new SimpleMeterRegistry());
+
+    @Spy
+    private PatientPillarCache pillarCache = new PatientPillarCache(profileProperties, new SimpleMeterRegistry());
+
+    @Spy
+    private PatientProfileProjectionStore projectionStore = new PatientProfileProjectionStore(profileProperties);
+
+    @Spy
+    private DependencyMetrics dependencyMetrics = new DependencyMetrics(new SimpleMeterRegistry(), new DependencyMetricsProperties());
+
+    @Spy
+    private LastKnownProfileSources lastKnownSources = new LastKnownProfileSources(profileProperties, new SimpleMeterRegistry());
+
+    @Spy
+    private DependencyGuard denodoGuard = new DependencyGuard("denodo", 20, 1, Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+    @Spy
+    private DependencyGuard pillarsGuard = new DependencyGuard("es.pillars", 20, 1, Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+    @Spy
+    private RequestHedger pillarsHedger = new RequestHedger("es.pillars", false, Runnable::run, 0.95, Duration.ofMillis(20), Duration.ofSeconds(1), 100, 0.05);
+
+    @Spy
+    private SingleFlight<String, PatientProfileSources> profileSingleFlight = new SingleFlight<>("patient.profile");
+
     DvaPatientMaster dvaPatientMaster = new DvaPatientMaster();
 
     PatientResponse response = new PatientResponse();
@@ -137,13 +206,13 @@ public class PatientProfileQueryServiceTest {
         SrPatient srPatient = prepareSrPatient();
 
         when(patientRepository.findByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(srPatient));
-        when(patientStatusRepository.findByMasterPatientIdentifier(mpi)).thenReturn(prepareStatuses());
+        when(patientStatusRepository.findLatestActiveByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(prepareStatuses().get(0)));
         when(esutil.getDvaPatientFromPillars(mpi)).thenReturn(response);
 
         Map<String, Object> denodoOutputMap = new HashMap<>();
         ArrayList<Map<String, Object>> elementsList = new ArrayList<>();
         denodoOutputMap.put("elements", elementsList);
-        when(restTemplate.getForObject(ArgumentMatchers.any(String.class), ArgumentMatchers.eq(Map.class), ArgumentMatchers.eq(mpi))).thenReturn(denodoOutputMap);
+        stubDenodo(denodoOutputMap);
         when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
 
         PatientProfileDto actualDto = patientProfileQueryService.getPatientProfileDetails(mpi);
@@ -220,12 +289,14 @@ public class PatientProfileQueryServiceTest {
     private List<SrPatientStatus> prepareStatuses() {
         return Lists.newArrayList(
                 SrPatientStatus.builder()
+                        .patientStatusId(UUID.randomUUID())
                         .createDateTimeGmt(Timestamp.valueOf(
                                 LocalDateTime.of(2018, Month.APRIL, 10, 10, 10, 10)))
                         .patientStatusCodeId("code id-1")
                         .facilityNumber(facility)
                         .build(),
                 SrPatientStatus.builder()
+                        .patientStatusId(UUID.randomUUID())
                         .createDateTimeGmt(Timestamp.valueOf(
                                 LocalDateTime.of(2018, Month.MARCH, 10, 10, 10, 10)))
                         .patientStatusCodeId("code id-2")
@@ -282,7 +353,7 @@ public class PatientProfileQueryServiceTest {
         elementsList.add(innerMap);
         elementsList.add(innerMap1);
 
-        when(restTemplate.getForObject(ArgumentMatchers.any(String.class), ArgumentMatchers.eq(Map.class), ArgumentMatchers.eq(mpi))).thenReturn(denodoOutputMap);
+        stubDenodo(denodoOutputMap);
 
         patientProfileQueryService.getPatientProfileDetails(mpi);
         when((patientRepository).findByMasterPatientIdentifier(anyString())).thenReturn(Optional.empty());
@@ -311,7 +382,7 @@ public class PatientProfileQueryServiceTest {
         elementsList.add(innerMap1);
         elementsList.add(innerMap2);
 
-        when(restTemplate.getForObject(ArgumentMatchers.any(String.class), ArgumentMatchers.eq(Map.class), ArgumentMatchers.eq(mpi))).thenReturn(denodoOutputMap);
+        stubDenodo(denodoOutputMap);
 
         patientProfileQueryService.getPatientProfileDetails(mpi);
         when((patientRepository).findByMasterPatientIdentifier(mpi)).thenReturn(Optional.empty());
@@ -337,7 +408,7 @@ public class PatientProfileQueryServiceTest {
 
         elementsList.add(innerMap);
 
-        when(restTemplate.getForObject(ArgumentMatchers.any(String.class), ArgumentMatchers.eq(Map.class), ArgumentMatchers.eq(mpi))).thenReturn(denodoOutputMap);
+        stubDenodo(denodoOutputMap);
 
         patientProfileQueryService.getPatientProfileDetails(mpi);
         when((patientRepository).findByMasterPatientIdentifier(mpi)).thenReturn(Optional.empty());
@@ -355,17 +426,459 @@ public class PatientProfileQueryServiceTest {
             when(patientStatusQueryService.getAllPatientStatus(mpi, facility)).thenReturn(patientStatusList);
             when((esutil).getDvaPatientFromPillars(mpi)).thenReturn(response);
             when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
-            when(restTemplate.getForObject(ArgumentMatchers.any(String.class), ArgumentMatchers.eq(Map.class), ArgumentMatchers.eq(mpi))).thenThrow(new RestClientException("test"));
+            when(restTemplate.execute(anyString(), ArgumentMatchers.eq(HttpMethod.GET), ArgumentMatchers.isNull(), ArgumentMatchers.any(ResponseExtractor.class), ArgumentMatchers.eq(mpi))).thenThrow(new RestClientException("test"));
             patientProfileQueryService.getPatientProfileDetails(mpi);
         });
     }
 
+    @Test
+    public void getPatientProfileDetails_whenPillarsTimeOut_returnsPartialProfile() throws Exception {
+        profileProperties.getTimeouts().setPillarsMs(50);
+        when(patientRepository.findByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(prepareSrPatient()));
+        when(patientStatusRepository.findLatestActiveByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(prepareStatuses().get(0)));
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+        when(esutil.getDvaPatientFromPillars(mpi)).thenAnswer(invocation -> {
+            Thread.sleep(1000);
+            return response;
+        });
+
+        Map<String, Object> denodoOutputMap = new HashMap<>();
+        denodoOutputMap.put("elements", new ArrayList<Map<String, Object>>());
+        stubDenodo(denodoOutputMap);
+
+        PatientProfileAssembly assembly = patientProfileQueryService.assemblePatientProfile(mpi);
+
+        assertTrue(assembly.isPartial());
+        assertEquals(EnumSet.of(PatientProfileSource.PILLARS), assembly.getMissingSources());
+        assertEquals(mpi, assembly.getProfile().getPatient().getMasterPatientIdentifier());
+        assertNotNull(assembly.getProfile().getPatientStatus());
+        assertNull(assembly.getProfile().getPrimaryAddress());
+    }
+
+    @Test
+    public void getPatientProfileDetails_whenPillarsTimeOut_interruptsTheLookup() throws Exception {
+        profileProperties.getTimeouts().setPillarsMs(50);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(patientRepository.findByMasterPatientIdentifier(mpi)).thenReturn(Optional.empty());
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+        when(esutil.getDvaPatientFromPillars(mpi)).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException exception) {
+                interrupted.countDown();
+                throw exception;
+            }
+            return response;
+        });
+        stubDenodo(Collections.<String, Object>singletonMap("elements", new ArrayList<>()));
+
+        PatientProfileAssembly assembly = patientProfileQueryService.assemblePatientProfile(mpi);
+
+        assertEquals(EnumSet.of(PatientProfileSource.PILLARS), assembly.getMissingSources());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void getPatientProfileDetails_whenPillarsTimeOut_servesLastKnownPillars() throws Exception {
+        profileProperties.getTimeouts().setPillarsMs(50);
+        when(patientRepository.findByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(prepareSrPatient()));
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+        when(esutil.getDvaPatientFromPillars(mpi)).thenAnswer(invocation -> {
+            Thread.sleep(1000);
+            return response;
+        });
+        Map<String, Object> denodoOutputMap = new HashMap<>();
+        denodoOutputMap.put("elements", new ArrayList<Map<String, Object>>());
+        stubDenodo(denodoOutputMap);
+        lastKnownSources.putEntityInfo(mpi, response.getPatientInformation().getEntityInfo());
+
+        PatientProfileAssembly assembly = patientProfileQueryService.assemblePatientProfile(mpi);
+
+        assertFalse(assembly.isPartial());
+        assertTrue(assembly.isDegraded());
+        assertEquals(EnumSet.of(PatientProfileSource.PILLARS), assembly.getStaleSources());
+    }
+
+    @Test
+    public void getPatientProfileDetails_whenDenodoCircuitIsOpen_failsFastToLastKnownCoverage() throws Exception {
+        when(patientRepository.findByMasterPatientIdentifier(mpi)).thenReturn(Optional.empty());
+        when(esutil.getDvaPatientFromPillars(mpi)).thenReturn(response);
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+        when(restTemplate.execute(anyString(), ArgumentMatchers.eq(HttpMethod.GET), ArgumentMatchers.isNull(),
+                ArgumentMatchers.any(ResponseExtractor.class), ArgumentMatchers.eq(mpi))).thenThrow(new RestClientException("test"));
+        lastKnownSources.putCoverage(mpi, DenodoCoverage.NONE);
+
+        PatientProfileAssembly failed = patientProfileQueryService.assemblePatientProfile(mpi);
+        PatientProfileAssembly rejected = patientProfileQueryService.assemblePatientProfile(mpi);
+
+        assertEquals(DependencyGuard.State.OPEN, denodoGuard.getState());
+        assertEquals(EnumSet.of(PatientProfileSource.COVERAGE), failed.getStaleSources());
+        assertEquals(EnumSet.of(PatientProfileSource.COVERAGE), rejected.getStaleSources());
+        assertTrue(rejected.getMissingSources().isEmpty());
+        verify(restTemplate, times(1)).execute(anyString(), ArgumentMatchers.eq(HttpMethod.GET), ArgumentMatchers.isNull(),
+                ArgumentMatchers.any(ResponseExtractor.class), ArgumentMatchers.eq(mpi));
+    }
+
+    @Test
+    public void getPatientProfileDetails_whenPoolIsSaturated_reportsSourcesWithoutRunningThemOnTheCaller() throws Exception {
+        profileProperties.getExecutor().setCoreSize(1);
+        profileProperties.getExecutor().setMaxSize(1);
+        profileProperties.getExecutor().setQueueCapacity(0);
+        ThreadPoolTaskExecutor saturated = new PatientProfileExecutorConfiguration().patientProfileExecutor(profileProperties);
+        saturated.initialize();
+        CountDownLatch release = new CountDownLatch(1);
+        saturated.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ReflectionTestUtils.setField(patientProfileQueryService, "patientProfileExecutor", saturated);
+        lastKnownSources.putCoverage(mpi, DenodoCoverage.NONE);
+        try {
+            PatientProfileAssembly assembly = patientProfileQueryService.assemblePatientProfile(mpi);
+
+            assertEquals(EnumSet.of(PatientProfileSource.PATIENT, PatientProfileSource.STATUS, PatientProfileSource.PILLARS),
+                    assembly.getMissingSources());
+            assertEquals(EnumSet.of(PatientProfileSource.COVERAGE), assembly.getStaleSources());
+            verify(patientRepository, never()).findByMasterPatientIdentifier(mpi);
+            verify(esutil, never()).getDvaPatientFromPillars(mpi);
+        } finally {
+            release.countDown();
+            saturated.shutdown();
+        }
+    }
+
+    @Test
+    public void getPatientProfileDetails_servesCoverageFromCache() throws Exception {
+        when(patientRepository.findByMasterPatientIdentifier(mpi)).thenReturn(Optional.empty());
+        when(esutil.getDvaPatientFromPillars(mpi)).thenReturn(response);
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+
+        Map<String, Object> denodoOutputMap = new HashMap<>();
+        ArrayList<Map<String, Object>> elementsList = new ArrayList<>();
+        elementsList.add(createInnerMap("Y", "2017-07-11T04:00:00+0000"));
+        denodoOutputMap.put("elements", elementsList);
+        stubDenodo(denodoOutputMap);
+
+        patientProfileQueryService.getPatientProfileDetails(mpi);
+        PatientProfileDto dto = patientProfileQueryService.getPatientProfileDetails(mpi);
+
+        assertEquals("Yes", dto.getIsMedicareBundlePresent());
+        verify(restTemplate, times(1)).execute(anyString(), ArgumentMatchers.eq(HttpMethod.GET), ArgumentMatchers.isNull(), ArgumentMatchers.any(ResponseExtractor.class), ArgumentMatchers.eq(mpi));
+    }
+
+    @Test
+    public void assemblePatientProfiles_readsEachSourceOncePerBatch() throws Exception {
+        String otherMpi = mpi + "1";
+        SrPatient srPatient = prepareSrPatient();
+        when(patientRepository.findByMasterPatientIdentifierIn(ArgumentMatchers.anyCollection()))
+                .thenReturn(Collections.singletonList(srPatient));
+        when(patientStatusRepository.findLatestActiveByMasterPatientIdentifierIn(ArgumentMatchers.anyCollection()))
+                .thenReturn(Collections.singletonList(prepareStatuses().get(0)));
+        Map<String, PatientResponse> pillars = new HashMap<>();
+        pillars.put(mpi, response);
+        pillars.put(otherMpi, response);
+        when(esutil.getDvaPatientsFromPillars(ArgumentMatchers.anyCollection())).thenReturn(pillars);
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+
+        Map<String, Object> denodoOutputMap = new HashMap<>();
+        ArrayList<Map<String, Object>> elementsList = new ArrayList<>();
+        elementsList.add(createInnerMap("Y", "2017-07-11T04:00:00+0000"));
+        denodoOutputMap.put("elements", elementsList);
+        stubDenodo(mpi, denodoOutputMap);
+        stubDenodo(otherMpi, Collections.<String, Object>singletonMap("elements", new ArrayList<>()));
+
+        Map<String, PatientProfileAssembly> profiles =
+                patientProfileQueryService.assemblePatientProfiles(Lists.newArrayList(mpi, otherMpi, mpi));
+
+        assertEquals(Lists.newArrayList(mpi, otherMpi), new ArrayList<>(profiles.keySet()));
+        PatientProfileDto first = profiles.get(mpi).getProfile();
+        assertEquals("firstName middleName familyName", first.getEntityName().getFullName());
+        assertEquals("Yes", first.getIsMedicareBundlePresent());
+        PatientProfileDto second = profiles.get(otherMpi).getProfile();
+        assertEquals(otherMpi, second.getPatient().getMasterPatientIdentifier());
+        assertNull(second.getIsMedicareBundlePresent());
+        assertEquals(1, second.getPrimaryAddress().size());
+        verify(patientRepository, times(1)).findByMasterPatientIdentifierIn(ArgumentMatchers.anyCollection());
+        verify(esutil, times(1)).getDvaPatientsFromPillars(ArgumentMatchers.anyCollection());
+    }
+
+    @Test
+    public void assemblePatientProfiles_boundsConcurrentDenodoLookups() throws Exception {
+        profileProperties.getBatch().setDenodoConcurrency(2);
+        List<String> mpis = Lists.newArrayList("1", "2", "3", "4", "5");
+        when(patientRepository.findByMasterPatientIdentifierIn(ArgumentMatchers.anyCollection()))
+                .thenReturn(Collections.emptyList());
+        when(patientStatusRepository.findLatestActiveByMasterPatientIdentifierIn(ArgumentMatchers.anyCollection()))
+                .thenReturn(Collections.emptyList());
+        when(esutil.getDvaPatientsFromPillars(ArgumentMatchers.anyCollection())).thenReturn(Collections.emptyMap());
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(restTemplate.execute(anyString(), ArgumentMatchers.eq(HttpMethod.GET), ArgumentMatchers.isNull(),
+                ArgumentMatchers.any(ResponseExtractor.class), anyString())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            inFlight.decrementAndGet();
+            return DenodoCoverage.NONE;
+        });
+
+        Map<String, PatientProfileAssembly> profiles = patientProfileQueryService.assemblePatientProfiles(mpis);
+
+        assertEquals(mpis, new ArrayList<>(profiles.keySet()));
+        profiles.values().forEach(assembly -> assertTrue(assembly.getMissingSources().isEmpty()));
+        assertEquals(2, maxInFlight.get());
+        verify(restTemplate, times(5)).execute(anyString(), ArgumentMatchers.eq(HttpMethod.GET), ArgumentMatchers.isNull(),
+                ArgumentMatchers.any(ResponseExtractor.class), anyString());
+    }
+
+    @Test
+    public void assemblePatientProfiles_rejectsOversizedBatch() {
+        profileProperties.getBatch().setMaxSize(1);
+        assertThrows(PatientQueryApiException.class,
+                () -> patientProfileQueryService.assemblePatientProfiles(Lists.newArrayList(mpi, mpi + "1")));
+    }
+
+    @Test
+    public void getPatientProfileETag_isAnsweredFromSourceVersionsWithoutAssembling() throws Exception {
+        Timestamp statusChanged = Timestamp.valueOf(LocalDateTime.of(2019, Month.JANUARY, 1, 10, 10, 10));
+        when(patientRepository.findByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(prepareSrPatient()));
+        when(patientStatusRepository.findLatestActiveByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(prepareStatuses().get(0)));
+        when(patientStatusRepository.findLastChangeDateTimeGmtByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(statusChanged));
+        when(esutil.getDvaPatientFromPillars(mpi)).thenReturn(response);
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+        stubDenodo(Collections.<String, Object>singletonMap("elements", new ArrayList<>()));
+
+        PatientProfileAssembly assembly = patientProfileQueryService.assemblePatientProfile(mpi);
+        assertTrue(assembly.getETag().startsWith("W/\""));
+        assertEquals(assembly.getETag(), patientProfileQueryService.getPatientProfileETag(mpi));
+        verify(patientRepository, times(1)).findByMasterPatientIdentifier(mpi);
+        verify(esutil, times(1)).getDvaPatientFromPillars(mpi);
+
+        when(patientStatusRepository.findLastChangeDateTimeGmtByMasterPatientIdentifier(mpi)).thenReturn(
+                Optional.of(Timestamp.valueOf(LocalDateTime.of(2019, Month.JANUARY, 2, 10, 10, 10))));
+        assertNotEquals(assembly.getETag(), patientProfileQueryService.getPatientProfileETag(mpi));
+    }
+
+    @Test
+    public void getPatientProfileETag_isNotGivenBeforeTheRemoteSourcesAreCached() {
+        assertNull(patientProfileQueryService.getPatientProfileETag(mpi));
+        verify(patientRepository, never()).findLastChangeDateTimeGmtByMasterPatientIdentifier(mpi);
+    }
+
+    @Test
+    public void getPatientProfileETag_isNotGivenToDegradedProfiles() {
+        PatientProfileSources sources = new PatientProfileSources(Optional.empty(), Optional.empty(), null, null,
+                EnumSet.of(PatientProfileSource.PILLARS), EnumSet.noneOf(PatientProfileSource.class), "W/\"0\"");
+
+        assertNull(patientProfileQueryService.buildProfile(mpi, sources, sources.getETag()).getETag());
+    }
+
+    @Test
+    public void getPatientProfileETag_isNotGivenWhenDenodoFails() throws Exception {
+        when(patientRepository.findByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(prepareSrPatient()));
+        when(esutil.getDvaPatientFromPillars(mpi)).thenReturn(response);
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+        when(restTemplate.execute(anyString(), ArgumentMatchers.eq(HttpMethod.GET), ArgumentMatchers.isNull(),
+                ArgumentMatchers.any(ResponseExtractor.class), ArgumentMatchers.eq(mpi))).thenThrow(new RestClientException("test"));
+        lastKnownSources.putCoverage(mpi, DenodoCoverage.NONE);
+
+        PatientProfileAssembly assembly = patientProfileQueryService.assemblePatientProfile(mpi);
+
+        assertTrue(assembly.isDegraded());
+        assertEquals(EnumSet.of(PatientProfileSource.COVERAGE), assembly.getStaleSources());
+        assertNull(assembly.getETag());
+        assertNull(patientProfileQueryService.getPatientProfileETag(mpi));
+    }
+
+    @Test
+    public void getPatientProfileDetails_servedFromProjectionAndUpdatedByStatusEvent() throws Exception {
+        profileProperties.getProjection().setEnabled(true);
+        PatientProfileProjectionUpdater updater = new PatientProfileProjectionUpdater();
+        ReflectionTestUtils.setField(updater, "patientProfileQueryService", patientProfileQueryService);
+        ReflectionTestUtils.setField(updater, "projectionStore", projectionStore);
+
+        when(patientRepository.findByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(prepareSrPatient()));
+        when(patientStatusRepository.findLatestActiveByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(prepareStatuses().get(0)));
+        when(esutil.getDvaPatientFromPillars(mpi)).thenReturn(response);
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+        stubDenodo(Collections.<String, Object>singletonMap("elements", new ArrayList<>()));
+
+        PatientProfileAssembly liveAssembly = patientProfileQueryService.assemblePatientProfile(mpi);
+        PatientProfileAssembly projectedAssembly = patientProfileQueryService.assemblePatientProfile(mpi);
+        assertNotSame(liveAssembly.getProfile(), projectedAssembly.getProfile());
+        assertNotNull(projectedAssembly.getETag());
+        assertEquals(projectedAssembly.getETag(), patientProfileQueryService.getPatientProfileETag(mpi));
+        verify(patientRepository, times(1)).findByMasterPatientIdentifier(mpi);
+        PatientProfileDto live = liveAssembly.getProfile();
+
+        when(patientStatusRepository.findLatestActiveByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(
+                SrPatientStatus.builder()
+                        .createDateTimeGmt(Timestamp.valueOf(LocalDateTime.of(2019, Month.JANUARY, 1, 10, 10, 10)))
+                        .patientStatusCodeId("code id-3")
+                        .facilityNumber(facility)
+                        .build()));
+        updater.onPatientProfileChange(new PatientProfileChangeEvent(mpi, PatientProfileSource.STATUS));
+
+        PatientProfileDto projected = patientProfileQueryService.getPatientProfileDetails(mpi);
+        assertEquals("code id-3", projected.getPatientStatus().getPatientStatusValue().getCodeId());
+        assertEquals(live.getEntityName().getFullName(), projected.getEntityName().getFullName());
+        verify(patientRepository, times(1)).findByMasterPatientIdentifier(mpi);
+    }
+
+    @Test
+    public void getPatientProfileDetails_changeDuringLiveRead_isNotLostToTheProjection() throws Exception {
+        profileProperties.getProjection().setEnabled(true);
+        PatientProfileProjectionUpdater updater = new PatientProfileProjectionUpdater();
+        ReflectionTestUtils.setField(updater, "patientProfileQueryService", patientProfileQueryService);
+        ReflectionTestUtils.setField(updater, "projectionStore", projectionStore);
+
+        when(patientRepository.findByMasterPatientIdentifier(mpi)).thenReturn(Optional.of(prepareSrPatient()));
+        when(patientStatusRepository.findLatestActiveByMasterPatientIdentifier(mpi)).thenAnswer(invocation -> {
+            SrPatientStatus beforeChange = prepareStatuses().get(0);
+            updater.onPatientProfileChange(new PatientProfileChangeEvent(mpi, PatientProfileSource.STATUS));
+            return Optional.of(beforeChange);
+        });
+        when(esutil.getDvaPatientFromPillars(mpi)).thenReturn(response);
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+        stubDenodo(Collections.<String, Object>singletonMap("elements", new ArrayList<>()));
+
+        patientProfileQueryService.getPatientProfileDetails(mpi);
+
+        assertNull(projectionStore.get(mpi));
+        patientProfileQueryService.getPatientProfileDetails(mpi);
+        verify(patientRepository, times(2)).findByMasterPatientIdentifier(mpi);
+    }
+
+    @Test
+    public void assemblePatientProfile_concurrentReadsShareSourcesButNotProfiles() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        profileSingleFlight.bindTo(registry);
+        CountDownLatch release = new CountDownLatch(1);
+        when(patientRepository.findByMasterPatientIdentifier(mpi)).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.of(prepareSrPatient());
+        });
+        when(esutil.getDvaPatientFromPillars(mpi)).thenReturn(response);
+        when(appConfig.getPatientCoverageUrl()).thenReturn("https://denodo6dev.davita.com/i_coverageall?patient_id={mpi}");
+        stubDenodo(Collections.<String, Object>singletonMap("elements", new ArrayList<>()));
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<PatientProfileAssembly> first = callers.submit(() -> patientProfileQueryService.assemblePatientProfile(mpi));
+            while (profileSingleFlight.inFlight() == 0) {
+                Thread.sleep(1);
+            }
+            Future<PatientProfileAssembly> second = callers.submit(() -> patientProfileQueryService.assemblePatientProfile(mpi));
+            while (registry.get("singleflight.calls").tag("result", "coalesced").functionCounter().count() < 1) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            PatientProfileAssembly firstAssembly = first.get(5, TimeUnit.SECONDS);
+            PatientProfileAssembly secondAssembly = second.get(5, TimeUnit.SECONDS);
+            assertNotSame(firstAssembly.getProfile(), secondAssembly.getProfile());
+            assertNotNull(firstAssembly.getETag());
+            assertEquals(firstAssembly.getETag(), secondAssembly.getETag());
+            verify(patientRepository, times(1)).findByMasterPatientIdentifier(mpi);
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
     @Test
     public void getPatientProfileStatusHistoryTest() {
-        when(patientStatusRepository.findByMasterPatientIdentifier(mpi)).thenReturn(prepareStatuses());
+        when(patientStatusRepository.findByMasterPatientIdentifierAndFacilityNumberOrderByCreateDateTimeGmtDesc(mpi, facility))
+                .thenReturn(prepareStatuses());
         assertEquals(2, patientProfileQueryService.getPatientProfileStatusHistory(mpi, facility).size());
     }
 
+    @Test
+    public void getPatientProfileStatusHistoryPageTest() throws PatientQueryApiException {
+        List<SrPatientStatus> statuses = prepareStatuses();
+        when(patientStatusRepository.findByMasterPatientIdentifierAndFacilityNumberOrderByCreateDateTimeGmtDescPatientStatusIdDesc(
+                ArgumentMatchers.eq(mpi), ArgumentMatchers.eq(facility), ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(statuses);
+
+        PatientStatusPage page = patientProfileQueryService.getPatientProfileStatusHistoryPage(mpi, facility, null, 1);
+
+        assertEquals(1, page.getStatuses().size());
+        assertEquals(statuses.get(0).getCreateDateTimeGmt().toInstant() + "_" + statuses.get(0).getPatientStatusId(),
+                page.getNextCursor());
+    }
+
+    @Test
+    public void getPatientProfileStatusHistoryPage_continuesFromCursorWithinTheSameCreateTime() throws PatientQueryApiException {
+        SrPatientStatus status = prepareStatuses().get(0);
+        String statusId = String.valueOf(status.getPatientStatusId());
+        SrPatientStatus sameCreateTime = SrPatientStatus.builder()
+                .patientStatusId(UUID.randomUUID())
+                .createDateTimeGmt(status.getCreateDateTimeGmt())
+                .patientStatusCodeId("code id-4")
+                .facilityNumber(facility)
+                .build();
+        when(patientStatusRepository.findStatusHistoryAfter(ArgumentMatchers.eq(mpi), ArgumentMatchers.eq(facility),
+                ArgumentMatchers.eq(status.getCreateDateTimeGmt()), ArgumentMatchers.eq(statusId),
+                ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(Collections.singletonList(sameCreateTime));
+
+        PatientStatusPage page = patientProfileQueryService.getPatientProfileStatusHistoryPage(
+                mpi, facility, status.getCreateDateTimeGmt().toInstant() + "_" + statusId, 1);
+
+        assertEquals(1, page.getStatuses().size());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    public void getPatientProfileStatusHistoryPage_pagesThroughStatusesWithoutCreateTime() throws PatientQueryApiException {
+        List<SrPatientStatus> undated = Lists.newArrayList(
+                SrPatientStatus.builder().patientStatusId(UUID.randomUUID()).facilityNumber(facility).build(),
+                SrPatientStatus.builder().patientStatusId(UUID.randomUUID()).facilityNumber(facility).build());
+        String firstId = String.valueOf(undated.get(0).getPatientStatusId());
+        when(patientStatusRepository.findByMasterPatientIdentifierAndFacilityNumberOrderByCreateDateTimeGmtDescPatientStatusIdDesc(
+                ArgumentMatchers.eq(mpi), ArgumentMatchers.eq(facility), ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(undated);
+        when(patientStatusRepository.findStatusHistoryWithoutCreateDateAfter(ArgumentMatchers.eq(mpi),
+                ArgumentMatchers.eq(facility), ArgumentMatchers.eq(firstId), ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(undated.subList(1, 2));
+
+        PatientStatusPage first = patientProfileQueryService.getPatientProfileStatusHistoryPage(mpi, facility, null, 1);
+        PatientStatusPage second = patientProfileQueryService.getPatientProfileStatusHistoryPage(
+                mpi, facility, first.getNextCursor(), 1);
+
+        assertEquals("_" + firstId, first.getNextCursor());
+        assertEquals(1, second.getStatuses().size());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    public void getPatientProfileStatusHistoryPage_rejectsInvalidCursor() {
+        assertThrows(PatientQueryApiException.class,
+                () -> patientProfileQueryService.getPatientProfileStatusHistoryPage(mpi, facility, "yesterday", 10));
+        assertThrows(PatientQueryApiException.class,
+                () -> patientProfileQueryService.getPatientProfileStatusHistoryPage(mpi, facility, "yesterday_1", 10));
+    }
+
+    @Test
+    public void streamPatientProfileStatusHistoryTest() throws Exception {
+        profileProperties.getStatusHistory().setStreamChunkSize(1);
+        List<SrPatientStatus> statuses = prepareStatuses();
+        when(patientStatusRepository.findByMasterPatientIdentifierAndFacilityNumberOrderByCreateDateTimeGmtDescPatientStatusIdDesc(
+                ArgumentMatchers.eq(mpi), ArgumentMatchers.eq(facility), ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(statuses.subList(0, 1));
+        when(patientStatusRepository.findStatusHistoryAfter(ArgumentMatchers.eq(mpi), ArgumentMatchers.eq(facility),
+                ArgumentMatchers.eq(statuses.get(0).getCreateDateTimeGmt()),
+                ArgumentMatchers.eq(String.valueOf(statuses.get(0).getPatientStatusId())),
+                ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(statuses.subList(1, 2));
+
+        List<PatientStatus> streamed = new ArrayList<>();
+        patientProfileQueryService.streamPatientProfileStatusHistory(mpi, facility, streamed::add);
+
+        assertEquals(2, streamed.size());
+    }
+
     private SrPatient createSrPatient() {
         SrPatient srPatient = new SrPatient();
         srPatient.setCreateDateTimeGmt(DateUtils.currentTimestamp());
@@ -395,6 +908,19 @@ public class PatientProfileQueryServiceTest {
         return patientStatus;
     }
 
+    private void stubDenodo(Map<String, Object> denodoOutputMap) {
+        stubDenodo(mpi, denodoOutputMap);
+    }
+
+    private void stubDenodo(String patientMpi, Map<String, Object> denodoOutputMap) {
+        when(restTemplate.execute(anyString(), ArgumentMatchers.eq(HttpMethod.GET), ArgumentMatchers.isNull(),
+                ArgumentMatchers.any(ResponseExtractor.class), ArgumentMatchers.eq(patientMpi))).thenAnswer(invocation -> {
+            ResponseExtractor<?> extractor = invocation.getArgument(3);
+            return extractor.extractData(new MockClientHttpResponse(
+                    objectMapper.writeValueAsBytes(denodoOutputMap), HttpStatus.OK));
+        });
+    }
+
     private Map<String, Object> createInnerMap(String insuranceBundleInd, String effectiveEndDate) {
         Map<String, Object> innerMap = new HashMap<>();
         innerMap.put("coverage_effective_start_date", "2017-07-01T04:00:00+0000");
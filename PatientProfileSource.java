@@ -0,0 +1,11 @@
+package com.davita.cwow.patient.service;
+
+/**
+ * Independent data sources a patient profile is assembled from.
+ */
+public enum PatientProfileSource {
+    PATIENT,
+    STATUS,
+    COVERAGE,
+    PILLARS
+}
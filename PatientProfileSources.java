@@ -0,0 +1,71 @@
+package com.davita.cwow.patient.service;
+
+import com.davita.cwow.patient.service.model.coverage.DenodoCoverage;
+import com.davita.cwow.patient.service.model.dto.EntityInfo;
+import com.davita.cwow.patient.spanner.model.SrPatient;
+import com.davita.cwow.patient.spanner.model.status.SrPatientStatus;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Source data a patient profile was built from, with the sources that did not answer in time and those served from
+ * their last known data. Concurrent reads of a patient share one instance and each build their own profile from it;
+ * a projected profile keeps it so a single changed source can be re-read and the profile rebuilt without fetching the
+ * others again. A complete live read also carries the ETag of the source versions it read. Read-only once built.
+ */
+@Getter
+@AllArgsConstructor
+public class PatientProfileSources {
+
+    private final Optional<SrPatient> patient;
+
+    private final Optional<SrPatientStatus> status;
+
+    private final DenodoCoverage coverage;
+
+    private final EntityInfo entityInfo;
+
+    private final Set<PatientProfileSource> missingSources;
+
+    private final Set<PatientProfileSource> staleSources;
+
+    /**
+     * ETag of the source versions a complete live read saw, {@code null} for degraded and refreshed sources.
+     */
+    private final String eTag;
+
+    PatientProfileSources(Optional<SrPatient> patient, Optional<SrPatientStatus> status, DenodoCoverage coverage,
+            EntityInfo entityInfo) {
+        this(patient, status, coverage, entityInfo, Collections.<PatientProfileSource>emptySet(),
+                Collections.<PatientProfileSource>emptySet());
+    }
+
+    PatientProfileSources(Optional<SrPatient> patient, Optional<SrPatientStatus> status, DenodoCoverage coverage,
+            EntityInfo entityInfo, Set<PatientProfileSource> missingSources, Set<PatientProfileSource> staleSources) {
+        this(patient, status, coverage, entityInfo, missingSources, staleSources, null);
+    }
+
+    public boolean isDegraded() {
+        return !missingSources.isEmpty() || !staleSources.isEmpty();
+    }
+
+    PatientProfileSources withPatient(Optional<SrPatient> changedPatient) {
+        return new PatientProfileSources(changedPatient, status, coverage, entityInfo, missingSources, staleSources);
+    }
+
+    PatientProfileSources withStatus(Optional<SrPatientStatus> changedStatus) {
+        return new PatientProfileSources(patient, changedStatus, coverage, entityInfo, missingSources, staleSources);
+    }
+
+    PatientProfileSources withCoverage(DenodoCoverage changedCoverage) {
+        return new PatientProfileSources(patient, status, changedCoverage, entityInfo, missingSources, staleSources);
+    }
+
+    PatientProfileSources withEntityInfo(EntityInfo changedEntityInfo) {
+        return new PatientProfileSources(patient, status, coverage, changedEntityInfo, missingSources, staleSources);
+    }
+}
@@ -0,0 +1,18 @@
+package com.davita.cwow.patient.service.model.status;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * One keyset page of a patient's status history. {@code nextCursor} is {@code null} on the last page.
+ */
+@Getter
+@AllArgsConstructor
+public class PatientStatusPage {
+
+    private final List<PatientStatus> statuses;
+
+    private final String nextCursor;
+}
@@ -0,0 +1,270 @@
+package com.davita.cwow.patient.service.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Hedges idempotent remote reads against tail latency: when a request has not answered after the configured
+ * percentile of recent latencies, a second identical request is sent and whichever succeeds first is returned.
+ * <p>
+ * Extra load is capped by a budget that grows by {@code maxExtraLoad} per call, so at most that fraction of calls is
+ * hedged over time. No request is hedged before {@code minSamples} latencies have been observed. When disabled, calls
+ * run directly on the calling thread. When the executor rejects a hedge it is not sent; when it rejects the primary
+ * request, that runs on the calling thread unhedged. The attempt that loses is cancelled as soon as the other one
+ * succeeds, and an interrupted caller cancels both; cancelling interrupts the thread running the attempt. Published
+ * metrics: {@code hedge.calls}, {@code hedge.sent},
+ * {@code hedge.wins}, {@code hedge.throttled}, {@code hedge.rejected} and the {@code hedge.delay} gauge, all tagged
+ * with {@code name}.
+ */
+public class RequestHedger {
+
+    private static final int WINDOW_SIZE = 1024;
+
+    private static final int RECOMPUTE_EVERY = 32;
+
+    private static final long BUDGET_UNIT = 1_000_000L;
+
+    private static final long BUDGET_BURST = 10 * BUDGET_UNIT;
+
+    private final String name;
+
+    private final boolean enabled;
+
+    private final Executor executor;
+
+    private final double percentile;
+
+    private final long minDelayNanos;
+
+    private final long maxDelayNanos;
+
+    private final int minSamples;
+
+    private final long budgetPerCall;
+
+    private final AtomicLong budget = new AtomicLong();
+
+    private final long[] latencies = new long[WINDOW_SIZE];
+
+    private long recorded;
+
+    private volatile long hedgeDelayNanos = -1;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public RequestHedger(String name, boolean enabled, Executor executor, double percentile, Duration minDelay,
+            Duration maxDelay, int minSamples, double maxExtraLoad) {
+        this.name = name;
+        this.enabled = enabled;
+        this.executor = executor;
+        this.percentile = percentile;
+        this.minDelayNanos = minDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.minSamples = Math.min(minSamples, WINDOW_SIZE);
+        this.budgetPerCall = (long) (maxExtraLoad * BUDGET_UNIT);
+    }
+
+    public <V> V call(Supplier<V> request) {
+        if (!enabled) {
+            return request.get();
+        }
+        calls.increment();
+        addBudget();
+        Attempt<V> primary;
+        try {
+            primary = attempt(request);
+        } catch (RejectedExecutionException exception) {
+            rejected.increment();
+            long startNanos = System.nanoTime();
+            V result = request.get();
+            record(System.nanoTime() - startNanos);
+            return result;
+        }
+        Attempt<V> hedge = null;
+        try {
+            long delayNanos = hedgeDelayNanos;
+            if (delayNanos < 0) {
+                return await(primary.result);
+            }
+            try {
+                return primary.result.get(delayNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException exception) {
+                // hedged below
+            } catch (ExecutionException exception) {
+                throw rethrow(exception.getCause());
+            }
+            if (!tryTakeBudget()) {
+                throttled.increment();
+                return await(primary.result);
+            }
+            try {
+                hedge = attempt(request);
+            } catch (RejectedExecutionException exception) {
+                rejected.increment();
+                budget.addAndGet(BUDGET_UNIT);
+                return await(primary.result);
+            }
+            hedges.increment();
+            CompletableFuture<V> firstSuccess = new CompletableFuture<>();
+            AtomicInteger failures = new AtomicInteger();
+            primary.result.whenComplete((value, failure) -> complete(firstSuccess, value, failure, failures, false));
+            hedge.result.whenComplete((value, failure) -> complete(firstSuccess, value, failure, failures, true));
+            return await(firstSuccess);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + name, exception);
+        } finally {
+            primary.cancel();
+            if (Objects.nonNull(hedge)) {
+                hedge.cancel();
+            }
+        }
+    }
+
+    /**
+     * Current hedge delay in nanoseconds, or -1 while too few latencies have been observed.
+     */
+    public long getHedgeDelayNanos() {
+        return hedgeDelayNanos;
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("hedge.calls", calls, LongAdder::sum)
+                .tag("name", name)
+                .register(registry);
+        FunctionCounter.builder("hedge.sent", hedges, LongAdder::sum)
+                .tag("name", name)
+                .register(registry);
+        FunctionCounter.builder("hedge.wins", hedgeWins, LongAdder::sum)
+                .tag("name", name)
+                .register(registry);
+        FunctionCounter.builder("hedge.throttled", throttled, LongAdder::sum)
+                .tag("name", name)
+                .register(registry);
+        FunctionCounter.builder("hedge.rejected", rejected, LongAdder::sum)
+                .tag("name", name)
+                .register(registry);
+        Gauge.builder("hedge.delay", this, hedger -> Math.max(hedger.hedgeDelayNanos, 0) / 1_000_000.0)
+                .tag("name", name)
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+
+    private <V> Attempt<V> attempt(Supplier<V> request) {
+        Attempt<V> attempt = new Attempt<>(request);
+        executor.execute(attempt.task);
+        return attempt;
+    }
+
+    private <V> void complete(CompletableFuture<V> firstSuccess, V value, Throwable failure, AtomicInteger failures,
+            boolean hedge) {
+        if (Objects.isNull(failure)) {
+            if (firstSuccess.complete(value) && hedge) {
+                hedgeWins.increment();
+            }
+        } else if (failures.incrementAndGet() == 2) {
+            firstSuccess.completeExceptionally(failure);
+        }
+    }
+
+    private synchronized void record(long latencyNanos) {
+        latencies[(int) (recorded++ % WINDOW_SIZE)] = latencyNanos;
+        if (recorded >= minSamples && (hedgeDelayNanos < 0 || recorded % RECOMPUTE_EVERY == 0)) {
+            long[] window = Arrays.copyOf(latencies, (int) Math.min(recorded, WINDOW_SIZE));
+            Arrays.sort(window);
+            long delay = window[(int) Math.min(window.length - 1, Math.ceil(percentile * window.length) - 1)];
+            hedgeDelayNanos = Math.max(minDelayNanos, Math.min(maxDelayNanos, delay));
+        }
+    }
+
+    private void addBudget() {
+        budget.accumulateAndGet(budgetPerCall, (current, added) -> Math.min(BUDGET_BURST, current + added));
+    }
+
+    private boolean tryTakeBudget() {
+        long current;
+        do {
+            current = budget.get();
+            if (current < BUDGET_UNIT) {
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - BUDGET_UNIT));
+        return true;
+    }
+
+    private <V> V await(CompletableFuture<V> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException exception) {
+            throw rethrow(exception.getCause());
+        }
+    }
+
+    private RuntimeException rethrow(Throwable failure) {
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new IllegalStateException(name + " request failed", failure);
+    }
+
+    /**
+     * One request sent to the executor. It runs as a {@link FutureTask}, so cancelling it interrupts the thread
+     * running it; {@code result} completes with its outcome. Only successful attempts record their latency.
+     */
+    private final class Attempt<V> {
+
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+
+        private final FutureTask<V> task;
+
+        private Attempt(Supplier<V> request) {
+            long startNanos = System.nanoTime();
+            this.task = new FutureTask<V>(request::get) {
+                @Override
+                protected void done() {
+                    if (isCancelled()) {
+                        result.cancel(false);
+                        return;
+                    }
+                    try {
+                        V value = get();
+                        record(System.nanoTime() - startNanos);
+                        result.complete(value);
+                    } catch (ExecutionException exception) {
+                        result.completeExceptionally(exception.getCause());
+                    } catch (InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                        result.completeExceptionally(exception);
+                    }
+                }
+            };
+        }
+
+        private void cancel() {
+            task.cancel(true);
+        }
+    }
+}
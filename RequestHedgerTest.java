@@ -0,0 +1,209 @@
+package com.davita.cwow.patient.service.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestHedgerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void slowRequestIsHedgedAndFastestAnswerWins() throws Exception {
+        RequestHedger hedger = warmedUp(1.0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String answer = hedger.call(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                await(release);
+                return "primary";
+            }
+            return "hedge";
+        });
+
+        assertEquals("hedge", answer);
+        assertEquals(2, attempts.get());
+        assertEquals(1.0, registry.get("hedge.sent").functionCounter().count());
+        assertEquals(1.0, registry.get("hedge.wins").functionCounter().count());
+    }
+
+    @Test
+    void losingAttemptIsCancelledOnceTheOtherSucceeds() throws Exception {
+        RequestHedger hedger = warmedUp(1.0);
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch primaryInterrupted = new CountDownLatch(1);
+
+        String answer = hedger.call(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                try {
+                    release.await();
+                } catch (InterruptedException exception) {
+                    primaryInterrupted.countDown();
+                }
+                return "primary";
+            }
+            return "hedge";
+        });
+
+        assertEquals("hedge", answer);
+        assertTrue(primaryInterrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void interruptedCallerCancelsBothAttempts() throws Exception {
+        RequestHedger hedger = warmedUp(1.0);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch interrupted = new CountDownLatch(2);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        AtomicBoolean callerInterrupted = new AtomicBoolean();
+        Thread caller = new Thread(() -> {
+            try {
+                hedger.call(() -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException exception) {
+                        interrupted.countDown();
+                    }
+                    return "late";
+                });
+            } catch (IllegalStateException exception) {
+                failure.set(exception);
+                callerInterrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        caller.start();
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        caller.interrupt();
+        caller.join(1000);
+
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        assertNotNull(failure.get());
+        assertTrue(callerInterrupted.get());
+    }
+
+    @Test
+    void hedgesAreCappedByTheExtraLoadBudget() throws Exception {
+        RequestHedger hedger = warmedUp(0.0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String answer = hedger.call(() -> {
+            attempts.incrementAndGet();
+            sleep(100);
+            return "primary";
+        });
+
+        assertEquals("primary", answer);
+        assertEquals(1, attempts.get());
+        assertEquals(0.0, registry.get("hedge.sent").functionCounter().count());
+        assertEquals(1.0, registry.get("hedge.throttled").functionCounter().count());
+    }
+
+    @Test
+    void failureIsRethrownWhenEveryAttemptFails() throws Exception {
+        RequestHedger hedger = warmedUp(1.0);
+        IllegalArgumentException failure = new IllegalArgumentException("shard unavailable");
+
+        assertSame(failure, assertThrows(IllegalArgumentException.class, () -> hedger.call(() -> {
+            sleep(100);
+            throw failure;
+        })));
+        assertEquals(1.0, registry.get("hedge.sent").functionCounter().count());
+    }
+
+    @Test
+    void rejectedHedgeIsSkippedInsteadOfRunOnTheCaller() throws Exception {
+        AtomicBoolean saturated = new AtomicBoolean();
+        Executor saturable = task -> {
+            if (saturated.get()) {
+                throw new RejectedExecutionException("pool is busy");
+            }
+            executor.execute(task);
+        };
+        RequestHedger hedger = new RequestHedger("es.pillars", true, saturable, 0.5, Duration.ofMillis(10),
+                Duration.ofMillis(50), 1, 1.0);
+        hedger.bindTo(registry);
+        hedger.call(() -> "warm-up");
+        while (hedger.getHedgeDelayNanos() < 0) {
+            Thread.sleep(1);
+        }
+        Thread caller = Thread.currentThread();
+
+        Thread answeredBy = hedger.call(() -> {
+            saturated.set(true);
+            sleep(100);
+            return Thread.currentThread();
+        });
+
+        assertNotSame(caller, answeredBy);
+        assertEquals(0.0, registry.get("hedge.sent").functionCounter().count());
+        assertEquals(1.0, registry.get("hedge.rejected").functionCounter().count());
+        assertSame(caller, hedger.call(Thread::currentThread));
+        assertEquals(2.0, registry.get("hedge.rejected").functionCounter().count());
+    }
+
+    @Test
+    void disabledHedgerCallsOnTheCallingThread() {
+        RequestHedger hedger = new RequestHedger("es.pillars", false, executor, 0.5, Duration.ofMillis(10),
+                Duration.ofMillis(50), 1, 1.0);
+
+        assertSame(Thread.currentThread(), hedger.call(Thread::currentThread));
+    }
+
+    private RequestHedger warmedUp(double maxExtraLoad) throws InterruptedException {
+        RequestHedger hedger = new RequestHedger("es.pillars", true, executor, 0.5, Duration.ofMillis(10),
+                Duration.ofMillis(50), 1, maxExtraLoad);
+        hedger.bindTo(registry);
+        hedger.call(() -> "warm-up");
+        while (hedger.getHedgeDelayNanos() < 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(Duration.ofMillis(10).toNanos(), hedger.getHedgeDelayNanos());
+        return hedger;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.davita.cwow.patient.service.metrics;
+
+import org.springframework.core.task.TaskDecorator;
+
+import java.util.Objects;
+
+/**
+ * Endpoint and facility of the request a thread is working for, used to tag dependency timers. Set by
+ * {@link DependencyMetricsInterceptor} on the request thread and carried to executor threads by {@link #TASK_DECORATOR}.
+ */
+public final class RequestMetricsContext {
+
+    static final String NONE = "none";
+
+    static final RequestMetricsContext EMPTY = new RequestMetricsContext(NONE, NONE);
+
+    private static final ThreadLocal<RequestMetricsContext> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Runs tasks with the context of the submitting thread and restores the worker's own context afterwards, which
+     * matters when a saturated pool runs the task on the caller.
+     */
+    public static final TaskDecorator TASK_DECORATOR = task -> {
+        RequestMetricsContext captured = CURRENT.get();
+        return () -> {
+            RequestMetricsContext previous = CURRENT.get();
+            set(captured);
+            try {
+                task.run();
+            } finally {
+                set(previous);
+            }
+        };
+    };
+
+    private final String endpoint;
+
+    private final String facility;
+
+    RequestMetricsContext(String endpoint, String facility) {
+        this.endpoint = endpoint;
+        this.facility = facility;
+    }
+
+    public static RequestMetricsContext current() {
+        RequestMetricsContext context = CURRENT.get();
+        return Objects.nonNull(context) ? context : EMPTY;
+    }
+
+    static void set(RequestMetricsContext context) {
+        if (Objects.nonNull(context)) {
+            CURRENT.set(context);
+        } else {
+            CURRENT.remove();
+        }
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getFacility() {
+        return facility;
+    }
+}
@@ -0,0 +1,123 @@
+package com.davita.cwow.patient.benchmark;
+
+import com.davita.cwow.patient.service.model.schedule.MissedTreatment;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import com.davita.cwow.patient.service.model.status.PatientStatus;
+import com.davita.cwow.patient.spanner.enricher.UserEnteredBaseAggregateEnricher;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrPatientStatusConverter;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionHistToScheduleExceptionTrackConverter;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToMissedTreatmentConverter;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToTreatingElsewhereConverter;
+import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
+import com.davita.cwow.patient.spanner.model.status.SrPatientStatus;
+import com.davita.cwow.patient.spanner.service.PatientMpiService;
+import com.davita.cwow.patient.spanner.util.DateTimeUtils;
+import com.davita.cwow.patient.spanner.util.UuidUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code convertCollectionToListWithContext} of the Spanner treating-elsewhere, missed-treatment and patient-status
+ * converters over lists the size of a single patient's history and of a facility-wide read. Both schedule-exception
+ * converters map the same rows, so their costs can be compared directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScheduleExceptionConversionBenchmark {
+
+    @Param({"10", "1000"})
+    private int rowCount;
+
+    private SrScheduleExceptionToTreatingElsewhereConverter treatingElsewhereConverter;
+    private SrScheduleExceptionToMissedTreatmentConverter missedTreatmentConverter;
+    private SrPatientStatusConverter patientStatusConverter;
+    private List<SrScheduleException> scheduleExceptions;
+    private List<SrPatientStatus> patientStatuses;
+
+    @Setup
+    public void setUp() {
+        treatingElsewhereConverter = new SrScheduleExceptionToTreatingElsewhereConverter(
+                BenchmarkStandIns.stub(UserEnteredBaseAggregateEnricher.class),
+                BenchmarkStandIns.stub(PatientMpiService.class),
+                BenchmarkStandIns.stub(SrScheduleExceptionHistToScheduleExceptionTrackConverter.class));
+        missedTreatmentConverter = new SrScheduleExceptionToMissedTreatmentConverter(
+                BenchmarkStandIns.stub(UserEnteredBaseAggregateEnricher.class),
+                BenchmarkStandIns.stub(PatientMpiService.class),
+                BenchmarkStandIns.stub(SrScheduleExceptionHistToScheduleExceptionTrackConverter.class));
+        patientStatusConverter = new SrPatientStatusConverter(
+                BenchmarkStandIns.stub(UserEnteredBaseAggregateEnricher.class),
+                BenchmarkStandIns.stub(PatientMpiService.class));
+
+        scheduleExceptions = new ArrayList<>(rowCount);
+        patientStatuses = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            String mpi = String.valueOf(1740000 + i);
+            scheduleExceptions.add(createScheduleException(mpi));
+            patientStatuses.add(SrPatientStatus.builder()
+                    .masterPatientIdentifier(mpi)
+                    .createDateTimeGmt(new Timestamp(1523355010000L + i * 60_000L))
+                    .patientStatusCodeId("code id-" + i)
+                    .facilityNumber("03436")
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public List<TreatingElsewhere> treatingElsewhere() {
+        return treatingElsewhereConverter.convertCollectionToListWithContext(scheduleExceptions);
+    }
+
+    @Benchmark
+    public List<MissedTreatment> missedTreatment() {
+        return missedTreatmentConverter.convertCollectionToListWithContext(scheduleExceptions);
+    }
+
+    @Benchmark
+    public List<PatientStatus> patientStatus() {
+        return patientStatusConverter.convertCollectionToListWithContext(patientStatuses);
+    }
+
+    private static SrScheduleException createScheduleException(String mpi) {
+        return SrScheduleException.builder()
+                .patientId(UuidUtils.fromStringKey(mpi))
+                .scheduleExceptionId(UUID.randomUUID())
+                .facilityNumberDocumentedAt("03436")
+                .enteredInErrorFlag(false)
+                .exceptionTypeDisplayName("Treating Elsewhere")
+                .exceptionTypeRecordNumber(12)
+                .locationName("location name")
+                .reasonCodeId("code id")
+                .reasonDisplay("display name")
+                .reasonTxt("reason txt")
+                .hospitalId("hospital id")
+                .hospitalName("hospital name")
+                .sourceCodeId("source code id")
+                .sourceDisplay("source display")
+                .sourceTxt("source txt")
+                .exceptionStartDate(DateTimeUtils.currentTimestampUTC())
+                .exceptionEndDate(DateTimeUtils.currentTimestampUTC())
+                .recordVersion(1)
+                .createDateTimeGmt(DateTimeUtils.currentTimestampUTC())
+                .updateDateTimeGmt(DateTimeUtils.currentTimestampUTC())
+                .build();
+    }
+}
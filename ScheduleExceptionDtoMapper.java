@@ -0,0 +1,33 @@
+package com.davita.cwow.patient.spanner.model.converters.dto;
+
+import com.davita.cwow.patient.service.model.schedule.MissedTreatment;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import com.davita.cwow.patient.service.model.schedule.dto.MissedTreatmentDto;
+import com.davita.cwow.patient.service.model.schedule.dto.TreatingElsewhereDto;
+import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
+import org.mapstruct.ReportingPolicy;
+
+/**
+ * Domain to detail-DTO copies for schedule exception events, generated at compile time. History, facility name and
+ * track list are filled in by the query services. Also copies domain events for callers that must not share them.
+ * Any other target property without a source fails the build, so a field added to a DTO is never silently left empty.
+ */
+@Mapper(componentModel = "spring", unmappedTargetPolicy = ReportingPolicy.ERROR)
+public interface ScheduleExceptionDtoMapper {
+
+    @Mapping(target = "history", ignore = true)
+    @Mapping(target = "facilityName", ignore = true)
+    @Mapping(target = "scheduleExceptionTrackList", ignore = true)
+    MissedTreatmentDto toMissedTreatmentDto(MissedTreatment missedTreatment);
+
+    @Mapping(target = "history", ignore = true)
+    @Mapping(target = "facilityName", ignore = true)
+    @Mapping(target = "scheduleExceptionTrackList", ignore = true)
+    TreatingElsewhereDto toTreatingElsewhereDto(TreatingElsewhere treatingElsewhere);
+
+    /**
+     * Field by field copy; nested reference data is shared.
+     */
+    TreatingElsewhere copy(TreatingElsewhere treatingElsewhere);
+}
@@ -0,0 +1,169 @@
+package com.davita.cwow.patient.spanner.model.converters.dto;
+
+import com.davita.cwow.model.domain.ref.codesets.CodeConceptRefData;
+import com.davita.cwow.patient.service.model.schedule.MissedTreatment;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import com.davita.cwow.patient.service.model.schedule.dto.MissedTreatmentDto;
+import com.davita.cwow.patient.service.model.schedule.dto.TreatingElsewhereDto;
+import org.junit.jupiter.api.Test;
+import org.mapstruct.factory.Mappers;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Maps events with every writable property set and checks every writable property of the result, so a property the
+ * generated mapper drops fails here even when it is not named in the test.
+ */
+class ScheduleExceptionDtoMapperTest {
+
+    private static final Set<String> FILLED_BY_QUERY_SERVICES =
+            new HashSet<>(Arrays.asList("history", "facilityName", "scheduleExceptionTrackList"));
+
+    private static final int MAX_NESTING = 2;
+
+    private final ScheduleExceptionDtoMapper mapper = Mappers.getMapper(ScheduleExceptionDtoMapper.class);
+
+    @Test
+    void toTreatingElsewhereDtoCopiesEveryProperty() throws Exception {
+        TreatingElsewhere treatingElsewhere = populated(TreatingElsewhere.class, 0);
+
+        TreatingElsewhereDto dto = mapper.toTreatingElsewhereDto(treatingElsewhere);
+
+        assertEveryPropertyCopied(treatingElsewhere, dto);
+    }
+
+    @Test
+    void toMissedTreatmentDtoCopiesEveryProperty() throws Exception {
+        MissedTreatment missedTreatment = populated(MissedTreatment.class, 0);
+
+        MissedTreatmentDto dto = mapper.toMissedTreatmentDto(missedTreatment);
+
+        assertEveryPropertyCopied(missedTreatment, dto);
+    }
+
+    @Test
+    void copyCopiesEveryProperty() throws Exception {
+        TreatingElsewhere treatingElsewhere = populated(TreatingElsewhere.class, 0);
+
+        TreatingElsewhere copy = mapper.copy(treatingElsewhere);
+
+        assertNotSame(treatingElsewhere, copy);
+        for (PropertyDescriptor property : writableProperties(TreatingElsewhere.class)) {
+            assertEquals(property.getReadMethod().invoke(treatingElsewhere), property.getReadMethod().invoke(copy),
+                    property.getName());
+        }
+    }
+
+    private static void assertEveryPropertyCopied(Object source, Object dto) throws Exception {
+        List<PropertyDescriptor> properties = writableProperties(dto.getClass());
+        assertFalse(properties.isEmpty());
+        for (PropertyDescriptor property : properties) {
+            Object mapped = property.getReadMethod().invoke(dto);
+            if (FILLED_BY_QUERY_SERVICES.contains(property.getName())) {
+                assertNull(mapped, property.getName());
+                continue;
+            }
+            Object expected = new PropertyDescriptor(property.getName(), source.getClass()).getReadMethod().invoke(source);
+            assertNotNull(expected, property.getName());
+            assertEquals(expected, mapped, property.getName());
+        }
+    }
+
+    private static <T> T populated(Class<T> type, int nesting) throws Exception {
+        T bean = type.getDeclaredConstructor().newInstance();
+        for (PropertyDescriptor property : writableProperties(type)) {
+            if (!FILLED_BY_QUERY_SERVICES.contains(property.getName())) {
+                property.getWriteMethod().invoke(bean,
+                        sampleValue(property.getWriteMethod().getGenericParameterTypes()[0], property.getName(), nesting));
+            }
+        }
+        return bean;
+    }
+
+    private static List<PropertyDescriptor> writableProperties(Class<?> type) throws IntrospectionException {
+        List<PropertyDescriptor> properties = new ArrayList<>();
+        for (PropertyDescriptor property : Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+            if (property.getReadMethod() != null && property.getWriteMethod() != null) {
+                properties.add(property);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * A distinct non-null value per property name, so a property mapped from the wrong source does not pass.
+     */
+    private static Object sampleValue(Type type, String name, int nesting) throws Exception {
+        Class<?> raw = (Class<?>) (type instanceof ParameterizedType ? ((ParameterizedType) type).getRawType() : type);
+        if (raw == String.class) {
+            return name + " value";
+        }
+        if (raw == UUID.class) {
+            return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8));
+        }
+        if (raw == Boolean.class || raw == boolean.class) {
+            return true;
+        }
+        if (raw == Integer.class || raw == int.class) {
+            return name.length();
+        }
+        if (raw == Long.class || raw == long.class) {
+            return (long) name.length();
+        }
+        if (raw == ZonedDateTime.class) {
+            return ZonedDateTime.of(2019, 9, 1, 0, 0, 0, 0, ZoneOffset.UTC).plusHours(name.length());
+        }
+        if (raw == LocalDate.class) {
+            return LocalDate.of(2019, 9, 1).plusDays(name.length());
+        }
+        if (raw == LocalDateTime.class) {
+            return LocalDateTime.of(2019, 9, 1, 0, 0).plusHours(name.length());
+        }
+        if (raw == Instant.class) {
+            return Instant.parse("2019-09-01T00:00:00Z").plusSeconds(name.length());
+        }
+        if (raw == Timestamp.class) {
+            return Timestamp.from(Instant.parse("2019-09-01T00:00:00Z").plusSeconds(name.length()));
+        }
+        if (raw == CodeConceptRefData.class) {
+            return CodeConceptRefData.builder().codeId(name + " code").displayName(name + " display").build();
+        }
+        if (raw.isEnum()) {
+            return raw.getEnumConstants()[0];
+        }
+        if (Collection.class.isAssignableFrom(raw)) {
+            Type elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+            Collection<Object> values = Set.class.isAssignableFrom(raw) ? new HashSet<>() : new ArrayList<>();
+            values.add(sampleValue(elementType, name, nesting + 1));
+            return values;
+        }
+        if (nesting >= MAX_NESTING) {
+            return raw.getDeclaredConstructor().newInstance();
+        }
+        return populated(raw, nesting + 1);
+    }
+}
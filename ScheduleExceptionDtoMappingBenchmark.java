@@ -0,0 +1,110 @@
+package com.davita.cwow.patient.benchmark;
+
+import com.davita.cwow.model.domain.ref.codesets.CodeConceptRefData;
+import com.davita.cwow.patient.service.model.schedule.MissedTreatment;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import com.davita.cwow.patient.service.model.schedule.dto.MissedTreatmentDto;
+import com.davita.cwow.patient.service.model.schedule.dto.TreatingElsewhereDto;
+import com.davita.cwow.patient.spanner.model.converters.dto.ScheduleExceptionDtoMapper;
+import org.mapstruct.factory.Mappers;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of copying schedule exception events into their detail DTOs with the generated
+ * {@link ScheduleExceptionDtoMapper} versus ModelMapper. The {@code ColdStart} benchmarks time the first copy made
+ * by a fresh mapper, which for ModelMapper includes building its type map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScheduleExceptionDtoMappingBenchmark {
+
+    private final ScheduleExceptionDtoMapper generatedMapper = Mappers.getMapper(ScheduleExceptionDtoMapper.class);
+    private final ModelMapper modelMapper = new ModelMapper();
+
+    private MissedTreatment missedTreatment;
+    private TreatingElsewhere treatingElsewhere;
+
+    @Setup
+    public void setUp() {
+        missedTreatment = new MissedTreatment();
+        missedTreatment.setId(UUID.randomUUID());
+        missedTreatment.setIsActive(true);
+        missedTreatment.setIsEnteredInError(false);
+        missedTreatment.setFacilityNumberDocumentedAt("03436");
+        missedTreatment.setStartDate(ZonedDateTime.now());
+
+        treatingElsewhere = new TreatingElsewhere();
+        treatingElsewhere.setId(UUID.randomUUID());
+        treatingElsewhere.setMasterPatientIdentifier("1740099");
+        treatingElsewhere.setFacilityNumberDocumentedAt("03436");
+        treatingElsewhere.setLocationName("location name");
+        treatingElsewhere.setReasonTxt("reason txt");
+        treatingElsewhere.setReason(CodeConceptRefData.builder().codeId("code id").displayName("display name").build());
+        treatingElsewhere.setStartDate(ZonedDateTime.now());
+        treatingElsewhere.setEndDate(ZonedDateTime.now().plusDays(14));
+    }
+
+    @Benchmark
+    public MissedTreatmentDto missedTreatmentGenerated() {
+        return generatedMapper.toMissedTreatmentDto(missedTreatment);
+    }
+
+    @Benchmark
+    public MissedTreatmentDto missedTreatmentModelMapper() {
+        MissedTreatmentDto missedTreatmentDto = new MissedTreatmentDto();
+        modelMapper.map(missedTreatment, missedTreatmentDto);
+        return missedTreatmentDto;
+    }
+
+    @Benchmark
+    public TreatingElsewhereDto treatingElsewhereGenerated() {
+        return generatedMapper.toTreatingElsewhereDto(treatingElsewhere);
+    }
+
+    @Benchmark
+    public TreatingElsewhereDto treatingElsewhereModelMapper() {
+        TreatingElsewhereDto treatingElsewhereDto = new TreatingElsewhereDto();
+        modelMapper.map(treatingElsewhere, treatingElsewhereDto);
+        return treatingElsewhereDto;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 20)
+    @Fork(5)
+    public TreatingElsewhereDto treatingElsewhereGeneratedColdStart() {
+        return Mappers.getMapper(ScheduleExceptionDtoMapper.class).toTreatingElsewhereDto(treatingElsewhere);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 20)
+    @Fork(5)
+    public TreatingElsewhereDto treatingElsewhereModelMapperColdStart() {
+        TreatingElsewhereDto treatingElsewhereDto = new TreatingElsewhereDto();
+        new ModelMapper().map(treatingElsewhere, treatingElsewhereDto);
+        return treatingElsewhereDto;
+    }
+}
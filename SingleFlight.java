@@ -0,0 +1,129 @@
+package com.davita.cwow.patient.service.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the call, callers arriving while it is in
+ * flight wait for and share its result or exception. Nothing is kept once the call completes, so the next caller
+ * starts a fresh call. With a wait timeout, a waiting caller gives up with a
+ * {@link BoundedTtlCache.LoadWaitException} when the call outlasts it or the caller is interrupted; without one it waits
+ * for the call to complete. Calls are published under {@code singleflight.calls} with {@code name} and {@code result}
+ * ({@code executed} or {@code coalesced}) tags, and the number of keys in flight as {@code singleflight.inflight}.
+ */
+public class SingleFlight<K, V> {
+
+    private final String name;
+
+    /**
+     * How long callers wait for a call started by another caller, or -1 to wait until it completes.
+     */
+    private final long waitNanos;
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public SingleFlight(String name) {
+        this.name = name;
+        this.waitNanos = -1;
+    }
+
+    public SingleFlight(String name, Duration waitTimeout) {
+        this.name = name;
+        this.waitNanos = waitTimeout.toNanos();
+    }
+
+    public <E extends Exception> V execute(K key, BoundedTtlCache.Loader<V, E> call) throws E {
+        CompletableFuture<V> ownCall = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, ownCall);
+        if (Objects.nonNull(running)) {
+            coalesced.increment();
+            return await(running);
+        }
+        executed.increment();
+        try {
+            V value = call.load();
+            ownCall.complete(value);
+            return value;
+        } catch (Exception | Error exception) {
+            ownCall.completeExceptionally(exception);
+            throw exception;
+        } finally {
+            inFlight.remove(key, ownCall);
+        }
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("singleflight.calls", executed, LongAdder::sum)
+                .tag("name", name).tag("result", "executed")
+                .register(registry);
+        FunctionCounter.builder("singleflight.calls", coalesced, LongAdder::sum)
+                .tag("name", name).tag("result", "coalesced")
+                .register(registry);
+        Gauge.builder("singleflight.inflight", this, SingleFlight::inFlight)
+                .tag("name", name)
+                .register(registry);
+    }
+
+    private <E extends Exception> V await(CompletableFuture<V> running) throws E {
+        if (waitNanos < 0) {
+            return awaitCompletion(running);
+        }
+        try {
+            return running.get(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException exception) {
+            throw new BoundedTtlCache.LoadWaitException(name + " load did not complete within "
+                    + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms");
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new BoundedTtlCache.LoadWaitException("Interrupted while waiting for a " + name + " load");
+        } catch (ExecutionException exception) {
+            throw this.<E>rethrow(exception);
+        }
+    }
+
+    private <E extends Exception> V awaitCompletion(CompletableFuture<V> running) throws E {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return running.get();
+                } catch (InterruptedException exception) {
+                    interrupted = true;
+                } catch (ExecutionException exception) {
+                    throw this.<E>rethrow(exception);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E extends Exception> E rethrow(ExecutionException exception) throws E {
+        Throwable cause = exception.getCause();
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw (E) cause;
+    }
+}
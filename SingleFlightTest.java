@@ -0,0 +1,130 @@
+package com.davita.cwow.patient.service.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SingleFlightTest {
+
+    private SingleFlight<String, String> singleFlight;
+
+    private SimpleMeterRegistry registry;
+
+    private ExecutorService executor;
+
+    private final CountDownLatch callStarted = new CountDownLatch(1);
+
+    private final CountDownLatch releaseCall = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        singleFlight = new SingleFlight<>("test");
+        registry = new SimpleMeterRegistry();
+        singleFlight.bindTo(registry);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseCall.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallsForTheSameKeyShareOneCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+
+        Future<String> first = executor.submit(() -> singleFlight.execute("mpi", () -> {
+            calls.incrementAndGet();
+            callStarted.countDown();
+            releaseCall.await();
+            return "profile";
+        }));
+        callStarted.await(5, TimeUnit.SECONDS);
+        Future<String> second = executor.submit(() -> singleFlight.execute("mpi", () -> {
+            calls.incrementAndGet();
+            return "other";
+        }));
+        awaitCoalesced(1);
+        releaseCall.countDown();
+
+        assertEquals("profile", first.get(5, TimeUnit.SECONDS));
+        assertEquals("profile", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(0, singleFlight.inFlight());
+        assertEquals(1.0, registry.get("singleflight.calls").tag("result", "executed").functionCounter().count());
+    }
+
+    @Test
+    void failureIsSharedWithWaitingCallers() throws Exception {
+        IOException failure = new IOException("denodo down");
+
+        Future<String> first = executor.submit(() -> singleFlight.execute("mpi", () -> {
+            callStarted.countDown();
+            releaseCall.await();
+            throw failure;
+        }));
+        callStarted.await(5, TimeUnit.SECONDS);
+        Future<String> second = executor.submit(() -> singleFlight.execute("mpi", () -> "other"));
+        awaitCoalesced(1);
+        releaseCall.countDown();
+
+        assertSame(failure, assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS)).getCause());
+        assertSame(failure, assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS)).getCause());
+        assertEquals("retried", singleFlight.execute("mpi", () -> "retried"));
+    }
+
+    @Test
+    void completedCallsAndOtherKeysAreNotShared() throws Exception {
+        Future<String> first = executor.submit(() -> singleFlight.execute("mpi-1", () -> {
+            callStarted.countDown();
+            releaseCall.await();
+            return "first";
+        }));
+        callStarted.await(5, TimeUnit.SECONDS);
+
+        assertEquals("second", singleFlight.execute("mpi-2", () -> "second"));
+        releaseCall.countDown();
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("again", singleFlight.execute("mpi-1", () -> "again"));
+        assertEquals(0.0, registry.get("singleflight.calls").tag("result", "coalesced").functionCounter().count());
+    }
+
+    @Test
+    void waitingCallerGivesUpAfterTheWaitTimeout() throws Exception {
+        SingleFlight<String, String> bounded = new SingleFlight<>("test", Duration.ofMillis(50));
+        Future<String> first = executor.submit(() -> bounded.execute("mpi", () -> {
+            callStarted.countDown();
+            releaseCall.await();
+            return "profile";
+        }));
+        callStarted.await(5, TimeUnit.SECONDS);
+
+        assertThrows(BoundedTtlCache.LoadWaitException.class, () -> bounded.execute("mpi", () -> "other"));
+        releaseCall.countDown();
+        assertEquals("profile", first.get(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitCoalesced(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("singleflight.calls").tag("result", "coalesced").functionCounter().count() < expected
+                && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+}
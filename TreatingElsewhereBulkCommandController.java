@@ -0,0 +1,41 @@
+package com.davita.cwow.patient.service.api.command;
+
+import com.davita.cwow.patient.hmt.service.TreatingElsewhereBulkWriteService;
+import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhereWriteResult;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/v2/treating-elsewhere/bulk")
+@Api(value = "/v2/treating-elsewhere/bulk", tags = { "08 - Treating elsewhere bulk write"})
+public class TreatingElsewhereBulkCommandController {
+
+		@Autowired
+		private TreatingElsewhereBulkWriteService treatingElsewhereBulkWriteService;
+
+		@ApiOperation(value = "Write several treating-elsewhere events", notes = "Commits the events in batches, skips duplicates of active events and returns one result per event in request order", response = TreatingElsewhereWriteResult.class, responseContainer = "List")
+		@PostMapping(consumes = MediaType.APPLICATION_JSON_UTF8_VALUE, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+		@ApiResponses(value = { @ApiResponse(code = 200, message = "Success", response = TreatingElsewhereWriteResult.class, responseContainer = "List"),
+				@ApiResponse(code = 400, message = "Too many events", response = PatientQueryApiException.class),
+				@ApiResponse(code = 401, message = "Unauthorized"),
+				@ApiResponse(code = 500, message = "Internal Server Error", response = PatientQueryApiException.class) })
+		public ResponseEntity<List<TreatingElsewhereWriteResult>> writeTreatingElsewhereEvents(
+				@ApiParam(value = "Treating elsewhere events", required = true) @RequestBody List<TreatingElsewhere> treatingElsewheres,
+				@RequestHeader(value = "facilityId") String facilityId) throws PatientQueryApiException {
+			return ResponseEntity.ok(treatingElsewhereBulkWriteService.writeAll(treatingElsewheres));
+		}
+}
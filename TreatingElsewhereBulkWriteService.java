@@ -0,0 +1,164 @@
+package com.davita.cwow.patient.hmt.service;
+
+import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
+import com.davita.cwow.patient.service.model.MpiSet;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhereWriteResult;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhereWriteResult.Status;
+import com.davita.cwow.patient.service.repository.SrScheduleExceptionRepository;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToTreatingElsewhereConverter;
+import com.davita.cwow.patient.spanner.model.converters.tospanner.TreatingElsewhereConverter;
+import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Writes many treating-elsewhere events with one Spanner commit per batch instead of one per event. Events that repeat
+ * an active event of the same patient (same facility, location and dates), or an earlier event of the same request,
+ * are skipped. A batch that fails to commit is retried event by event, so one bad event only fails itself. Requests
+ * with more than {@code hmt.treating-elsewhere.bulk.max-events} events are rejected before anything is read.
+ */
+@Slf4j
+@Service
+public class TreatingElsewhereBulkWriteService {
+
+	private final SrScheduleExceptionRepository srScheduleExceptionRepository;
+
+	private final TreatingElsewhereConverter treatingElsewhereConverter;
+
+	private final SrScheduleExceptionToTreatingElsewhereConverter scheduleExceptionToTreatingElsewhereConverter;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final int batchSize;
+
+	private final int maxEvents;
+
+	@Autowired
+	public TreatingElsewhereBulkWriteService(SrScheduleExceptionRepository srScheduleExceptionRepository,
+			TreatingElsewhereConverter treatingElsewhereConverter,
+			SrScheduleExceptionToTreatingElsewhereConverter scheduleExceptionToTreatingElsewhereConverter,
+			PlatformTransactionManager transactionManager,
+			@Value("${hmt.treating-elsewhere.bulk.batch-size:200}") int batchSize,
+			@Value("${hmt.treating-elsewhere.bulk.max-events:1000}") int maxEvents) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("hmt.treating-elsewhere.bulk.batch-size must be positive: " + batchSize);
+		}
+		if (maxEvents <= 0) {
+			throw new IllegalArgumentException("hmt.treating-elsewhere.bulk.max-events must be positive: " + maxEvents);
+		}
+		this.srScheduleExceptionRepository = srScheduleExceptionRepository;
+		this.treatingElsewhereConverter = treatingElsewhereConverter;
+		this.scheduleExceptionToTreatingElsewhereConverter = scheduleExceptionToTreatingElsewhereConverter;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.batchSize = batchSize;
+		this.maxEvents = maxEvents;
+	}
+
+	/**
+	 * Writes the events and returns one result per event, in request order. Events without an id get a new one; an
+	 * event repeating the id of an earlier event in the request is rejected.
+	 */
+	public List<TreatingElsewhereWriteResult> writeAll(List<TreatingElsewhere> treatingElsewheres)
+			throws PatientQueryApiException {
+		if (treatingElsewheres.size() > maxEvents) {
+			throw new PatientQueryApiException(HttpStatus.BAD_REQUEST,
+					"At most " + maxEvents + " treating-elsewhere events can be written at once");
+		}
+		TreatingElsewhereWriteResult[] results = new TreatingElsewhereWriteResult[treatingElsewheres.size()];
+		List<Integer> candidates = new ArrayList<>(treatingElsewheres.size());
+		Set<UUID> requestedIds = new HashSet<>();
+		for (int i = 0; i < treatingElsewheres.size(); i++) {
+			TreatingElsewhere treatingElsewhere = treatingElsewheres.get(i);
+			if (Objects.isNull(treatingElsewhere) || Objects.isNull(treatingElsewhere.getMasterPatientIdentifier())) {
+				results[i] = new TreatingElsewhereWriteResult(i, null, Status.REJECTED, "masterPatientIdentifier is required");
+			} else if (Objects.nonNull(treatingElsewhere.getId()) && !requestedIds.add(treatingElsewhere.getId())) {
+				results[i] = new TreatingElsewhereWriteResult(i, treatingElsewhere.getId(), Status.REJECTED,
+						"Repeats id " + treatingElsewhere.getId() + " of an earlier event in the request");
+			} else {
+				candidates.add(i);
+			}
+		}
+
+		Map<List<Object>, UUID> written = existingEvents(candidates.stream()
+				.map(i -> treatingElsewheres.get(i).getMasterPatientIdentifier())
+				.collect(Collectors.toList()));
+		List<Integer> toWrite = new ArrayList<>(candidates.size());
+		for (Integer i : candidates) {
+			TreatingElsewhere treatingElsewhere = treatingElsewheres.get(i);
+			List<Object> key = duplicateKey(treatingElsewhere);
+			UUID sameEvent = written.get(key);
+			if (Objects.nonNull(sameEvent) && !sameEvent.equals(treatingElsewhere.getId())) {
+				results[i] = new TreatingElsewhereWriteResult(i, sameEvent, Status.DUPLICATE, "Matches active event " + sameEvent);
+				continue;
+			}
+			if (Objects.isNull(treatingElsewhere.getId())) {
+				treatingElsewhere.setId(UUID.randomUUID());
+			}
+			written.put(key, treatingElsewhere.getId());
+			toWrite.add(i);
+		}
+
+		for (int start = 0; start < toWrite.size(); start += batchSize) {
+			List<Integer> batch = toWrite.subList(start, Math.min(start + batchSize, toWrite.size()));
+			if (!commit(batch, treatingElsewheres, results) && batch.size() > 1) {
+				batch.forEach(i -> commit(Collections.singletonList(i), treatingElsewheres, results));
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Converts and saves the events in one read-write transaction, so their mutations are sent in a single commit. The
+	 * conversion publishes a change event for each event, which reaches the interval index only if the commit succeeds.
+	 */
+	private boolean commit(List<Integer> batch, List<TreatingElsewhere> treatingElsewheres,
+			TreatingElsewhereWriteResult[] results) {
+		try {
+			transactionTemplate.execute(status -> srScheduleExceptionRepository.saveAll(batch.stream()
+					.map(i -> treatingElsewhereConverter.convert(treatingElsewheres.get(i)))
+					.collect(Collectors.toList())));
+		} catch (RuntimeException e) {
+			if (batch.size() > 1) {
+				log.warn("Treating elsewhere batch of {} events failed, retrying one by one", batch.size(), e);
+			} else {
+				Integer i = batch.get(0);
+				log.warn("Treating elsewhere event {} could not be written", treatingElsewheres.get(i).getId(), e);
+				results[i] = new TreatingElsewhereWriteResult(i, treatingElsewheres.get(i).getId(), Status.FAILED, e.getMessage());
+			}
+			return false;
+		}
+		batch.forEach(i -> results[i] = new TreatingElsewhereWriteResult(i, treatingElsewheres.get(i).getId(),
+				Status.WRITTEN, null));
+		return true;
+	}
+
+	private Map<List<Object>, UUID> existingEvents(List<String> mpis) {
+		Map<List<Object>, UUID> existing = new HashMap<>();
+		for (MpiSet chunk : MpiSet.of(mpis).chunks(batchSize)) {
+			List<SrScheduleException> active = srScheduleExceptionRepository.findAllActiveTreatingElsewhereByMpi(chunk);
+			if (!active.isEmpty()) {
+				scheduleExceptionToTreatingElsewhereConverter.convertCollectionToListWithContext(active)
+						.forEach(treatingElsewhere -> existing.putIfAbsent(duplicateKey(treatingElsewhere), treatingElsewhere.getId()));
+			}
+		}
+		return existing;
+	}
+
+	private static List<Object> duplicateKey(TreatingElsewhere treatingElsewhere) {
+		return Arrays.asList(treatingElsewhere.getMasterPatientIdentifier(),
+				Optional.ofNullable(treatingElsewhere.getFacilityNumberDocumentedAt()).map(facility -> facility.toUpperCase(Locale.ROOT)).orElse(null),
+				treatingElsewhere.getLocationName(),
+				Optional.ofNullable(treatingElsewhere.getStartDate()).map(ZonedDateTime::toInstant).orElse(null),
+				Optional.ofNullable(treatingElsewhere.getEndDate()).map(ZonedDateTime::toInstant).orElse(null));
+	}
+}
@@ -0,0 +1,170 @@
+package com.davita.cwow.patient.hmt.service;
+
+import com.davita.cwow.patient.service.api.exception.PatientQueryApiException;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhereWriteResult;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhereWriteResult.Status;
+import com.davita.cwow.patient.service.repository.SrScheduleExceptionRepository;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToTreatingElsewhereConverter;
+import com.davita.cwow.patient.spanner.model.converters.tospanner.TreatingElsewhereConverter;
+import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TreatingElsewhereBulkWriteServiceTest {
+
+    private TreatingElsewhereBulkWriteService treatingElsewhereBulkWriteService;
+
+    @Mock
+    private SrScheduleExceptionRepository srScheduleExceptionRepository;
+
+    @Mock
+    private TreatingElsewhereConverter treatingElsewhereConverter;
+
+    @Mock
+    private SrScheduleExceptionToTreatingElsewhereConverter scheduleExceptionToTreatingElsewhereConverter;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        treatingElsewhereBulkWriteService = new TreatingElsewhereBulkWriteService(srScheduleExceptionRepository,
+                treatingElsewhereConverter, scheduleExceptionToTreatingElsewhereConverter, transactionManager, 2, 4);
+        doReturn(Collections.emptyList()).when(srScheduleExceptionRepository).findAllActiveTreatingElsewhereByMpi(anyList());
+        doAnswer(invocation -> SrScheduleException.builder()
+                .locationName(invocation.<TreatingElsewhere>getArgument(0).getLocationName())
+                .build()).when(treatingElsewhereConverter).convert(any(TreatingElsewhere.class));
+        doAnswer(invocation -> invocation.getArgument(0)).when(srScheduleExceptionRepository).saveAll(anyList());
+    }
+
+    @Test
+    public void writeAllCommitsInCappedBatches() throws PatientQueryApiException {
+        List<TreatingElsewhere> events = Arrays.asList(treatingElsewhere("1", "2019-09-29"),
+                treatingElsewhere("2", "2019-09-29"), treatingElsewhere("3", "2019-09-29"));
+
+        List<TreatingElsewhereWriteResult> results = treatingElsewhereBulkWriteService.writeAll(events);
+
+        assertEquals(Arrays.asList(Status.WRITTEN, Status.WRITTEN, Status.WRITTEN), statuses(results));
+        results.forEach(result -> assertEquals(events.get(result.getIndex()).getId(), result.getId()));
+        events.forEach(event -> assertNotNull(event.getId()));
+        verify(srScheduleExceptionRepository).saveAll(argThat(batch -> ((List<?>) batch).size() == 2));
+        verify(srScheduleExceptionRepository).saveAll(argThat(batch -> ((List<?>) batch).size() == 1));
+        verify(transactionManager, times(2)).commit(any());
+    }
+
+    @Test
+    public void writeAllSkipsDuplicatesOfActiveAndEarlierEvents() throws PatientQueryApiException {
+        TreatingElsewhere active = treatingElsewhere("1", "2019-09-29");
+        active.setId(UUID.randomUUID());
+        doReturn(Collections.singletonList(SrScheduleException.builder().build()))
+                .when(srScheduleExceptionRepository).findAllActiveTreatingElsewhereByMpi(anyList());
+        doReturn(new ArrayList<>(Collections.singletonList(active)))
+                .when(scheduleExceptionToTreatingElsewhereConverter).convertCollectionToListWithContext(anyList());
+        TreatingElsewhere update = treatingElsewhere("1", "2019-09-29");
+        update.setId(active.getId());
+        TreatingElsewhere otherOffset = treatingElsewhere("2", "2019-09-30");
+        otherOffset.setStartDate(otherOffset.getStartDate().withZoneSameInstant(ZoneOffset.ofHours(-5)));
+
+        List<TreatingElsewhereWriteResult> results = treatingElsewhereBulkWriteService.writeAll(Arrays.asList(
+                treatingElsewhere("1", "2019-09-29"), update, treatingElsewhere("2", "2019-09-30"), otherOffset,
+                treatingElsewhere("1", "2019-10-01")));
+
+        assertEquals(Arrays.asList(Status.DUPLICATE, Status.WRITTEN, Status.WRITTEN, Status.DUPLICATE, Status.WRITTEN),
+                statuses(results));
+        assertEquals(active.getId(), results.get(0).getId());
+        assertEquals(results.get(2).getId(), results.get(3).getId());
+    }
+
+    @Test
+    public void writeAllRejectsIdsRepeatedWithinTheRequest() throws PatientQueryApiException {
+        TreatingElsewhere first = treatingElsewhere("1", "2019-09-29");
+        first.setId(UUID.randomUUID());
+        TreatingElsewhere repeated = treatingElsewhere("1", "2019-10-06");
+        repeated.setId(first.getId());
+
+        List<TreatingElsewhereWriteResult> results = treatingElsewhereBulkWriteService.writeAll(Arrays.asList(
+                first, repeated, treatingElsewhere("2", "2019-09-29")));
+
+        assertEquals(Arrays.asList(Status.WRITTEN, Status.REJECTED, Status.WRITTEN), statuses(results));
+        assertEquals(first.getId(), results.get(1).getId());
+        verify(treatingElsewhereConverter, never()).convert(repeated);
+    }
+
+    @Test
+    public void writeAllRejectsRequestsOverTheEventCap() {
+        List<TreatingElsewhere> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            events.add(treatingElsewhere(String.valueOf(i), "2019-09-29"));
+        }
+
+        PatientQueryApiException exception = assertThrows(PatientQueryApiException.class,
+                () -> treatingElsewhereBulkWriteService.writeAll(events));
+
+        assertEquals("At most 4 treating-elsewhere events can be written at once", exception.getMessage());
+        verifyZeroInteractions(srScheduleExceptionRepository, treatingElsewhereConverter, transactionManager);
+    }
+
+    @Test
+    public void writeAllIsolatesFailingEvents() throws PatientQueryApiException {
+        doAnswer(invocation -> {
+            List<SrScheduleException> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(srScheduleException -> "bad".equals(srScheduleException.getLocationName()))) {
+                throw new IllegalStateException("Spanner rejected the mutation");
+            }
+            return batch;
+        }).when(srScheduleExceptionRepository).saveAll(anyList());
+        TreatingElsewhere bad = treatingElsewhere("2", "2019-09-29");
+        bad.setLocationName("bad");
+
+        List<TreatingElsewhereWriteResult> results = treatingElsewhereBulkWriteService.writeAll(Arrays.asList(
+                treatingElsewhere("1", "2019-09-29"), bad, null,
+                treatingElsewhere("3", "2019-09-29")));
+
+        assertEquals(Arrays.asList(Status.WRITTEN, Status.FAILED, Status.REJECTED, Status.WRITTEN), statuses(results));
+        assertEquals("Spanner rejected the mutation", results.get(1).getMessage());
+        verify(transactionManager, times(2)).rollback(any());
+        verify(transactionManager, times(2)).commit(any());
+    }
+
+    private List<Status> statuses(List<TreatingElsewhereWriteResult> results) {
+        return results.stream().map(TreatingElsewhereWriteResult::getStatus).collect(Collectors.toList());
+    }
+
+    private TreatingElsewhere treatingElsewhere(String mpi, String startDate) {
+        TreatingElsewhere treatingElsewhere = new TreatingElsewhere();
+        treatingElsewhere.setMasterPatientIdentifier(mpi);
+        treatingElsewhere.setFacilityNumberDocumentedAt("03436");
+        treatingElsewhere.setLocationName("locationName");
+        treatingElsewhere.setStartDate(LocalDate.parse(startDate).atStartOfDay(ZoneOffset.UTC));
+        treatingElsewhere.setEndDate(ZonedDateTime.of(LocalDate.parse(startDate).plusDays(7).atStartOfDay(), ZoneOffset.UTC));
+        return treatingElsewhere;
+    }
+}
@@ -0,0 +1,17 @@
+package com.davita.cwow.patient.service.model.schedule;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Signals that a treating-elsewhere event was written. Published on the application event bus when the event is
+ * converted for Spanner inside a write transaction; listen with a transactional listener to see only committed writes.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class TreatingElsewhereChangedEvent {
+
+	private final TreatingElsewhere treatingElsewhere;
+}
@@ -1,9 +1,13 @@
 package com.davita.cwow.patient.spanner.model.converters.tospanner;
 
 import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhereChangedEvent;
 import com.davita.cwow.patient.service.model.schedule.dto.TreatingElsewhereDto;
 import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.Objects;
 import java.util.Optional;
@@ -12,6 +16,14 @@ import java.util.Optional;
 @Component
 public class TreatingElsewhereConverter extends ScheduleExceptionToSpannerConverter<TreatingElsewhere> {
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Converts the event for saving. Every write path, single or bulk, converts here inside its write transaction, so a
+     * {@link TreatingElsewhereChangedEvent} is published for it; transactional listeners get it once the transaction
+     * commits and never when it rolls back. Conversions outside a transaction publish nothing.
+     */
     @Override
     public SrScheduleException convert(TreatingElsewhere treatingElsewhere) {
         if (Objects.isNull(treatingElsewhere)) {
@@ -25,6 +37,9 @@ public class TreatingElsewhereConverter extends ScheduleExceptionToSpannerConver
         srScheduleException.setReasonTxt(treatingElsewhere.getReasonTxt());
         srScheduleException.setLocationName(treatingElsewhere.getLocationName());
         convertCommonFields(treatingElsewhere, srScheduleException);
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            eventPublisher.publishEvent(new TreatingElsewhereChangedEvent(treatingElsewhere));
+        }
         return srScheduleException;
     }
 }
@@ -2,19 +2,30 @@ package com.davita.cwow.patient.spanner.model.converters.tospanner;
 
 import com.davita.cwow.model.domain.ref.codesets.CodeConceptRefData;
 import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhereChangedEvent;
 import com.davita.cwow.patient.service.model.schedule.dto.TreatingElsewhereDto;
 import com.davita.cwow.patient.spanner.model.converters.TestUtil;
 import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
+import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
 class TreatingElsewhereConverterTest {
 
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
     @InjectMocks
     private TreatingElsewhereConverter converter;
 
@@ -32,6 +43,28 @@ class TreatingElsewhereConverterTest {
         assertTreatingElsewhere(treatingElsewhereDto, converter.convert(treatingElsewhereDto));
     }
 
+    @Test
+    void convertInsideATransactionPublishesTheChange() {
+        TreatingElsewhere treatingElsewhere = buildTreatingElsewhereDto();
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            converter.convert(treatingElsewhere);
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+
+        ArgumentCaptor<Object> published = ArgumentCaptor.forClass(Object.class);
+        verify(eventPublisher).publishEvent(published.capture());
+        assertSame(treatingElsewhere, ((TreatingElsewhereChangedEvent) published.getValue()).getTreatingElsewhere());
+    }
+
+    @Test
+    void convertOutsideATransactionPublishesNothing() {
+        converter.convert(buildTreatingElsewhereDto());
+
+        verify(eventPublisher, never()).publishEvent(any(Object.class));
+    }
+
     private void assertTreatingElsewhere (TreatingElsewhere treatingElsewhere, SrScheduleException srScheduleException) {
         assertEquals(treatingElsewhere.getLocationName(), srScheduleException.getLocationName());
         assertEquals(treatingElsewhere.getReasonTxt(), srScheduleException.getReasonTxt());
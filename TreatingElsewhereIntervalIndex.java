@@ -0,0 +1,354 @@
+package com.davita.cwow.patient.hmt.service;
+
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhereChangedEvent;
+import com.davita.cwow.patient.service.repository.SrScheduleExceptionRepository;
+import com.davita.cwow.patient.spanner.model.converters.dto.ScheduleExceptionDtoMapper;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToTreatingElsewhereConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Per-facility interval index of active treating-elsewhere events, answering "who is treating elsewhere on a date" in
+ * O(log n + k). A facility is loaded from Spanner on first use and fully reloaded once older than the configured TTL.
+ * In between, a query at most every refresh interval reads the facility's rows updated since the last read, which
+ * picks up writes made by other instances. Writes made here are applied as soon as they are committed. Facilities whose
+ * events are older than the TTL, and so would be fully reloaded on their next query anyway, are dropped at most once
+ * per TTL. Events go in and out as copies, so neither writers nor readers share what is indexed.
+ */
+@Component
+public class TreatingElsewhereIntervalIndex {
+
+	/**
+	 * Rows updated shortly before the previous read may not have been visible to it yet, so each refresh reads back this
+	 * far. Applying a row again is harmless.
+	 */
+	private static final Duration REFRESH_OVERLAP = Duration.ofMinutes(1);
+
+	private final SrScheduleExceptionRepository srScheduleExceptionRepository;
+
+	private final SrScheduleExceptionToTreatingElsewhereConverter scheduleExceptionToTreatingElsewhereConverter;
+
+	private final ScheduleExceptionDtoMapper scheduleExceptionDtoMapper;
+
+	private final Duration ttl;
+
+	private final Duration refreshInterval;
+
+	private final Clock clock;
+
+	private final Map<String, Facility> facilities = new ConcurrentHashMap<>();
+
+	private final AtomicReference<Instant> nextEviction;
+
+	@Autowired
+	public TreatingElsewhereIntervalIndex(SrScheduleExceptionRepository srScheduleExceptionRepository,
+			SrScheduleExceptionToTreatingElsewhereConverter scheduleExceptionToTreatingElsewhereConverter,
+			ScheduleExceptionDtoMapper scheduleExceptionDtoMapper,
+			@Value("${hmt.treating-elsewhere.index.ttl:PT5M}") Duration ttl,
+			@Value("${hmt.treating-elsewhere.index.refresh-interval:PT15S}") Duration refreshInterval) {
+		this(srScheduleExceptionRepository, scheduleExceptionToTreatingElsewhereConverter, scheduleExceptionDtoMapper,
+				ttl, refreshInterval, Clock.systemUTC());
+	}
+
+	TreatingElsewhereIntervalIndex(SrScheduleExceptionRepository srScheduleExceptionRepository,
+			SrScheduleExceptionToTreatingElsewhereConverter scheduleExceptionToTreatingElsewhereConverter,
+			ScheduleExceptionDtoMapper scheduleExceptionDtoMapper, Duration ttl, Duration refreshInterval, Clock clock) {
+		this.srScheduleExceptionRepository = srScheduleExceptionRepository;
+		this.scheduleExceptionToTreatingElsewhereConverter = scheduleExceptionToTreatingElsewhereConverter;
+		this.scheduleExceptionDtoMapper = scheduleExceptionDtoMapper;
+		this.ttl = ttl;
+		this.refreshInterval = refreshInterval;
+		this.clock = clock;
+		this.nextEviction = new AtomicReference<>(clock.instant().plus(ttl));
+	}
+
+	/**
+	 * Active events of the given mpis documented at {@code facilityNumber} (case-insensitive) whose start and end dates
+	 * enclose {@code eventDate}, both ends inclusive. The events are copies the caller may change.
+	 */
+	public List<TreatingElsewhere> findActiveOn(String facilityNumber, LocalDate eventDate, Collection<String> mpis) {
+		if (Objects.isNull(facilityNumber) || mpis.isEmpty()) {
+			return Collections.emptyList();
+		}
+		evictExpiredFacilities();
+		return facilities.computeIfAbsent(facilityKey(facilityNumber), Facility::new).events().snapshot()
+				.overlapping(eventDate.toEpochDay(), new HashSet<>(mpis)).stream()
+				.map(scheduleExceptionDtoMapper::copy)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Applies a written event to the facilities already loaded or being loaded, after the surrounding transaction
+	 * commits if there is one. An event that moved facility is dropped from the old one; inactive or entered-in-error
+	 * events are removed. An event without an id cannot be matched to what is indexed, so every facility is reloaded
+	 * on its next query instead.
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onTreatingElsewhereChanged(TreatingElsewhereChangedEvent event) {
+		TreatingElsewhere treatingElsewhere = scheduleExceptionDtoMapper.copy(event.getTreatingElsewhere());
+		if (Objects.isNull(treatingElsewhere.getId())) {
+			facilities.values().forEach(Facility::expire);
+			return;
+		}
+		facilities.values().forEach(facility -> facility.apply(treatingElsewhere));
+	}
+
+	int size() {
+		return facilities.size();
+	}
+
+	/**
+	 * Drops the facilities that would be fully reloaded on their next query anyway, at most once per TTL. A facility
+	 * dropped while a caller still uses it only serves that caller.
+	 */
+	private void evictExpiredFacilities() {
+		Instant now = clock.instant();
+		Instant next = nextEviction.get();
+		if (next.isAfter(now) || !nextEviction.compareAndSet(next, now.plus(ttl))) {
+			return;
+		}
+		facilities.values().removeIf(facility -> facility.isExpired(now));
+	}
+
+	private static boolean isIndexable(TreatingElsewhere treatingElsewhere) {
+		return Objects.nonNull(treatingElsewhere.getFacilityNumberDocumentedAt())
+				&& Objects.nonNull(treatingElsewhere.getStartDate())
+				&& Objects.nonNull(treatingElsewhere.getEndDate())
+				&& !Boolean.TRUE.equals(treatingElsewhere.getIsEnteredInError())
+				&& !Boolean.FALSE.equals(treatingElsewhere.getIsActive());
+	}
+
+	private static String facilityKey(String facilityNumber) {
+		return facilityNumber.toUpperCase(Locale.ROOT);
+	}
+
+	/**
+	 * Loading state of one facility. Spanner is read outside the facility's lock by one caller at a time; callers that
+	 * find a load in progress wait for it only when there is nothing loaded yet. Events written while a read is in
+	 * progress are applied again once its rows are in, so a read that started before a write cannot undo it.
+	 */
+	private final class Facility {
+
+		private final String key;
+
+		private FacilityEvents events;
+
+		private Instant loadedAt;
+
+		private Instant refreshedAt;
+
+		private boolean expired;
+
+		private CompletableFuture<FacilityEvents> loading;
+
+		private List<TreatingElsewhere> changedDuringLoad;
+
+		private Facility(String key) {
+			this.key = key;
+		}
+
+		private FacilityEvents events() {
+			Instant now = clock.instant();
+			CompletableFuture<FacilityEvents> load;
+			boolean reader = false;
+			boolean fullLoad = false;
+			Instant since = null;
+			synchronized (this) {
+				if (Objects.nonNull(loading)) {
+					if (Objects.nonNull(events)) {
+						return events;
+					}
+					load = loading;
+				} else {
+					fullLoad = Objects.isNull(events) || expired || !loadedAt.plus(ttl).isAfter(now);
+					if (!fullLoad && refreshedAt.plus(refreshInterval).isAfter(now)) {
+						return events;
+					}
+					if (fullLoad) {
+						expired = false;
+					} else {
+						since = refreshedAt.minus(REFRESH_OVERLAP);
+					}
+					load = new CompletableFuture<>();
+					loading = load;
+					changedDuringLoad = new ArrayList<>();
+					reader = true;
+				}
+			}
+			return reader ? read(load, now, fullLoad, since) : await(load);
+		}
+
+		private FacilityEvents read(CompletableFuture<FacilityEvents> load, Instant now, boolean fullLoad,
+				Instant since) {
+			try {
+				List<TreatingElsewhere> rows = scheduleExceptionToTreatingElsewhereConverter.convertCollectionToListWithContext(
+						fullLoad
+								? srScheduleExceptionRepository.findAllActiveTreatingElsewhereByFacility(key)
+								: srScheduleExceptionRepository.findAllTreatingElsewhereByFacilityUpdatedSince(key,
+										Timestamp.from(since)));
+				FacilityEvents updated;
+				synchronized (this) {
+					updated = fullLoad ? new FacilityEvents() : events;
+					rows.forEach(row -> updated.apply(row, key));
+					changedDuringLoad.forEach(changed -> updated.apply(changed, key));
+					events = updated;
+					refreshedAt = now;
+					if (fullLoad) {
+						loadedAt = now;
+					}
+					loading = null;
+					changedDuringLoad = null;
+				}
+				load.complete(updated);
+				return updated;
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					loading = null;
+					changedDuringLoad = null;
+				}
+				load.completeExceptionally(e);
+				throw e;
+			}
+		}
+
+		private FacilityEvents await(CompletableFuture<FacilityEvents> load) {
+			try {
+				return load.join();
+			} catch (CompletionException e) {
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+			}
+		}
+
+		private synchronized void apply(TreatingElsewhere treatingElsewhere) {
+			if (Objects.nonNull(changedDuringLoad)) {
+				changedDuringLoad.add(treatingElsewhere);
+			}
+			if (Objects.nonNull(events)) {
+				events.apply(treatingElsewhere, key);
+			}
+		}
+
+		private synchronized void expire() {
+			expired = true;
+		}
+
+		private synchronized boolean isExpired(Instant now) {
+			return Objects.isNull(loading)
+					&& (Objects.isNull(events) || expired || !loadedAt.plus(ttl).isAfter(now));
+		}
+	}
+
+	/**
+	 * Events of one facility by id. The interval snapshot is rebuilt on the first query after a change.
+	 */
+	private static final class FacilityEvents {
+
+		private final Map<UUID, TreatingElsewhere> byId = new HashMap<>();
+
+		private volatile IntervalSnapshot snapshot;
+
+		/**
+		 * Drops the event and re-adds it if it is still active at this facility.
+		 */
+		private synchronized void apply(TreatingElsewhere treatingElsewhere, String facilityKey) {
+			if (Objects.isNull(treatingElsewhere.getId())) {
+				return;
+			}
+			byId.remove(treatingElsewhere.getId());
+			if (isIndexable(treatingElsewhere)
+					&& facilityKey.equals(facilityKey(treatingElsewhere.getFacilityNumberDocumentedAt()))) {
+				byId.put(treatingElsewhere.getId(), treatingElsewhere);
+			}
+			snapshot = null;
+		}
+
+		private IntervalSnapshot snapshot() {
+			IntervalSnapshot current = snapshot;
+			if (Objects.nonNull(current)) {
+				return current;
+			}
+			synchronized (this) {
+				if (Objects.isNull(snapshot)) {
+					snapshot = new IntervalSnapshot(byId.values());
+				}
+				return snapshot;
+			}
+		}
+	}
+
+	/**
+	 * Immutable augmented interval tree laid out implicitly over events sorted by start day: the node of range
+	 * {@code [lo, hi)} is its midpoint, and {@code maxEnds[mid]} is the latest end day in that range, which lets a query
+	 * skip every subtree that ends before the requested day.
+	 */
+	static final class IntervalSnapshot {
+
+		private final TreatingElsewhere[] events;
+
+		private final long[] starts;
+
+		private final long[] ends;
+
+		private final long[] maxEnds;
+
+		IntervalSnapshot(Collection<TreatingElsewhere> treatingElsewheres) {
+			events = treatingElsewheres.toArray(new TreatingElsewhere[0]);
+			Arrays.sort(events, Comparator.comparing(treatingElsewhere -> treatingElsewhere.getStartDate().toLocalDate()));
+			starts = new long[events.length];
+			ends = new long[events.length];
+			maxEnds = new long[events.length];
+			for (int i = 0; i < events.length; i++) {
+				starts[i] = events[i].getStartDate().toLocalDate().toEpochDay();
+				ends[i] = events[i].getEndDate().toLocalDate().toEpochDay();
+			}
+			augment(0, events.length);
+		}
+
+		List<TreatingElsewhere> overlapping(long day, Set<String> mpis) {
+			List<TreatingElsewhere> result = new ArrayList<>();
+			collect(0, events.length, day, mpis, result);
+			return result;
+		}
+
+		private long augment(int lo, int hi) {
+			if (lo >= hi) {
+				return Long.MIN_VALUE;
+			}
+			int mid = (lo + hi) >>> 1;
+			maxEnds[mid] = Math.max(ends[mid], Math.max(augment(lo, mid), augment(mid + 1, hi)));
+			return maxEnds[mid];
+		}
+
+		private void collect(int lo, int hi, long day, Set<String> mpis, List<TreatingElsewhere> result) {
+			if (lo >= hi) {
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			if (maxEnds[mid] < day) {
+				return;
+			}
+			collect(lo, mid, day, mpis, result);
+			if (starts[mid] <= day) {
+				if (ends[mid] >= day && mpis.contains(events[mid].getMasterPatientIdentifier())) {
+					result.add(events[mid]);
+				}
+				collect(mid + 1, hi, day, mpis, result);
+			}
+		}
+	}
+}
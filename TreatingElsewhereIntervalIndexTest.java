@@ -0,0 +1,243 @@
+package com.davita.cwow.patient.hmt.service;
+
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
+import com.davita.cwow.patient.service.model.schedule.TreatingElsewhereChangedEvent;
+import com.davita.cwow.patient.service.repository.SrScheduleExceptionRepository;
+import com.davita.cwow.patient.spanner.model.converters.dto.ScheduleExceptionDtoMapper;
+import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToTreatingElsewhereConverter;
+import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mapstruct.factory.Mappers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TreatingElsewhereIntervalIndexTest {
+
+    private static final Instant NOW = Instant.parse("2019-09-29T12:00:00Z");
+    private static final LocalDate EVENT_DATE = LocalDate.of(2019, 9, 29);
+
+    @Mock
+    private SrScheduleExceptionRepository srScheduleExceptionRepository;
+
+    @Mock
+    private SrScheduleExceptionToTreatingElsewhereConverter converter;
+
+    private Clock clock;
+
+    private TreatingElsewhereIntervalIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(NOW);
+        index = new TreatingElsewhereIntervalIndex(srScheduleExceptionRepository, converter,
+                Mappers.getMapper(ScheduleExceptionDtoMapper.class), Duration.ofMinutes(5), Duration.ofSeconds(15), clock);
+    }
+
+    @Test
+    public void findActiveOnMatchesInclusiveBoundsAndMpis() {
+        TreatingElsewhere endsOnDate = treatingElsewhere("100500", "2019-09-01", "2019-09-29");
+        TreatingElsewhere startsOnDate = treatingElsewhere("100501", "2019-09-29", "2019-10-15");
+        TreatingElsewhere endedBefore = treatingElsewhere("100502", "2019-08-01", "2019-09-28");
+        TreatingElsewhere startsAfter = treatingElsewhere("100503", "2019-09-30", "2019-10-30");
+        TreatingElsewhere otherMpi = treatingElsewhere("100599", "2019-09-01", "2019-12-31");
+        loadFacility("03436", endsOnDate, startsOnDate, endedBefore, startsAfter, otherMpi);
+
+        List<TreatingElsewhere> actual = index.findActiveOn("03436", EVENT_DATE,
+                Arrays.asList("100500", "100501", "100502", "100503"));
+
+        assertEquals(Arrays.asList(endsOnDate.getId(), startsOnDate.getId()), ids(actual));
+    }
+
+    @Test
+    public void findActiveOnMatchesLinearScanOnManyIntervals() {
+        List<TreatingElsewhere> events = new ArrayList<>();
+        List<String> mpis = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            LocalDate start = EVENT_DATE.minusDays((i * 37) % 120);
+            events.add(treatingElsewhere(String.valueOf(i), start.toString(), start.plusDays((i * 13) % 90).toString()));
+            mpis.add(String.valueOf(i));
+        }
+        loadFacility("03436", events.toArray(new TreatingElsewhere[0]));
+
+        for (int offset = -130; offset <= 100; offset += 10) {
+            LocalDate date = EVENT_DATE.plusDays(offset);
+            List<UUID> expected = events.stream()
+                    .filter(te -> !te.getStartDate().toLocalDate().isAfter(date))
+                    .filter(te -> !te.getEndDate().toLocalDate().isBefore(date))
+                    .map(TreatingElsewhere::getId)
+                    .sorted()
+                    .collect(Collectors.toList());
+            List<UUID> actual = ids(index.findActiveOn("03436", date, mpis));
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void facilityIsCaseInsensitiveAndLoadedOncePerTtl() {
+        loadFacility("03436A", treatingElsewhere("100500", "2019-09-01", "2019-09-30"));
+
+        assertEquals(1, index.findActiveOn("03436a", EVENT_DATE, Collections.singletonList("100500")).size());
+        assertEquals(1, index.findActiveOn("03436A", EVENT_DATE, Collections.singletonList("100500")).size());
+        verify(srScheduleExceptionRepository, times(1)).findAllActiveTreatingElsewhereByFacility("03436A");
+
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(6)));
+        index.findActiveOn("03436A", EVENT_DATE, Collections.singletonList("100500"));
+        verify(srScheduleExceptionRepository, times(2)).findAllActiveTreatingElsewhereByFacility("03436A");
+    }
+
+    @Test
+    public void writtenEventsUpdateLoadedFacility() {
+        TreatingElsewhere existing = treatingElsewhere("100500", "2019-09-01", "2019-09-30");
+        loadFacility("03436", existing);
+        List<String> mpis = Arrays.asList("100500", "100501");
+        index.findActiveOn("03436", EVENT_DATE, mpis);
+
+        TreatingElsewhere added = treatingElsewhere("100501", "2019-09-29", "2019-09-29");
+        index.onTreatingElsewhereChanged(new TreatingElsewhereChangedEvent(added));
+        assertEquals(Arrays.asList(existing.getId(), added.getId()), ids(index.findActiveOn("03436", EVENT_DATE, mpis)));
+
+        existing.setIsEnteredInError(true);
+        index.onTreatingElsewhereChanged(new TreatingElsewhereChangedEvent(existing));
+        assertEquals(Collections.singletonList(added.getId()), ids(index.findActiveOn("03436", EVENT_DATE, mpis)));
+
+        added.setFacilityNumberDocumentedAt("09999");
+        index.onTreatingElsewhereChanged(new TreatingElsewhereChangedEvent(added));
+        assertTrue(index.findActiveOn("03436", EVENT_DATE, mpis).isEmpty());
+    }
+
+    @Test
+    public void eventsWrittenDuringALoadAreAppliedAfterIt() {
+        TreatingElsewhere readByTheLoad = treatingElsewhere("100500", "2019-09-01", "2019-09-30");
+        TreatingElsewhere enteredInErrorDuringTheLoad = treatingElsewhere("100500", "2019-09-01", "2019-09-30");
+        enteredInErrorDuringTheLoad.setId(readByTheLoad.getId());
+        enteredInErrorDuringTheLoad.setIsEnteredInError(true);
+        TreatingElsewhere addedDuringTheLoad = treatingElsewhere("100501", "2019-09-29", "2019-09-29");
+        doAnswer(invocation -> {
+            index.onTreatingElsewhereChanged(new TreatingElsewhereChangedEvent(enteredInErrorDuringTheLoad));
+            index.onTreatingElsewhereChanged(new TreatingElsewhereChangedEvent(addedDuringTheLoad));
+            return Collections.emptyList();
+        }).when(srScheduleExceptionRepository).findAllActiveTreatingElsewhereByFacility("03436");
+        doReturn(new ArrayList<>(Collections.singletonList(readByTheLoad)))
+                .when(converter).convertCollectionToListWithContext(any());
+
+        assertEquals(Collections.singletonList(addedDuringTheLoad.getId()),
+                ids(index.findActiveOn("03436", EVENT_DATE, Arrays.asList("100500", "100501"))));
+    }
+
+    @Test
+    public void loadedFacilityIsRefreshedWithRowsUpdatedElsewhere() {
+        TreatingElsewhere existing = treatingElsewhere("100500", "2019-09-01", "2019-09-30");
+        loadFacility("03436", existing);
+        List<String> mpis = Arrays.asList("100500", "100501");
+        index.findActiveOn("03436", EVENT_DATE, mpis);
+
+        TreatingElsewhere addedElsewhere = treatingElsewhere("100501", "2019-09-29", "2019-09-29");
+        TreatingElsewhere deletedElsewhere = treatingElsewhere("100500", "2019-09-01", "2019-09-30");
+        deletedElsewhere.setId(existing.getId());
+        deletedElsewhere.setIsActive(false);
+        List<SrScheduleException> updatedRows = Collections.singletonList(mock(SrScheduleException.class));
+        doReturn(updatedRows).when(srScheduleExceptionRepository).findAllTreatingElsewhereByFacilityUpdatedSince(
+                "03436", Timestamp.from(NOW.minus(Duration.ofMinutes(1))));
+        doReturn(new ArrayList<>(Arrays.asList(addedElsewhere, deletedElsewhere)))
+                .when(converter).convertCollectionToListWithContext(updatedRows);
+
+        when(clock.instant()).thenReturn(NOW.plusSeconds(10));
+        assertEquals(Collections.singletonList(existing.getId()), ids(index.findActiveOn("03436", EVENT_DATE, mpis)));
+        verify(srScheduleExceptionRepository, never()).findAllTreatingElsewhereByFacilityUpdatedSince(any(), any());
+
+        when(clock.instant()).thenReturn(NOW.plusSeconds(20));
+        assertEquals(Collections.singletonList(addedElsewhere.getId()), ids(index.findActiveOn("03436", EVENT_DATE, mpis)));
+        verify(srScheduleExceptionRepository, times(1)).findAllActiveTreatingElsewhereByFacility("03436");
+    }
+
+    @Test
+    public void findActiveOnReturnsCopiesOfTheIndexedEvents() {
+        TreatingElsewhere indexed = treatingElsewhere("100500", "2019-09-01", "2019-09-30");
+        loadFacility("03436", indexed);
+        List<String> mpis = Collections.singletonList("100500");
+
+        TreatingElsewhere found = index.findActiveOn("03436", EVENT_DATE, mpis).get(0);
+        assertNotSame(indexed, found);
+        assertEquals(indexed.getId(), found.getId());
+        found.setEndDate(found.getStartDate());
+
+        assertEquals(Collections.singletonList(indexed.getId()), ids(index.findActiveOn("03436", EVENT_DATE, mpis)));
+    }
+
+    @Test
+    public void facilitiesOlderThanTheTtlAreDropped() {
+        loadFacility("03436", treatingElsewhere("100500", "2019-09-01", "2019-09-30"));
+        index.findActiveOn("03436", EVENT_DATE, Collections.singletonList("100500"));
+        index.findActiveOn("09999", EVENT_DATE, Collections.singletonList("100500"));
+        assertEquals(2, index.size());
+
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(6)));
+        index.findActiveOn("09999", EVENT_DATE, Collections.singletonList("100500"));
+
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void eventWithoutIdReloadsLoadedFacilities() {
+        loadFacility("03436", treatingElsewhere("100500", "2019-09-01", "2019-09-30"));
+        index.findActiveOn("03436", EVENT_DATE, Collections.singletonList("100500"));
+
+        TreatingElsewhere withoutId = treatingElsewhere("100501", "2019-09-29", "2019-09-29");
+        withoutId.setId(null);
+        index.onTreatingElsewhereChanged(new TreatingElsewhereChangedEvent(withoutId));
+        index.findActiveOn("03436", EVENT_DATE, Collections.singletonList("100500"));
+
+        verify(srScheduleExceptionRepository, times(2)).findAllActiveTreatingElsewhereByFacility("03436");
+    }
+
+    private void loadFacility(String facilityNumber, TreatingElsewhere... events) {
+        doReturn(Collections.emptyList()).when(srScheduleExceptionRepository).findAllActiveTreatingElsewhereByFacility(facilityNumber);
+        doReturn(new ArrayList<>(Arrays.asList(events))).when(converter).convertCollectionToListWithContext(any());
+    }
+
+    private TreatingElsewhere treatingElsewhere(String mpi, String startDate, String endDate) {
+        TreatingElsewhere treatingElsewhere = new TreatingElsewhere();
+        treatingElsewhere.setId(UUID.randomUUID());
+        treatingElsewhere.setMasterPatientIdentifier(mpi);
+        treatingElsewhere.setFacilityNumberDocumentedAt("03436");
+        treatingElsewhere.setStartDate(LocalDate.parse(startDate).atStartOfDay(ZoneOffset.UTC));
+        treatingElsewhere.setEndDate(ZonedDateTime.of(LocalDate.parse(endDate).atTime(19, 30), ZoneOffset.UTC));
+        treatingElsewhere.setIsActive(true);
+        treatingElsewhere.setIsEnteredInError(false);
+        return treatingElsewhere;
+    }
+
+    private List<UUID> ids(List<TreatingElsewhere> treatingElsewheres) {
+        return treatingElsewheres.stream().map(TreatingElsewhere::getId).collect(Collectors.toList());
+    }
+}
@@ -2,16 +2,17 @@ package com.davita.cwow.patient.hmt.service;
 
 import com.davita.cwow.patient.service.api.config.ServiceConstants;
 import com.davita.cwow.patient.service.api.exception.PatientQueryApiRuntimeException;
-import com.davita.cwow.patient.service.common.FacilityQueryService;
+import com.davita.cwow.patient.service.common.FacilityNameCache;
+import com.davita.cwow.patient.service.model.MpiSet;
 import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
 import com.davita.cwow.patient.service.model.schedule.dto.HMTEventHistoryDto;
 import com.davita.cwow.patient.service.model.schedule.dto.TreatingElsewhereDto;
 import com.davita.cwow.patient.service.repository.SrScheduleExceptionRepository;
 import com.davita.cwow.patient.spanner.model.converters.dto.HMTEventHistoryDtoConverter;
+import com.davita.cwow.patient.spanner.model.converters.dto.ScheduleExceptionDtoMapper;
 import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToTreatingElsewhereConverter;
 import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
 import org.apache.commons.collections.CollectionUtils;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -26,10 +27,10 @@ public class TreatingElsewhereQueryService {
 	private SrScheduleExceptionRepository srScheduleExceptionRepository;
 
 	@Autowired
-	private FacilityQueryService facilityQueryService;
+	private FacilityNameCache facilityNameCache;
 
 	@Autowired
-	private ModelMapper mapper;
+	private ScheduleExceptionDtoMapper scheduleExceptionDtoMapper;
 
 	@Autowired
 	private SrScheduleExceptionToTreatingElsewhereConverter scheduleExceptionToTreatingElsewhereConverter;
@@ -37,10 +38,16 @@ public class TreatingElsewhereQueryService {
 	@Autowired
 	private HMTEventHistoryDtoConverter hmtEventHistoryDtoConverter;
 
+	@Autowired
+	private TreatingElsewhereIntervalIndex treatingElsewhereIntervalIndex;
+
 	public List<TreatingElsewhere> getAllActiveTreatingElsewhereEvents(Object[] mpis) {
+		return getAllActiveTreatingElsewhereEvents(MpiSet.of(mpis));
+	}
+
+	public List<TreatingElsewhere> getAllActiveTreatingElsewhereEvents(MpiSet mpis) {
 		return scheduleExceptionToTreatingElsewhereConverter.convertCollectionToListWithContext(
-			srScheduleExceptionRepository.findAllActiveTreatingElsewhereByMpi(
-				Arrays.stream(mpis).map(Object::toString).collect(Collectors.toList())));
+			srScheduleExceptionRepository.findAllActiveTreatingElsewhereByMpi(mpis));
 	}
 
 	public List<TreatingElsewhere> getAllActiveTreatingElsewhereEvents(String mpi) {
@@ -49,13 +56,12 @@ public class TreatingElsewhereQueryService {
 	}
 
 	public TreatingElsewhereDto getTreatingElsewhereEventDetails(String mpi, UUID id) {
-		SrScheduleException srScheduleException = srScheduleExceptionRepository.findByMpiAndScheduleExceptionId(mpi, id)
+		SrScheduleException srScheduleException = srScheduleExceptionRepository.findWithHistsByMpiAndScheduleExceptionId(mpi, id)
 				.orElseThrow(() -> new PatientQueryApiRuntimeException(ServiceConstants.SCHEDULE_EXCEPTION_NOT_FOUND));
 
 		TreatingElsewhere treatingElsewhere = scheduleExceptionToTreatingElsewhereConverter.convertWithContext(srScheduleException);
 
-		TreatingElsewhereDto treatingElsewhereDto = new TreatingElsewhereDto();
-		mapper.map(treatingElsewhere, treatingElsewhereDto);
+		TreatingElsewhereDto treatingElsewhereDto = scheduleExceptionDtoMapper.toTreatingElsewhereDto(treatingElsewhere);
 
 		List<HMTEventHistoryDto> hmtEventHistory = new ArrayList<>();
 		if (CollectionUtils.isNotEmpty(srScheduleException.getScheduleExceptionHists())) {
@@ -72,19 +78,20 @@ public class TreatingElsewhereQueryService {
 		treatingElsewhereDto.setScheduleExceptionTrackList(null);
 		
 		treatingElsewhereDto.setFacilityName(
-				facilityQueryService.getFacilityName(treatingElsewhereDto.getFacilityNumberDocumentedAt()));
+				facilityNameCache.getFacilityName(treatingElsewhereDto.getFacilityNumberDocumentedAt()));
 
 		return treatingElsewhereDto;
 	}
 	
+	/**
+	 * Active treating-elsewhere events of the given mpis at {@code facilityNumber} that cover {@code eventDate},
+	 * answered from the facility's interval index.
+	 */
 	public List<TreatingElsewhere> getAllTreatingElsewhereEvents(Object [] mpis, String facilityNumber, LocalDate eventDate){
-		return getAllActiveTreatingElsewhereEvents(mpis).stream()
-				.filter(te -> te.getFacilityNumberDocumentedAt().equalsIgnoreCase(facilityNumber))
-				.filter(te -> Optional.ofNullable(te.getFacilityNumberDocumentedAt()).isPresent())
-				.filter(te -> Optional.ofNullable(te.getStartDate()).isPresent())
-				.filter(te -> Optional.ofNullable(te.getEndDate()).isPresent())
-				.filter(te -> ( te.getStartDate().toLocalDate().isBefore(eventDate) || te.getStartDate().toLocalDate().isEqual(eventDate)))
-				.filter(te -> ( te.getEndDate().toLocalDate().isAfter(eventDate) || te.getEndDate().toLocalDate().isEqual(eventDate)))
-				.collect(Collectors.toList());
+		return getAllTreatingElsewhereEvents(MpiSet.of(mpis), facilityNumber, eventDate);
+	}
+
+	public List<TreatingElsewhere> getAllTreatingElsewhereEvents(MpiSet mpis, String facilityNumber, LocalDate eventDate) {
+		return treatingElsewhereIntervalIndex.findActiveOn(facilityNumber, eventDate, mpis);
 	}
 }
@@ -3,13 +3,14 @@ package com.davita.cwow.patient.hmt.service;
 import com.davita.cwow.model.domain.ref.codesets.CodeConceptRefData;
 import com.davita.cwow.patient.service.api.config.ServiceConstants;
 import com.davita.cwow.patient.service.api.exception.PatientQueryApiRuntimeException;
-import com.davita.cwow.patient.service.common.FacilityQueryService;
+import com.davita.cwow.patient.service.common.FacilityNameCache;
 import com.davita.cwow.patient.service.model.schedule.TreatingElsewhere;
 import com.davita.cwow.patient.service.model.schedule.dto.HMTEventHistoryDto;
 import com.davita.cwow.patient.service.model.schedule.dto.TreatingElsewhereDto;
 import com.davita.cwow.patient.service.repository.SrScheduleExceptionRepository;
 import com.davita.cwow.patient.spanner.enricher.UserEnteredBaseAggregateEnricher;
 import com.davita.cwow.patient.spanner.model.converters.dto.HMTEventHistoryDtoConverter;
+import com.davita.cwow.patient.spanner.model.converters.dto.ScheduleExceptionDtoMapper;
 import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionHistToScheduleExceptionTrackConverter;
 import com.davita.cwow.patient.spanner.model.converters.fromspanner.SrScheduleExceptionToTreatingElsewhereConverter;
 import com.davita.cwow.patient.spanner.model.schedule.SrScheduleException;
@@ -24,13 +25,15 @@ import com.davita.cwow.patient.spanner.util.EntityUtil;
 import com.davita.cwow.patient.spanner.util.UuidUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mapstruct.factory.Mappers;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
-import org.modelmapper.ModelMapper;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.Month;
@@ -57,7 +60,7 @@ public class TreatingElsewhereQueryServiceTest {
     private SrScheduleExceptionRepository srScheduleExceptionRepository;
 
     @Mock
-    private FacilityQueryService facilityQueryService;
+    private FacilityNameCache facilityNameCache;
 
     @Mock
     private PatientMpiService patientMpiService;
@@ -71,8 +74,11 @@ public class TreatingElsewhereQueryServiceTest {
     @Mock
     private HMTEventHistoryDtoConverter hmtEventHistoryDtoConverter;
 
+    @Mock
+    private TreatingElsewhereIntervalIndex treatingElsewhereIntervalIndex;
+
     @Spy
-    private ModelMapper mapper;
+    private ScheduleExceptionDtoMapper scheduleExceptionDtoMapper = Mappers.getMapper(ScheduleExceptionDtoMapper.class);
 
     @BeforeEach
     public void setUp() {
@@ -88,7 +94,7 @@ public class TreatingElsewhereQueryServiceTest {
         TreatingElsewhereDto expectedDto = createExpectedDto(mpi);
 
         doReturn(Optional.of(srScheduleException)).when(srScheduleExceptionRepository).
-                findByMpiAndScheduleExceptionId(mpi, UUID.fromString(treatingId));
+                findWithHistsByMpiAndScheduleExceptionId(mpi, UUID.fromString(treatingId));
 
         when(hmtEventHistoryDtoConverter.toDto(any(SrScheduleExceptionHist.class))).thenReturn(toDto(prepareHist(srScheduleException)));
 
@@ -102,7 +108,7 @@ public class TreatingElsewhereQueryServiceTest {
     @Test
     public void getTreatingElsewhereDetailsTestNotFound() {
         doReturn(Optional.empty()).when(srScheduleExceptionRepository).
-                findByMpiAndScheduleExceptionId(any(), any(UUID.class));
+                findWithHistsByMpiAndScheduleExceptionId(any(), any(UUID.class));
 
         PatientQueryApiRuntimeException exception = assertThrows(PatientQueryApiRuntimeException.class, () -> {
             treatingElsewhereQueryService.getTreatingElsewhereEventDetails("100500", UUID.randomUUID());
@@ -174,8 +180,16 @@ public class TreatingElsewhereQueryServiceTest {
     @Test
     public void getAllTreatingElsewhereEvents() {
         List<SrScheduleException> srModels = prepareScheduleExceptions();
-
-        doReturn(srModels).when(srScheduleExceptionRepository).findAllActiveTreatingElsewhereByMpi(anyList());
+        doReturn(srModels).when(srScheduleExceptionRepository).findAllActiveTreatingElsewhereByFacility("123");
+        doReturn("100500").when(patientMpiService).getMpiByPatientId(srModels.get(0).getPatientId());
+        doReturn("100501").when(patientMpiService).getMpiByPatientId(srModels.get(1).getPatientId());
+        doReturn("100502").when(patientMpiService).getMpiByPatientId(srModels.get(2).getPatientId());
+        doReturn("100503").when(patientMpiService).getMpiByPatientId(srModels.get(3).getPatientId());
+        ReflectionTestUtils.setField(treatingElsewhereQueryService, "treatingElsewhereIntervalIndex",
+                new TreatingElsewhereIntervalIndex(srScheduleExceptionRepository,
+                        new SrScheduleExceptionToTreatingElsewhereConverter(mock(UserEnteredBaseAggregateEnricher.class),
+                                patientMpiService, mock(SrScheduleExceptionHistToScheduleExceptionTrackConverter.class)),
+                        scheduleExceptionDtoMapper, Duration.ofMinutes(5), Duration.ofSeconds(15)));
 
         List<TreatingElsewhere> actualTreatings = treatingElsewhereQueryService.getAllTreatingElsewhereEvents(
                 new Object[]{"100500", "100501", "100502", "100503", "100504"},
@@ -0,0 +1,28 @@
+package com.davita.cwow.patient.service.model.schedule;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.UUID;
+
+/**
+ * Outcome of one event of a bulk treating-elsewhere write, at the event's position in the request.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class TreatingElsewhereWriteResult {
+
+	public enum Status {
+		WRITTEN, DUPLICATE, REJECTED, FAILED
+	}
+
+	private final int index;
+
+	private final UUID id;
+
+	private final Status status;
+
+	private final String message;
+}